@@ -0,0 +1,176 @@
+package org.uichuimi.variant.viewer.filter;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFFilterHeaderLine;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLine;
+import htsjdk.variant.vcf.VCFHeaderLineCount;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uichuimi.variant.viewer.components.Accessor;
+import org.uichuimi.variant.viewer.utils.Constants;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares filters compiled by {@link FilterCompiler} with the generic comparison of extracted values, on generated
+ * variants. Run with <code>mvn -Pbenchmark test-compile exec:exec -Dbenchmark=FilterBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+	private static final int SIZE = 10_000;
+
+	@Param({"POS", "QUAL", "DP", "AF", "GENE", "ID", "CSQ", "FILTER"})
+	private String filter;
+
+	private VariantContext[] variants;
+	private AttributeFilter compiled;
+	private Generic generic;
+
+	@Setup
+	public void setup() {
+		final VCFHeader header = new VCFHeader(Set.<VCFHeaderLine>of(
+			new VCFHeaderLine(VCFHeaderVersion.VCF4_2.getFormatString(), VCFHeaderVersion.VCF4_2.getVersionString()),
+			new VCFFilterHeaderLine("LowQual", "Low quality"),
+			new VCFInfoHeaderLine("DP", 1, VCFHeaderLineType.Integer, "Depth"),
+			new VCFInfoHeaderLine("AF", VCFHeaderLineCount.A, VCFHeaderLineType.Float, "Allele frequency"),
+			new VCFInfoHeaderLine("GENE", 1, VCFHeaderLineType.String, "Gene"),
+			new VCFInfoHeaderLine("CSQ", VCFHeaderLineCount.UNBOUNDED, VCFHeaderLineType.String, "Consequences")));
+		final VCFCodec codec = new VCFCodec();
+		codec.setVCFHeader(header, VCFHeaderVersion.VCF4_2);
+		final Random random = new Random(1);
+		variants = new VariantContext[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			final String line = String.join("\t",
+				"chr1",
+				String.valueOf(1 + i * 200),
+				random.nextBoolean() ? "rs" + random.nextInt(1_000_000) : ".",
+				"A",
+				"C,G",
+				String.valueOf(random.nextInt(1000)),
+				random.nextInt(4) == 0 ? "LowQual" : "PASS",
+				"DP=" + random.nextInt(600)
+					+ ";AF=" + random.nextDouble() + "," + random.nextDouble()
+					+ ";GENE=g" + random.nextInt(200)
+					+ ";CSQ=c" + random.nextInt(5) + ",c" + random.nextInt(5));
+			variants[i] = codec.decode(line);
+		}
+		final Field field;
+		switch (filter) {
+			case "POS" -> {
+				field = new Field(Field.Type.INTEGER, List.of(), Constants.POS, false, Field.Category.STANDARD);
+				compiled = new AttributeFilter(field, Accessor.ANY, Operator.INT_GREATER, 1_000_000, false, List.of());
+			}
+			case "QUAL" -> {
+				field = new Field(Field.Type.FLOAT, List.of(), Constants.QUAL, false, Field.Category.STANDARD);
+				compiled = new AttributeFilter(field, Accessor.ANY, Operator.FLOAT_GREATER_OR_EQUAL, 500.0, false, List.of());
+			}
+			case "DP" -> {
+				field = new Field(Field.Type.INTEGER, List.of(), "DP", false, Field.Category.INFO);
+				compiled = new AttributeFilter(field, Accessor.ANY, Operator.INT_LOWER, 300, false, List.of());
+			}
+			case "AF" -> {
+				field = new Field(Field.Type.FLOAT, List.of(), "AF", true, Field.Category.INFO);
+				compiled = new AttributeFilter(field, Accessor.ANY, Operator.FLOAT_GREATER, 0.5, false, List.of());
+			}
+			case "GENE" -> {
+				field = new Field(Field.Type.TEXT, List.of(), "GENE", false, Field.Category.INFO);
+				compiled = new AttributeFilter(field, Accessor.ANY, Operator.TEXT_CONTAINS, "g12", false, List.of());
+			}
+			case "ID" -> {
+				field = new Field(Field.Type.TEXT, List.of(), Constants.ID, false, Field.Category.STANDARD);
+				compiled = new AttributeFilter(field, Accessor.ANY, Operator.TEXT_CONTAINS, "RS84", false, List.of());
+			}
+			case "CSQ" -> {
+				field = new Field(Field.Type.TEXT, List.of(), "CSQ", true, Field.Category.INFO);
+				compiled = new AttributeFilter(field, Accessor.ALL, Operator.TEXT_EQUAL, "c3", false, List.of());
+			}
+			case "FILTER" -> {
+				field = new Field(Field.Type.TEXT, List.of("PASS", "LowQual"), Constants.FILTER, true, Field.Category.STANDARD);
+				compiled = new AttributeFilter(field, Accessor.ANY, Operator.TEXT_EQUAL, List.of("PASS"), false, List.of());
+			}
+			default -> throw new IllegalArgumentException("Unknown filter " + filter);
+		}
+		generic = new Generic(compiled);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public int compiled() {
+		int count = 0;
+		for (VariantContext variant : variants) if (compiled.filter(variant)) count++;
+		return count;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public int generic() {
+		int count = 0;
+		for (VariantContext variant : variants) if (generic.filter(variant)) count++;
+		return count;
+	}
+
+	/**
+	 * The comparison of extracted values that {@link AttributeFilter} falls back to when the filter is not compiled.
+	 */
+	private static class Generic {
+
+		private final AttributeFilter filter;
+
+		private Generic(AttributeFilter filter) {
+			this.filter = filter;
+		}
+
+		boolean filter(VariantContext variant) {
+			return filter(filter.getValue(), filter.getField().extract(variant));
+		}
+
+		private boolean filter(Object thisValue, Object queryValue) {
+			if (thisValue instanceof Collection) {
+				return filter((Collection<?>) thisValue, queryValue);
+			}
+			if (queryValue instanceof Collection) {
+				return filter(thisValue, (Collection<?>) queryValue);
+			}
+			if (queryValue == null) return !filter.isStrict();
+			return filter.getOperator().query(queryValue, thisValue);
+		}
+
+		private boolean filter(final Object thisValue, final Collection<?> queryValue) {
+			if (queryValue.isEmpty()) return !filter.isStrict();
+			return switch (filter.getAccessor()) {
+				case ALL -> queryValue.stream().allMatch(val -> filter(thisValue, val));
+				case NONE -> queryValue.stream().noneMatch(val -> filter(thisValue, val));
+				default -> queryValue.stream().anyMatch(val -> filter(thisValue, val));
+			};
+		}
+
+		private boolean filter(Collection<?> thisValue, Object queryValue) {
+			return thisValue.stream().anyMatch(val -> filter(val, queryValue));
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package org.uichuimi.variant.viewer.index;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uichuimi.variant.viewer.utils.BitUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link BitUtils} kernels used to filter and count genotypes, plain loops over the words, with the same
+ * loops unrolled by hand into four independent accumulators or four words per branch. The genotype plane is a bitmap
+ * container in a direct buffer, as in a mapped archive, and the samples of a filter are a long[] mask. Run with
+ * <code>mvn -Pbenchmark test-compile exec:exec -Dbenchmark=GenotypeKernelBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenotypeKernelBenchmark {
+
+	@Param({"100", "1000", "10000", "100000", "500000"})
+	private int samples;
+
+	private ByteBuffer plane;
+	private long[] mask;
+	/**
+	 * Samples that are not in the plane, so intersects reads every word
+	 */
+	private long[] disjoint;
+	private long[] words;
+
+	@Setup
+	public void setup() {
+		final Random random = new Random(1);
+		final int length = (samples + 63) >> 6;
+		words = new long[length];
+		mask = new long[length];
+		disjoint = new long[length];
+		for (int w = 0; w < length; w++) {
+			// A quarter of the samples have the type, so the plane is stored as a bitmap container
+			words[w] = random.nextLong() & random.nextLong();
+			mask[w] = random.nextLong();
+			disjoint[w] = ~words[w] & random.nextLong();
+		}
+		if ((samples & 63) != 0) {
+			words[length - 1] &= -1L >>> -samples;
+			mask[length - 1] &= -1L >>> -samples;
+			disjoint[length - 1] &= -1L >>> -samples;
+		}
+		plane = ByteBuffer.allocateDirect(SparseBitmap.encodedSize(words, 0, length));
+		SparseBitmap.write(words, 0, length, plane);
+		if (plane.getInt(0) >>> 30 != SparseBitmap.BITMAP) throw new IllegalStateException("Not a bitmap container");
+	}
+
+	@Benchmark
+	public int kernelAndCardinality() {
+		return SparseBitmap.andCardinality(plane, 0, mask);
+	}
+
+	@Benchmark
+	public int unrolledAndCardinality() {
+		final int n = mask.length;
+		int c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			final int position = 4 + 8 * i;
+			c0 += Long.bitCount(plane.getLong(position) & mask[i]);
+			c1 += Long.bitCount(plane.getLong(position + 8) & mask[i + 1]);
+			c2 += Long.bitCount(plane.getLong(position + 16) & mask[i + 2]);
+			c3 += Long.bitCount(plane.getLong(position + 24) & mask[i + 3]);
+		}
+		for (; i < n; i++) c0 += Long.bitCount(plane.getLong(4 + 8 * i) & mask[i]);
+		return c0 + c1 + c2 + c3;
+	}
+
+	@Benchmark
+	public boolean kernelIntersects() {
+		return SparseBitmap.intersects(plane, 0, disjoint);
+	}
+
+	@Benchmark
+	public boolean unrolledIntersects() {
+		final int n = disjoint.length;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			final int position = 4 + 8 * i;
+			if ((plane.getLong(position) & disjoint[i]
+				| plane.getLong(position + 8) & disjoint[i + 1]
+				| plane.getLong(position + 16) & disjoint[i + 2]
+				| plane.getLong(position + 24) & disjoint[i + 3]) != 0) return true;
+		}
+		for (; i < n; i++) {
+			if ((plane.getLong(4 + 8 * i) & disjoint[i]) != 0) return true;
+		}
+		return false;
+	}
+
+	@Benchmark
+	public int kernelAndCardinalityWords() {
+		return BitUtils.andCardinality(words, mask);
+	}
+
+	@Benchmark
+	public int unrolledAndCardinalityWords() {
+		final int n = mask.length;
+		int c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			c0 += Long.bitCount(words[i] & mask[i]);
+			c1 += Long.bitCount(words[i + 1] & mask[i + 1]);
+			c2 += Long.bitCount(words[i + 2] & mask[i + 2]);
+			c3 += Long.bitCount(words[i + 3] & mask[i + 3]);
+		}
+		for (; i < n; i++) c0 += Long.bitCount(words[i] & mask[i]);
+		return c0 + c1 + c2 + c3;
+	}
+}
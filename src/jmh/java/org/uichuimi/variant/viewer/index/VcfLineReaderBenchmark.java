@@ -0,0 +1,120 @@
+package org.uichuimi.variant.viewer.index;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a generated VCF file with {@link VcfLineReader} and with htsjdk's {@link VCFFileReader}, taking from every line
+ * what indexing takes: the contig, the value of every declared INFO key and the unparsed genotypes. Run with
+ * <code>mvn -Pbenchmark test-compile exec:exec -Dbenchmark=VcfLineReaderBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VcfLineReaderBenchmark {
+
+	private static final int LINES = 10_000;
+	private static final int SAMPLES = 100;
+
+	@Param({"plain", "bgzf"})
+	private String format;
+
+	/**
+	 * INFO keys declared in the header, all of them present in every line and requested to the reader
+	 */
+	@Param({"8", "200"})
+	private int keys;
+
+	private File file;
+	private List<String> infoKeys;
+
+	@Setup
+	public void setup() throws IOException {
+		final boolean bgzf = format.equals("bgzf");
+		file = File.createTempFile("benchmark", bgzf ? ".vcf.gz" : ".vcf");
+		infoKeys = new ArrayList<>();
+		for (int k = 0; k < keys; k++) infoKeys.add("KEY" + k);
+		final Random random = new Random(1);
+		final OutputStream output = bgzf ? new BlockCompressedOutputStream(file) : new FileOutputStream(file);
+		try (Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8)) {
+			writer.write("##fileformat=VCFv4.2\n");
+			writer.write("##contig=<ID=chr1>\n");
+			writer.write("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n");
+			for (String key : infoKeys) {
+				writer.write("##INFO=<ID=" + key + ",Number=1,Type=String,Description=\"" + key + "\">\n");
+			}
+			writer.write("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+			for (int s = 0; s < SAMPLES; s++) writer.write("\tS" + s);
+			writer.write("\n");
+			final StringBuilder line = new StringBuilder();
+			for (int i = 0; i < LINES; i++) {
+				line.setLength(0);
+				line.append("chr1\t").append(1 + 100 * i).append("\trs").append(i).append("\tA\tC\t50\tPASS\t");
+				for (int k = 0; k < keys; k++) {
+					if (k > 0) line.append(';');
+					line.append(infoKeys.get(k)).append('=').append(random.nextInt(1000));
+				}
+				line.append("\tGT");
+				for (int s = 0; s < SAMPLES; s++) line.append(random.nextInt(4) == 0 ? "\t0/1" : "\t0/0");
+				writer.write(line.append('\n').toString());
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public void vcfLineReader(Blackhole blackhole) throws IOException {
+		try (VcfLineReader reader = new VcfLineReader(file, infoKeys)) {
+			for (VcfLine line = reader.next(); line != null; line = reader.next()) {
+				blackhole.consume(line.getContig());
+				for (String key : infoKeys) blackhole.consume(line.getInfo(key));
+				blackhole.consume(line.getGenotypes());
+			}
+		}
+	}
+
+	@Benchmark
+	public void vcfFileReader(Blackhole blackhole) {
+		try (VCFFileReader reader = new VCFFileReader(file, false)) {
+			for (VariantContext variant : reader) {
+				blackhole.consume(variant.getContig());
+				for (String key : infoKeys) blackhole.consume(variant.getAttribute(key));
+				blackhole.consume(((LazyGenotypesContext) variant.getGenotypes()).getUnparsedGenotypeData());
+			}
+		}
+	}
+}
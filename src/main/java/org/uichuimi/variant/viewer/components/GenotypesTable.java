@@ -4,16 +4,17 @@ import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeType;
 import htsjdk.variant.variantcontext.VariantContext;
 import javafx.beans.property.SimpleObjectProperty;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.Node;
+import javafx.scene.control.Label;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.ToggleButton;
 import javafx.scene.layout.FlowPane;
+import org.uichuimi.variant.viewer.index.GtBitsetArchive;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.StringJoiner;
+import java.util.*;
 
 public class GenotypesTable {
 
@@ -29,7 +30,24 @@ public class GenotypesTable {
 	private TableColumn<Genotype, String> genotype;
 	@FXML
 	private TableColumn<Genotype, String> count;
+	@FXML
+	private Label sampleSummary;
 	private VariantContext variant;
+	private GtBitsetArchive archive;
+	private List<String> samples = List.of();
+	private Task<String> summary;
+
+	/**
+	 * Sets the genotype archive of the file, so selecting a sample shows how many sites it carries in the whole file.
+	 *
+	 * @param archive genotype archive, may be null
+	 * @param samples samples of the file, in archive order
+	 */
+	public void setArchive(GtBitsetArchive archive, List<String> samples) {
+		this.archive = archive;
+		this.samples = samples;
+		showSummary(null);
+	}
 
 	public void select(final VariantContext variant) {
 		this.variant = variant;
@@ -57,6 +75,7 @@ public class GenotypesTable {
 		genotype.setCellValueFactory(features -> new SimpleObjectProperty<>(features.getValue().getType().toString()));
 		alleles.setCellValueFactory(features -> new SimpleObjectProperty<>(features.getValue().getGenotypeString()));
 		count.setCellValueFactory(features -> new SimpleObjectProperty<>(alleleCount(features.getValue())));
+		table.getSelectionModel().selectedItemProperty().addListener((obs, prev, selected) -> showSummary(selected));
 		for (final GenotypeType type : GenotypeType.values()) {
 			final ToggleButton button = new ToggleButton(type.toString());
 			button.setMnemonicParsing(false);
@@ -68,6 +87,29 @@ public class GenotypesTable {
 		}
 	}
 
+	private void showSummary(Genotype genotype) {
+		if (summary != null) summary.cancel();
+		final int index = genotype == null ? -1 : samples.indexOf(genotype.getSampleName());
+		sampleSummary.setVisible(archive != null && index >= 0);
+		sampleSummary.setManaged(sampleSummary.isVisible());
+		if (!sampleSummary.isVisible()) return;
+		final GtBitsetArchive archive = this.archive;
+		sampleSummary.setText(genotype.getSampleName());
+		summary = new Task<>() {
+			@Override
+			protected String call() {
+				// Sample-major planes make these linear scans over the words of one sample
+				final long het = archive.countSites(index, GenotypeType.HET);
+				final long homVar = archive.countSites(index, GenotypeType.HOM_VAR);
+				return "%s: %,d HET, %,d HOM_VAR".formatted(genotype.getSampleName(), het, homVar);
+			}
+		};
+		summary.setOnSucceeded(event -> sampleSummary.setText((String) event.getSource().getValue()));
+		final Thread thread = new Thread(summary);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
 	private String alleleCount(final Genotype genotype) {
 		if (variant == null || genotype == null) return null;
 		final StringJoiner joiner = new StringJoiner(", ");
@@ -13,6 +13,7 @@ import javafx.scene.layout.VBox;
 import org.apache.commons.lang3.StringUtils;
 import org.controlsfx.control.CheckComboBox;
 import org.uichuimi.variant.viewer.filter.*;
+import org.uichuimi.variant.viewer.index.Distribution;
 import org.uichuimi.variant.viewer.index.VcfIndex;
 import org.uichuimi.variant.viewer.utils.Constants;
 
@@ -43,8 +44,13 @@ public class PropertyFilters {
 	private ComboBox<Operator> operator;
 	@FXML
 	private ListView<AttributeFilter> filters;
+	@FXML
+	private Label distribution;
+	@FXML
+	private Label estimate;
 
 	private VCFHeader header;
+	private VcfIndex index;
 
 	/**
 	 * Creates filters based on vcf header. Fields are created from {@link htsjdk.variant.vcf.VCFInfoHeaderLine}.
@@ -54,6 +60,7 @@ public class PropertyFilters {
 	 */
 	public void setMetadata(final VCFHeader header) {
 		this.header = header;
+		this.index = null;
 		createBasicFilters();
 	}
 
@@ -106,6 +113,7 @@ public class PropertyFilters {
 	 * @param index source index
 	 */
 	public void setMetadata(final VcfIndex index) {
+		this.index = index;
 		this.field.getItems().setAll(index.getFields());
 	}
 
@@ -182,6 +190,13 @@ public class PropertyFilters {
 		accessor.setValue(Accessor.ANY);
 
 		field.valueProperty().addListener((obs, prev, value) -> updateOptions());
+		// The predicted number of variants follows every change of the filter
+		field.valueProperty().addListener((obs, prev, value) -> updateEstimate());
+		operator.valueProperty().addListener((obs, prev, value) -> updateEstimate());
+		accessor.valueProperty().addListener((obs, prev, value) -> updateEstimate());
+		strict.selectedProperty().addListener((obs, prev, value) -> updateEstimate());
+		integerEntry.textProperty().addListener((obs, prev, value) -> updateEstimate());
+		floatEntry.textProperty().addListener((obs, prev, value) -> updateEstimate());
 
 		integerEntry.textProperty().addListener((observableValue, s, val) -> {
 			try {
@@ -257,6 +272,53 @@ public class PropertyFilters {
 		}
 	}
 
+	/**
+	 * Shows the distribution of the selected numeric field and the number of variants predicted to pass the filter
+	 * being typed, from the index.
+	 */
+	private void updateEstimate() {
+		final Field field = this.field.getValue();
+		final Distribution values = index == null || field == null ? null : index.getDistribution(field);
+		if (values == null || values.getValues() == 0) {
+			distribution.setText(null);
+			distribution.setTooltip(null);
+			estimate.setText(null);
+			return;
+		}
+		final double[] quartiles = values.histogram(4);
+		distribution.setText("min %s · 25%% %s · median %s · 75%% %s · max %s%s".formatted(
+			format(quartiles[0]), format(quartiles[1]), format(quartiles[2]), format(quartiles[3]), format(quartiles[4]),
+			values.getMissing() > 0 ? " · %,d missing".formatted(values.getMissing()) : ""));
+		// Bins of an equi-depth histogram hold the same number of values
+		final double[] deciles = values.histogram(10);
+		final StringBuilder bins = new StringBuilder("Deciles");
+		for (int i = 1; i < deciles.length - 1; i++) bins.append("\n%d%%  %s".formatted(10 * i, format(deciles[i])));
+		distribution.setTooltip(new Tooltip(bins.toString()));
+		final Number value = parse(field);
+		if (value == null || operator.getValue() == null) {
+			estimate.setText(null);
+			return;
+		}
+		final AttributeFilter filter = new AttributeFilter(field, accessor.getValue(), operator.getValue(), value, strict.isSelected(), List.of());
+		final long count = values.estimate(filter);
+		estimate.setText("≈ %,d of %,d variants (%.1f%%)".formatted(count, values.getLines(), 100.0 * count / values.getLines()));
+	}
+
+	private Number parse(Field field) {
+		try {
+			return field.getType() == Field.Type.INTEGER
+				? Integer.parseInt(integerEntry.getText())
+				: Double.parseDouble(floatEntry.getText());
+		} catch (NumberFormatException | NullPointerException e) {
+			return null;
+		}
+	}
+
+	private static String format(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) return "%,d".formatted((long) value);
+		return "%.4g".formatted(value);
+	}
+
 	private static class FieldListCell extends ListCell<Field> {
 
 		@Override
@@ -10,6 +10,7 @@ import javafx.scene.control.ToggleButton;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.FlowPane;
 import javafx.scene.layout.VBox;
+import org.uichuimi.variant.viewer.index.GtBitsetArchive;
 
 import java.util.List;
 
@@ -47,6 +48,7 @@ public class VariantDetails {
 	private SplitPane content;
 
 	private List<SelectablePane> panes;
+	private VCFHeader header;
 
 	@FXML
 	private void initialize() {
@@ -88,8 +90,13 @@ public class VariantDetails {
 	}
 
 	public void setHeader(VCFHeader header) {
+		this.header = header;
 		frequenciesController.setHeader(header);
 		final List<String> fields = frequenciesController.frequencyFields();
 		propertiesController.setIgnored(fields);
 	}
+
+	public void setArchive(GtBitsetArchive archive) {
+		genotypesController.setArchive(archive, header == null ? List.of() : header.getGenotypeSamples());
+	}
 }
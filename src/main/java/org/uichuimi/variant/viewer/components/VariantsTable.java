@@ -2,21 +2,18 @@ package org.uichuimi.variant.viewer.components;
 
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
-import htsjdk.variant.vcf.VCFConstants;
-import htsjdk.variant.vcf.VCFFileReader;
-import htsjdk.variant.vcf.VCFHeader;
-import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import htsjdk.variant.vcf.*;
 import javafx.application.Platform;
 import javafx.beans.property.SimpleObjectProperty;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
-import javafx.scene.control.Label;
-import javafx.scene.control.SelectionMode;
-import javafx.scene.control.TableColumn;
-import javafx.scene.control.TableView;
+import javafx.scene.control.*;
 import javafx.scene.layout.BorderPane;
 import org.uichuimi.variant.viewer.filter.BaseFilter;
 import org.uichuimi.variant.viewer.index.Indexer;
 import org.uichuimi.variant.viewer.index.VcfIndex;
+import org.uichuimi.variant.viewer.index.VcfLine;
+import org.uichuimi.variant.viewer.index.VcfLineReader;
 import org.uichuimi.variant.viewer.io.VariantContextPipe;
 import org.uichuimi.variant.viewer.utils.Constants;
 
@@ -24,6 +21,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -62,9 +60,12 @@ public class VariantsTable {
 	private TableColumn<VariantContext, Double> quality;
 	@FXML
 	private Label placeholder;
+	@FXML
+	private TextField searchId;
 
 	private VcfIndex index;
 	private File file;
+	private VCFHeader header;
 	private VariantContextPipe reader;
 
 
@@ -99,6 +100,7 @@ public class VariantsTable {
 		indexer.setOnSucceeded(workerStateEvent -> {
 			index = indexer.getValue();
 			variantFiltersController.setMetadata(index);
+			variantDetailsController.setArchive(index.getArchive());
 			totalVariants.setText("Total variants: %,d".formatted(index.getLineCount()));
 		});
 		indexer.setOnFailed(event -> MainView.error(indexer.getException()));
@@ -107,7 +109,7 @@ public class VariantsTable {
 
 	private void initSubPanels() {
 		try (VCFFileReader reader = new VCFFileReader(file, false)) {
-			final VCFHeader header = reader.getHeader();
+			header = reader.getHeader();
 			header.getInfoHeaderLines().stream().map(this::createInfoColumn).forEach(variantsTable.getColumns()::add);
 			variantFiltersController.setMetadata(header);
 			variantDetailsController.setHeader(header);
@@ -124,9 +126,8 @@ public class VariantsTable {
 	private void reload(final File output) {
 		variantsTable.getItems().clear();
 		if (reader != null) reader.cancel();
-		final Long lineCount = index == null ? null : index.getLineCount();
 		final List<BaseFilter> filterList = variantFiltersController.getFilters();
-		reader = new VariantContextPipe(file, output, filterList, 2000, lineCount);
+		reader = new VariantContextPipe(file, output, filterList, 2000, index);
 		reader.filteredProperty().addListener((obs, old, filtered) -> updateFiltered(filtered.intValue()));
 		variantsTable.setItems(reader.getVariants());
 		MainView.launch(reader);
@@ -171,6 +172,61 @@ public class VariantsTable {
 		variantDetailsController.set(variant);
 	}
 
+	/**
+	 * Looks up the line with the ID of the search box in the ID index, and selects it. A variant not shown in the table,
+	 * as it does not pass the filters, is only shown in the details panel.
+	 */
+	@FXML
+	private void search() {
+		final String id = searchId.getText().trim();
+		if (id.isEmpty() || index == null || index.getIdIndex() == null) return;
+		final VCFHeader header = this.header;
+		final Task<VariantContext> search = new Task<>() {
+			@Override
+			protected VariantContext call() throws Exception {
+				final long[] pointers = index.getIdIndex().find(id);
+				if (pointers.length == 0) return null;
+				final VCFCodec codec = new VCFCodec();
+				codec.setVCFHeader(header, header.getVCFHeaderVersion() == null ? VCFHeaderVersion.VCF4_2 : header.getVCFHeaderVersion());
+				try (VcfLineReader reader = new VcfLineReader(file, List.of())) {
+					// Pointers are in file order, so gzipped files are read forward only once
+					for (long pointer : pointers) {
+						reader.skip(pointer);
+						final VcfLine line = reader.next();
+						if (line == null) break;
+						// Different IDs may share a hash
+						if (Arrays.asList(line.getId().split(";")).contains(id)) return codec.decode(line.getText());
+					}
+				}
+				return null;
+			}
+		};
+		search.setOnSucceeded(event -> show(id, search.getValue()));
+		search.setOnFailed(event -> {
+			search.getException().printStackTrace();
+			MainView.error(search.getException());
+		});
+		final Thread thread = new Thread(search);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void show(final String id, final VariantContext variant) {
+		if (variant == null) {
+			MainView.error("ID not found: " + id);
+			return;
+		}
+		for (VariantContext item : variantsTable.getItems()) {
+			if (item.getContig().equals(variant.getContig()) && item.getStart() == variant.getStart() && item.getID().equals(variant.getID())) {
+				variantsTable.getSelectionModel().select(item);
+				variantsTable.scrollTo(item);
+				return;
+			}
+		}
+		variantsTable.getSelectionModel().clearSelection();
+		select(variant);
+	}
+
 	public void save(File file) {
 		reload(file);
 	}
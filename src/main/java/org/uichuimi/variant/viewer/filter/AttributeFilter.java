@@ -5,6 +5,7 @@ import htsjdk.variant.variantcontext.VariantContext;
 import org.uichuimi.variant.viewer.components.Accessor;
 
 import java.util.Collection;
+import java.util.function.Predicate;
 
 public class AttributeFilter implements BaseFilter {
 	/*
@@ -36,6 +37,10 @@ public class AttributeFilter implements BaseFilter {
 	private final Object value;
 	private final boolean strict;
 	private final Collection<Interval> interval;
+	/**
+	 * This filter compiled by {@link FilterCompiler}, or the generic comparison of extracted values
+	 */
+	private final Predicate<VariantContext> predicate;
 
 	public AttributeFilter(final Field field, final Accessor accessor, final Operator operator, final Object value, boolean strict, Collection<Interval> interval) {
 		this.field = field;
@@ -44,6 +49,8 @@ public class AttributeFilter implements BaseFilter {
 		this.value = value;
 		this.strict = strict;
 		this.interval = interval;
+		final Predicate<VariantContext> compiled = FilterCompiler.compile(this);
+		this.predicate = compiled != null ? compiled : variant -> filter(this.value, field.extract(variant));
 	}
 
 	public Field getField() {
@@ -68,8 +75,7 @@ public class AttributeFilter implements BaseFilter {
 
 	@Override
 	public boolean filter(VariantContext variant) {
-		final Object value = field.extract(variant);
-		return filter(this.value, value);
+		return predicate.test(variant);
 	}
 
 	private boolean filter(Object thisValue, Object queryValue) {
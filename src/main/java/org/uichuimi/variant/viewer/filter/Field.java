@@ -6,11 +6,13 @@ import org.uichuimi.variant.viewer.utils.Constants;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.List;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class Field implements Serializable {
@@ -18,11 +20,12 @@ public class Field implements Serializable {
 	@Serial
 	private final static long serialVersionUID = 9220147668706248571L;
 	private final boolean list;
-	private final List<String> options;
+	private List<String> options;
 	private final Category category;
 	private final String name;
 	private final Type type;
 	private transient Function<VariantContext, Object> extractor;
+	private transient Supplier<List<String>> optionsLoader;
 
 	public Field(final Type type, final List<String> options, final String name, final boolean list, final Category category) {
 		this.type = type;
@@ -33,6 +36,14 @@ public class Field implements Serializable {
 		this.extractor = createExtractor();
 	}
 
+	/**
+	 * Creates a field whose options are only loaded the first time they are requested.
+	 */
+	public Field(final Type type, final Supplier<List<String>> options, final String name, final boolean list, final Category category) {
+		this(type, (List<String>) null, name, list, category);
+		this.optionsLoader = options;
+	}
+
 	private Function<VariantContext, Object> createExtractor() {
 		if (category == Category.INFO) {
 			// VariantContext#getAttribute(String) returns a String, we must intelligently call a parser method
@@ -73,7 +84,11 @@ public class Field implements Serializable {
 		return type;
 	}
 
-	public List<String> getOptions() {
+	public synchronized List<String> getOptions() {
+		if (options == null && optionsLoader != null) {
+			options = optionsLoader.get();
+			optionsLoader = null;
+		}
 		return options;
 	}
 
@@ -97,12 +112,19 @@ public class Field implements Serializable {
 	public String toString() {
 		return "Field{" +
 			"list=" + list +
-			", options=" + options +
+			", options=" + getOptions() +
 			", displayName='" + name + '\'' +
 			", type=" + type +
 			'}';
 	}
 
+	@Serial
+	private void writeObject(ObjectOutputStream outputStream) throws IOException {
+		// lazy options must be loaded before they are written
+		getOptions();
+		outputStream.defaultWriteObject();
+	}
+
 	@Serial
 	private void readObject(ObjectInputStream inputStream) throws ClassNotFoundException, IOException {
 		// perform the default de-serialization first
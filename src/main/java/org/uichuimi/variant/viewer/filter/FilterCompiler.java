@@ -0,0 +1,143 @@
+package org.uichuimi.variant.viewer.filter;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFUtils;
+import org.uichuimi.variant.viewer.components.Accessor;
+import org.uichuimi.variant.viewer.utils.Constants;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Compiles an {@link AttributeFilter} once into a predicate specialized for the type of its field and value. Numbers
+ * are read as primitives from the variant and compared by an operator bound to the value of the filter, so no value is
+ * boxed and no type is checked for every variant. Compiled predicates pass the same variants as
+ * {@link Field#extract(VariantContext)} followed by {@link Operator#query(Object, Object)}: missing single numbers are
+ * 0, missing or empty lists and missing text pass non strict filters, and a filter with several values passes if any
+ * of them does.
+ */
+class FilterCompiler {
+
+	private FilterCompiler() {
+	}
+
+	/**
+	 * @return a predicate passing the same variants as filter, or null if its field, operator and value cannot be
+	 * specialized
+	 */
+	static Predicate<VariantContext> compile(AttributeFilter filter) {
+		final Field field = filter.getField();
+		final Operator operator = filter.getOperator();
+		if (operator == null || !field.getOperators().contains(operator)) return null;
+		final Object value = filter.getValue();
+		final Accessor accessor = filter.getAccessor() == null ? Accessor.ANY : filter.getAccessor();
+		final boolean strict = filter.isStrict();
+		return switch (field.getType()) {
+			case INTEGER -> value instanceof Integer ? compileInt(field, accessor, strict, operator.compile((int) value)) : null;
+			case FLOAT -> value instanceof Double ? compileDouble(field, accessor, strict, operator.compile((double) value)) : null;
+			case TEXT -> compileText(field, operator, accessor, strict, value);
+			case FLAG -> compileFlag(field, operator);
+		};
+	}
+
+	private static Predicate<VariantContext> compileInt(Field field, Accessor accessor, boolean strict, IntPredicate test) {
+		final String name = field.getName();
+		if (field.getCategory() == Field.Category.STANDARD) {
+			return name.equals(Constants.POS) ? variant -> test.test(variant.getStart()) : null;
+		}
+		if (!field.isList()) return variant -> test.test(variant.getAttributeAsInt(name, 0));
+		final Predicate<Object> element = value -> test.test(toInt(value));
+		return variant -> matches(variant.getAttributeAsList(name), accessor, strict, element);
+	}
+
+	private static Predicate<VariantContext> compileDouble(Field field, Accessor accessor, boolean strict, DoublePredicate test) {
+		final String name = field.getName();
+		if (field.getCategory() == Field.Category.STANDARD) {
+			return name.equals(Constants.QUAL) ? variant -> test.test(variant.getPhredScaledQual()) : null;
+		}
+		if (!field.isList()) return variant -> test.test(variant.getAttributeAsDouble(name, 0.0));
+		final Predicate<Object> element = value -> test.test(toDouble(value));
+		return variant -> matches(variant.getAttributeAsList(name), accessor, strict, element);
+	}
+
+	private static Predicate<VariantContext> compileText(Field field, Operator operator, Accessor accessor, boolean strict, Object value) {
+		final List<Predicate<String>> tests = new ArrayList<>();
+		if (value instanceof String) tests.add(operator.compile((String) value));
+		else if (value instanceof Collection) {
+			for (Object option : (Collection<?>) value) {
+				if (!(option instanceof String)) return null;
+				tests.add(operator.compile((String) option));
+			}
+		} else return null;
+		if (tests.isEmpty()) return variant -> false;
+		final String name = field.getName();
+		final boolean standard = field.getCategory() == Field.Category.STANDARD;
+		if (standard && name.equals(Constants.FILTER) || !standard && field.isList()) {
+			// Every value of the filter is tested against every element of the list, so ALL and NONE hold for one value
+			final List<Predicate<Object>> elements = new ArrayList<>();
+			for (Predicate<String> test : tests) elements.add(element -> element == null ? !strict : test.test(String.valueOf(element)));
+			return variant -> {
+				final Collection<?> values = standard ? variant.getFilters() : variant.getAttributeAsList(name);
+				for (Predicate<Object> element : elements) if (matches(values, accessor, strict, element)) return true;
+				return false;
+			};
+		}
+		final Predicate<String> test = tests.size() == 1 ? tests.get(0) : text -> {
+			for (Predicate<String> t : tests) if (t.test(text)) return true;
+			return false;
+		};
+		return variant -> {
+			final String text = (String) field.extract(variant);
+			return text == null ? !strict : test.test(text);
+		};
+	}
+
+	/**
+	 * Flags are tested by their presence, which does not depend on strict
+	 */
+	private static Predicate<VariantContext> compileFlag(Field field, Operator operator) {
+		if (field.getCategory() != Field.Category.INFO) return null;
+		final String name = field.getName();
+		return operator == Operator.FLAG_PRESENT
+			? variant -> variant.hasAttribute(name)
+			: variant -> !variant.hasAttribute(name);
+	}
+
+	private static boolean matches(Collection<?> values, Accessor accessor, boolean strict, Predicate<Object> element) {
+		if (values.isEmpty()) return !strict;
+		switch (accessor) {
+			case ALL:
+				for (Object value : values) if (!element.test(value)) return false;
+				return true;
+			case NONE:
+				for (Object value : values) if (element.test(value)) return false;
+				return true;
+			default:
+				for (Object value : values) if (element.test(value)) return true;
+				return false;
+		}
+	}
+
+	/**
+	 * @return element of an integer list, as {@link VariantContext#getAttributeAsIntList(String, Integer)} reads it
+	 */
+	private static int toInt(Object value) {
+		if (value == null || VCFConstants.MISSING_VALUE_v4.equals(value)) return 0;
+		if (value instanceof Number) return ((Number) value).intValue();
+		return Integer.parseInt((String) value);
+	}
+
+	/**
+	 * @return element of a float list, as {@link VariantContext#getAttributeAsDoubleList(String, Double)} reads it
+	 */
+	private static double toDouble(Object value) {
+		if (value == null || VCFConstants.MISSING_VALUE_v4.equals(value)) return 0.0;
+		if (value instanceof Number) return ((Number) value).doubleValue();
+		return VCFUtils.parseVcfDouble((String) value);
+	}
+}
@@ -1,6 +1,9 @@
 package org.uichuimi.variant.viewer.filter;
 
 import java.util.function.BiFunction;
+import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
 
 public enum Operator {
 	INT_LOWER((a, b) -> (int) a < (int) b, "<"),
@@ -35,6 +38,62 @@ public enum Operator {
 		return a != null && operation.apply(a, b);
 	}
 
+	/**
+	 * @return this operator against value, for variant values that are not null
+	 */
+	IntPredicate compile(int value) {
+		return switch (this) {
+			case INT_LOWER -> a -> a < value;
+			case INT_LOWER_OR_EQUAL -> a -> a <= value;
+			case INT_EQUAL -> a -> a == value;
+			case INT_GREATER_OR_EQUAL -> a -> a >= value;
+			case INT_GREATER -> a -> a > value;
+			default -> throw new IllegalArgumentException(this + " does not compare integers");
+		};
+	}
+
+	/**
+	 * @return this operator against value, for variant values that are not null
+	 */
+	DoublePredicate compile(double value) {
+		return switch (this) {
+			case FLOAT_LOWER -> a -> a < value;
+			case FLOAT_LOWER_OR_EQUAL -> a -> a <= value;
+			case FLOAT_EQUAL -> a -> a == value;
+			case FLOAT_GREATER_OR_EQUAL -> a -> a >= value;
+			case FLOAT_GREATER -> a -> a > value;
+			default -> throw new IllegalArgumentException(this + " does not compare floats");
+		};
+	}
+
+	/**
+	 * @return this operator against value, for variant values that are not null. Case is ignored char by char, as
+	 * {@link String#equalsIgnoreCase(String)} does, so contains does not lower case every variant value
+	 */
+	Predicate<String> compile(String value) {
+		return switch (this) {
+			case TEXT_EQUAL -> a -> a.equalsIgnoreCase(value);
+			case TEXT_NOT_EQUAL -> a -> !a.equalsIgnoreCase(value);
+			case TEXT_CONTAINS -> {
+				if (value.isEmpty()) yield a -> true;
+				final String needle = value.toLowerCase();
+				final char lower = needle.charAt(0);
+				final char upper = Character.toUpperCase(lower);
+				yield a -> contains(a, needle, lower, upper);
+			}
+			default -> throw new IllegalArgumentException(this + " does not compare text");
+		};
+	}
+
+	private static boolean contains(String text, String needle, char lower, char upper) {
+		final int last = text.length() - needle.length();
+		for (int i = 0; i <= last; i++) {
+			final char c = text.charAt(i);
+			if ((c == lower || c == upper) && text.regionMatches(true, i, needle, 0, needle.length())) return true;
+		}
+		return false;
+	}
+
 	public String getDisplay() {
 		return display;
 	}
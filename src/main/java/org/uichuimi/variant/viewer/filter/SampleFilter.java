@@ -5,20 +5,31 @@ import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeType;
 import htsjdk.variant.variantcontext.VariantContext;
 import org.uichuimi.variant.viewer.components.Accessor;
+import org.uichuimi.variant.viewer.index.GtSite;
+import org.uichuimi.variant.viewer.utils.BitUtils;
+import org.uichuimi.variant.viewer.utils.Constants;
 
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class SampleFilter implements BaseFilter {
 
+	private static final List<GenotypeType> typeList = Constants.validGenotypeTypes();
+	private static final Set<GenotypeType> noCallTypes = Set.of(GenotypeType.NO_CALL, GenotypeType.UNAVAILABLE, GenotypeType.MIXED);
+
 	private final List<String> samples;
 	private final List<GenotypeType> types;
 	private final Accessor accessor;
 	private final int number;
+	private long[][] masks;
+	private int required;
 
 	public SampleFilter(List<String> samples, List<GenotypeType> types, Accessor accessor, Integer number) {
-		this.samples = samples;
+		// Duplicated samples are counted once, with or without an archive
+		this.samples = List.copyOf(new LinkedHashSet<>(samples));
 		this.types = types;
 		this.accessor = accessor;
 		this.number = number == null ? 1 : number;
@@ -37,6 +48,62 @@ public class SampleFilter implements BaseFilter {
 		};
 	}
 
+	/**
+	 * Precomputes, for every genotype type, the set of samples to evaluate this filter against the genotypes of a
+	 * {@link org.uichuimi.variant.viewer.index.GtBitsetArchive}. The archive stores UNAVAILABLE and MIXED as NO_CALL, so
+	 * types that only select part of them cannot be resolved with the archive.
+	 *
+	 * @param fileSamples samples of the file, in the same order as in the archive
+	 * @return true if this filter can be evaluated with {@link #filter(GtSite)}
+	 */
+	public boolean bind(List<String> fileSamples) {
+		masks = null;
+		final long noCalls = types.stream().filter(noCallTypes::contains).count();
+		if (noCalls != 0 && noCalls != noCallTypes.size()) return false;
+		final long[] mask = new long[(fileSamples.size() + 63) >> 6];
+		for (String sample : samples) {
+			final int index = fileSamples.indexOf(sample);
+			if (index < 0) return false;
+			BitUtils.set(mask, index);
+		}
+		final long[][] masks = new long[typeList.size()][];
+		for (GenotypeType type : types) masks[typeList.indexOf(Constants.validGenotypeType(type))] = mask;
+		this.required = accessor == Accessor.ALL ? samples.size() : number;
+		this.masks = masks;
+		return true;
+	}
+
+	/**
+	 * Evaluates this filter against the genotypes of a site. As every sample has exactly one type, the number of
+	 * samples matching any of the types is the sum of the intersections of the samples of this filter with the samples
+	 * of each type. {@link #bind(List)} must have been called before.
+	 *
+	 * @param site genotypes of a site
+	 * @return true if the site passes this filter
+	 */
+	public boolean filter(GtSite site) {
+		return switch (accessor) {
+			case NONE -> !intersects(site);
+			case ALL -> count(site) == required;
+			case ANY -> required == 1 ? intersects(site) : count(site) >= required;
+		};
+	}
+
+	private boolean intersects(GtSite site) {
+		for (int type = 0; type < masks.length; type++) {
+			if (masks[type] != null && site.intersects(type, masks[type])) return true;
+		}
+		return false;
+	}
+
+	private int count(GtSite site) {
+		int count = 0;
+		for (int type = 0; type < masks.length; type++) {
+			if (masks[type] != null) count += site.andCardinality(type, masks[type]);
+		}
+		return count;
+	}
+
 	public String display() {
 		final StringBuilder result = new StringBuilder();
 		result.append(accessor);
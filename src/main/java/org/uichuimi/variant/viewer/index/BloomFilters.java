@@ -0,0 +1,499 @@
+package org.uichuimi.variant.viewer.index;
+
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import org.uichuimi.variant.viewer.filter.Field;
+import org.uichuimi.variant.viewer.utils.Constants;
+import org.uichuimi.variant.viewer.utils.HyperLogLog;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Bloom filters of the values of ID and the text INFO fields without {@link ValueBitmaps}, one per block of the
+ * {@link ZoneMap}, sized for the number of distinct values in the block. A block without words has too many values for
+ * a filter, so it may contain any value.
+ * <p>
+ * Filters are stored in their own file, next to the {@link VcfIndex}:
+ * <pre>
+ * header  : magic, version, number of blocks, offset of the columns
+ * words   : the words of the filters, by block, and within a block by column
+ * tables  : for each column, and each block, the position of the first word of its filter, the number of words and
+ *           the number of lines without value
+ * columns : number of columns, and for each column its key and the position of its table
+ * </pre>
+ * Words and tables are mapped in windows, so they are not limited by the size of a buffer, nor loaded in memory.
+ */
+class BloomFilters {
+
+	/**
+	 * Bits set by each value
+	 */
+	private static final int HASHES = 7;
+	private static final int BITS_PER_VALUE = 10;
+	/**
+	 * Largest filter of a block, 8 bytes per line
+	 */
+	private static final int MAX_WORDS = ZoneMap.BLOCK_SIZE;
+	private static final int MAGIC = 0x424C4F4D;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 3 * Integer.BYTES + Long.BYTES;
+	/**
+	 * Size of the entry of a block in a table: position of the first word, number of words and lines without value
+	 */
+	private static final int ENTRY_SIZE = Long.BYTES + 2 * Integer.BYTES;
+
+	private final File file;
+	private final int blocks;
+	/**
+	 * Position of the table of each column
+	 */
+	private final Map<String, Long> tables;
+	private final MappedBytes bytes;
+
+	private BloomFilters(File file, int blocks, Map<String, Long> tables, MappedBytes bytes) {
+		this.file = file;
+		this.blocks = blocks;
+		this.tables = tables;
+		this.bytes = bytes;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return true if column key has filters
+	 */
+	boolean contains(String key) {
+		return tables.containsKey(key);
+	}
+
+	/**
+	 * @param key    a column with filters
+	 * @param strict whether lines without value are rejected
+	 * @return false if no line of block has any of values
+	 */
+	boolean mayMatch(String key, int block, Collection<?> values, boolean strict) {
+		final long entry = tables.get(key) + (long) block * ENTRY_SIZE;
+		// Missing values pass non strict filters
+		if (bytes.getInt(entry + Long.BYTES + Integer.BYTES) > 0 && !strict) return true;
+		final long from = HEADER_SIZE + bytes.getLong(entry) * Long.BYTES;
+		final int length = bytes.getInt(entry + Long.BYTES);
+		if (length == 0) return true;
+		for (Object value : values) if (mayContain(from, length, hash((String) value))) return true;
+		return false;
+	}
+
+	private boolean mayContain(long from, int length, long hash) {
+		final int mask = length * Long.SIZE - 1;
+		final int h1 = (int) hash;
+		final int h2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			final int bit = (h1 + i * h2) & mask;
+			if ((bytes.getLong(from + (long) (bit >>> 6) * Long.BYTES) & 1L << bit) == 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return hash of value, ignoring case as {@link String#equalsIgnoreCase(String)}
+	 */
+	private static long hash(String value) {
+		final char[] chars = value.toCharArray();
+		for (int i = 0; i < chars.length; i++) chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+		return HyperLogLog.hash(new String(chars));
+	}
+
+	static BloomFilters read(File file) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) throw new IOException("Not a Bloom filter file: " + file);
+			final int blocks = header.getInt();
+			final long end = header.getLong();
+			final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, end, channel.size() - end);
+			final int size = buffer.getInt();
+			final Map<String, Long> tables = new HashMap<>();
+			for (int c = 0; c < size; c++) tables.put(VcfIndex.readString(buffer), buffer.getLong());
+			return new BloomFilters(file, blocks, tables, MappedBytes.map(channel, 0, end));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Blocks of consecutive lines, whose filters are in a spill file or in a Bloom filter file.
+	 */
+	private interface Run {
+
+		int blocks();
+
+		/**
+		 * Copies the filters of the next block of the columns kept, and skips the others.
+		 *
+		 * @param kept    whether each column of the builder is kept
+		 * @param output  where the words of the columns kept are written
+		 * @param entries entry of the block of each column kept: number of words and lines without value
+		 */
+		void copy(List<String> keys, boolean[] kept, DataOutputStream output, int[][] entries) throws IOException;
+
+		default void close() throws IOException {
+		}
+	}
+
+	/**
+	 * Blocks written by a builder to its spill file, as the nulls, number of words and words of each column.
+	 */
+	private static class SpillRun implements Run {
+
+		private final File file;
+		private final long offset;
+		private final int blocks;
+		private final byte[] buffer = new byte[MAX_WORDS * Long.BYTES];
+		private DataInputStream input;
+
+		private SpillRun(File file, long offset, int blocks) {
+			this.file = file;
+			this.offset = offset;
+			this.blocks = blocks;
+		}
+
+		@Override
+		public int blocks() {
+			return blocks;
+		}
+
+		@Override
+		public void copy(List<String> keys, boolean[] kept, DataOutputStream output, int[][] entries) throws IOException {
+			if (input == null) {
+				final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ).position(offset);
+				input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+			}
+			for (int c = 0, k = 0; c < keys.size(); c++) {
+				final int nulls = input.readInt();
+				final int length = input.readInt();
+				input.readFully(buffer, 0, length * Long.BYTES);
+				if (!kept[c]) continue;
+				output.write(buffer, 0, length * Long.BYTES);
+				entries[k][0] = length;
+				entries[k++][1] = nulls;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (input != null) input.close();
+		}
+	}
+
+	/**
+	 * Blocks of a Bloom filter file, as the filters of the first lines of a file that has grown. Columns without
+	 * filters in the file may contain any value.
+	 */
+	private static class FileRun implements Run {
+
+		private final BloomFilters filters;
+		private final byte[] buffer = new byte[MAX_WORDS * Long.BYTES];
+		private int block;
+
+		private FileRun(BloomFilters filters) {
+			this.filters = filters;
+		}
+
+		@Override
+		public int blocks() {
+			return filters.blocks;
+		}
+
+		@Override
+		public void copy(List<String> keys, boolean[] kept, DataOutputStream output, int[][] entries) throws IOException {
+			for (int c = 0, k = 0; c < keys.size(); c++) {
+				if (!kept[c]) continue;
+				final Long table = filters.tables.get(keys.get(c));
+				if (table == null) {
+					entries[k][0] = 0;
+					entries[k++][1] = 0;
+					continue;
+				}
+				final long entry = table + (long) block * ENTRY_SIZE;
+				final int length = filters.bytes.getInt(entry + Long.BYTES);
+				filters.bytes.get(HEADER_SIZE + filters.bytes.getLong(entry) * Long.BYTES, buffer, 0, length * Long.BYTES);
+				output.write(buffer, 0, length * Long.BYTES);
+				entries[k][0] = length;
+				entries[k++][1] = filters.bytes.getInt(entry + Long.BYTES + Integer.BYTES);
+			}
+			block++;
+		}
+	}
+
+	/**
+	 * Builds the Bloom filters of ID and every text INFO field from the lines of a file, in file order. The filter of
+	 * a block is written to a spill file when the block is closed, so only the values of the open block are kept in
+	 * memory. Spilled blocks, and the files and builders appended, are copied into the Bloom filter file when it is
+	 * built, keeping only the columns asked for. Spill files are deleted on close.
+	 */
+	static class Builder implements AutoCloseable {
+
+		private final List<String> keys = new ArrayList<>();
+		private final List<String> infoKeys = new ArrayList<>();
+		private final List<Hashes> hashes = new ArrayList<>();
+		private final File spill;
+		/**
+		 * Runs of blocks spilled or appended, in file order
+		 */
+		private final List<Run> runs = new ArrayList<>();
+		/**
+		 * Spill files of this builder and of the builders appended to it
+		 */
+		private final List<File> spills = new ArrayList<>();
+		private DataOutputStream output;
+		private long spillLength;
+		/**
+		 * Position in the spill file and number of blocks of the run being spilled
+		 */
+		private long runOffset;
+		private int runBlocks;
+
+		/**
+		 * @param spill file where filters are spilled, which is created when needed
+		 */
+		Builder(VCFHeader header, File spill) {
+			this.spill = spill;
+			keys.add(VcfIndex.key(Field.Category.STANDARD, Constants.ID));
+			for (VCFInfoHeaderLine line : header.getInfoHeaderLines()) {
+				if (line.getType() == VCFHeaderLineType.String) {
+					infoKeys.add(line.getID());
+					keys.add(VcfIndex.key(Field.Category.INFO, line.getID()));
+				}
+			}
+			for (int i = 0; i < keys.size(); i++) hashes.add(new Hashes());
+		}
+
+		/**
+		 * @return text INFO keys, whose values are read from lines
+		 */
+		List<String> getInfoKeys() {
+			return infoKeys;
+		}
+
+		/**
+		 * Adds the values of line to the open block.
+		 */
+		void add(VcfLine line) {
+			// htsjdk sees an empty ID as "."
+			hashes.get(0).add(hash(line.getId()));
+			for (int i = 0; i < infoKeys.size(); i++) {
+				final Hashes column = hashes.get(i + 1);
+				final String value = line.getInfo(infoKeys.get(i));
+				// As the value bitmaps, "." is missing too, and keys without value are true
+				if (value == null || value.equals(".")) column.nulls++;
+				if (value == null) continue;
+				if (value.isEmpty()) {
+					column.add(hash("true"));
+				} else {
+					// Lists are split by comma, unless the field is single valued
+					column.add(hash(value));
+					if (value.indexOf(',') >= 0) for (String element : value.split(",")) column.add(hash(element));
+				}
+			}
+		}
+
+		/**
+		 * Writes the filters of the open block, with the values added since the last block was closed, to the spill
+		 * file.
+		 */
+		void closeBlock() {
+			try {
+				if (output == null) {
+					final boolean created = spills.contains(spill);
+					if (!created) spills.add(spill);
+					output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spill, created), 1 << 16));
+					runOffset = spillLength;
+				}
+				for (Hashes column : hashes) spillLength += column.spill(output);
+				runBlocks++;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		/**
+		 * Ends the run of blocks being spilled.
+		 */
+		private void endRun() throws IOException {
+			if (output == null) return;
+			output.close();
+			output = null;
+			runs.add(new SpillRun(spill, runOffset, runBlocks));
+			runBlocks = 0;
+		}
+
+		/**
+		 * Appends the blocks of other, such as the filters of the first lines of a file that has grown. Its words are
+		 * not read until the file is built.
+		 */
+		void append(BloomFilters other) {
+			try {
+				endRun();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			runs.add(new FileRun(other));
+		}
+
+		/**
+		 * Appends the blocks of the builder of the partition that follows in the file, and takes its spill files.
+		 */
+		void append(Builder other) {
+			try {
+				endRun();
+				other.endRun();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			runs.addAll(other.runs);
+			other.runs.clear();
+			spills.addAll(other.spills);
+			other.spills.clear();
+		}
+
+		/**
+		 * Copies the runs into file, replacing it once written, as the filters being updated may be read from it.
+		 *
+		 * @param kept keys of the columns whose filters are kept
+		 */
+		BloomFilters build(File file, Set<String> kept) throws IOException {
+			endRun();
+			final boolean[] keep = new boolean[keys.size()];
+			final List<String> columns = new ArrayList<>();
+			for (int c = 0; c < keys.size(); c++) {
+				keep[c] = kept.contains(keys.get(c));
+				if (keep[c]) columns.add(keys.get(c));
+			}
+			int blocks = 0;
+			for (Run run : runs) blocks += run.blocks();
+			final long[][] starts = new long[columns.size()][blocks];
+			final int[][] lengths = new int[columns.size()][blocks];
+			final int[][] nulls = new int[columns.size()][blocks];
+			final int[][] entries = new int[columns.size()][2];
+			final File temp = new File(file.getAbsolutePath() + ".tmp");
+			try (FileOutputStream stream = new FileOutputStream(temp);
+			     DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeInt(blocks);
+				output.writeLong(0);
+				// Positions and lengths in words
+				long position = 0;
+				int block = 0;
+				for (Run run : runs) {
+					try {
+						for (int b = 0; b < run.blocks(); b++, block++) {
+							run.copy(keys, keep, output, entries);
+							for (int c = 0; c < columns.size(); c++) {
+								starts[c][block] = position;
+								lengths[c][block] = entries[c][0];
+								nulls[c][block] = entries[c][1];
+								position += entries[c][0];
+							}
+						}
+					} finally {
+						run.close();
+					}
+				}
+				long table = HEADER_SIZE + position * Long.BYTES;
+				final long[] tables = new long[columns.size()];
+				for (int c = 0; c < columns.size(); c++) {
+					tables[c] = table;
+					for (int b = 0; b < blocks; b++) {
+						output.writeLong(starts[c][b]);
+						output.writeInt(lengths[c][b]);
+						output.writeInt(nulls[c][b]);
+					}
+					table += (long) blocks * ENTRY_SIZE;
+				}
+				output.writeInt(columns.size());
+				for (int c = 0; c < columns.size(); c++) {
+					VcfIndex.writeString(output, columns.get(c));
+					output.writeLong(tables[c]);
+				}
+				output.flush();
+				stream.getChannel().write(ByteBuffer.allocate(Long.BYTES).putLong(0, table), 3 * Integer.BYTES);
+			}
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				temp.delete();
+			}
+			return read(file);
+		}
+
+		/**
+		 * Deletes the spill files.
+		 */
+		@Override
+		public void close() {
+			try {
+				if (output != null) output.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			output = null;
+			spills.forEach(File::delete);
+			spills.clear();
+		}
+	}
+
+	/**
+	 * Hashes of the values of a column in the open block, while building.
+	 */
+	private static class Hashes {
+
+		private long[] hashes = new long[ZoneMap.BLOCK_SIZE];
+		private int count;
+		private int nulls;
+
+		private void add(long hash) {
+			if (count == hashes.length) hashes = Arrays.copyOf(hashes, 2 * count);
+			hashes[count++] = hash;
+		}
+
+		/**
+		 * Writes the filter of the hashes as the lines without value, number of words and words, and clears them.
+		 *
+		 * @return number of bytes written
+		 */
+		private long spill(DataOutputStream output) throws IOException {
+			Arrays.sort(hashes, 0, count);
+			int distinct = 0;
+			for (int i = 0; i < count; i++) if (i == 0 || hashes[i] != hashes[i - 1]) distinct++;
+			// A power of two of words, so bits are chosen with a mask
+			int length = Integer.highestOneBit(Math.max(1, distinct * BITS_PER_VALUE / Long.SIZE));
+			if (length < distinct * BITS_PER_VALUE / Long.SIZE) length <<= 1;
+			if (length > MAX_WORDS) length = 0;
+			final long[] words = new long[length];
+			final int mask = length * Long.SIZE - 1;
+			for (int i = 0; i < count && length > 0; i++) {
+				final int h1 = (int) hashes[i];
+				final int h2 = (int) (hashes[i] >>> 32) | 1;
+				for (int j = 0; j < HASHES; j++) {
+					final int bit = (h1 + j * h2) & mask;
+					words[bit >>> 6] |= 1L << bit;
+				}
+			}
+			output.writeInt(nulls);
+			output.writeInt(length);
+			for (long word : words) output.writeLong(word);
+			count = 0;
+			nulls = 0;
+			return 2L * Integer.BYTES + (long) length * Long.BYTES;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package org.uichuimi.variant.viewer.index;
+
+import htsjdk.variant.vcf.VCFUtils;
+import org.uichuimi.variant.viewer.components.Accessor;
+import org.uichuimi.variant.viewer.filter.AttributeFilter;
+import org.uichuimi.variant.viewer.filter.Field;
+import org.uichuimi.variant.viewer.utils.Constants;
+import org.uichuimi.variant.viewer.utils.QuantileSketch;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Distribution of the values of a numeric field of a VCF file: a {@link QuantileSketch} of its values, from which
+ * equi-depth histograms are drawn, and the number of lines with and without value. Elements of lists are added one by
+ * one. The distribution predicts how many lines pass a numeric {@link AttributeFilter} without reading them.
+ */
+public class Distribution {
+
+	private static final int K = 200;
+	/**
+	 * Lines are counted by number of elements up to this number, longer lists are counted together
+	 */
+	private static final int MAX_ELEMENTS = 16;
+
+	private final QuantileSketch sketch;
+	/**
+	 * Number of lines with each number of elements, 0 for lines without value
+	 */
+	private final long[] elements;
+	private long lines;
+
+	Distribution() {
+		this(new QuantileSketch(K), new long[MAX_ELEMENTS + 1], 0);
+	}
+
+	private Distribution(QuantileSketch sketch, long[] elements, long lines) {
+		this.sketch = sketch;
+		this.elements = elements;
+		this.lines = lines;
+	}
+
+	/**
+	 * Adds the raw INFO value of a line. Lists are split by comma, and missing or empty values count as missing.
+	 */
+	void add(String value) {
+		if (value == null || value.isEmpty()) {
+			addMissing();
+			return;
+		}
+		lines++;
+		// As htsjdk, values that cannot be parsed take the default value, 0
+		final String[] values = value.split(",");
+		for (String element : values) sketch.add(parse(element));
+		elements[Math.min(values.length, MAX_ELEMENTS)]++;
+	}
+
+	void add(double value) {
+		lines++;
+		sketch.add(value);
+		elements[1]++;
+	}
+
+	void addMissing() {
+		lines++;
+		elements[0]++;
+	}
+
+	/**
+	 * Adds the values of another part of the same file.
+	 */
+	void merge(Distribution other) {
+		sketch.merge(other.sketch);
+		lines += other.lines;
+		for (int i = 0; i < elements.length; i++) elements[i] += other.elements[i];
+	}
+
+	/**
+	 * @return number of lines, with or without value
+	 */
+	public long getLines() {
+		return lines;
+	}
+
+	/**
+	 * @return number of lines without value
+	 */
+	public long getMissing() {
+		return elements[0];
+	}
+
+	/**
+	 * @return number of values, more than the lines with value if the field is a list
+	 */
+	public long getValues() {
+		return sketch.getCount();
+	}
+
+	public double getMin() {
+		return sketch.getMin();
+	}
+
+	public double getMax() {
+		return sketch.getMax();
+	}
+
+	/**
+	 * @return estimated value with fraction of the values below it, NaN if there are no values
+	 */
+	public double quantile(double fraction) {
+		return sketch.quantile(fraction);
+	}
+
+	/**
+	 * @return the bounds of an equi-depth histogram of the values, bins + 1 values from the minimum to the maximum
+	 */
+	public double[] histogram(int bins) {
+		return sketch.histogram(bins);
+	}
+
+	/**
+	 * Predicts the number of lines passing filter. Values of missing single values are the ones seen by
+	 * {@link Field#extract}, -10 for QUAL and 0 for INFO fields, and missing lists pass non strict filters. Elements of
+	 * a list are taken as independent, so a line of n elements passes an ANY filter with probability 1 - (1 - p)^n.
+	 *
+	 * @param filter a filter with a numeric value on the field of this distribution
+	 * @return estimated number of lines passing filter
+	 */
+	public long estimate(AttributeFilter filter) {
+		final Field field = filter.getField();
+		final double value = ((Number) filter.getValue()).doubleValue();
+		final double fraction = switch (filter.getOperator()) {
+			case INT_LOWER, FLOAT_LOWER -> sketch.rank(value, false);
+			case INT_LOWER_OR_EQUAL, FLOAT_LOWER_OR_EQUAL -> sketch.rank(value, true);
+			case INT_EQUAL, FLOAT_EQUAL -> sketch.rank(value, true) - sketch.rank(value, false);
+			case INT_GREATER_OR_EQUAL, FLOAT_GREATER_OR_EQUAL -> 1 - sketch.rank(value, false);
+			case INT_GREATER, FLOAT_GREATER -> 1 - sketch.rank(value, true);
+			default -> 1;
+		};
+		final long missing = elements[0];
+		final long present = lines - missing;
+		double matching = 0;
+		if (field.isList()) {
+			final Accessor accessor = filter.getAccessor() == null ? Accessor.ANY : filter.getAccessor();
+			for (int n = 1; n < elements.length; n++) {
+				matching += elements[n] * switch (accessor) {
+					case ALL -> Math.pow(fraction, n);
+					case NONE -> Math.pow(1 - fraction, n);
+					default -> 1 - Math.pow(1 - fraction, n);
+				};
+			}
+			if (!filter.isStrict()) matching += missing;
+		} else {
+			final Object missingValue = field.getType() == Field.Type.INTEGER
+				? (Object) 0
+				: (Object) (field.getCategory() == Field.Category.STANDARD && field.getName().equals(Constants.QUAL) ? -10.0 : 0.0);
+			matching = present * fraction + (filter.getOperator().query(missingValue, filter.getValue()) ? missing : 0);
+		}
+		return Math.min(lines, Math.round(matching));
+	}
+
+	static double parse(String value) {
+		try {
+			return VCFUtils.parseVcfDouble(value);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	void write(DataOutputStream output) throws IOException {
+		output.writeLong(lines);
+		output.writeInt(elements.length);
+		for (long count : elements) output.writeLong(count);
+		output.writeInt(sketch.getK());
+		output.writeLong(sketch.getCount());
+		output.writeDouble(sketch.getMin());
+		output.writeDouble(sketch.getMax());
+		final double[][] levels = sketch.getLevels();
+		output.writeInt(levels.length);
+		for (double[] level : levels) {
+			output.writeInt(level.length);
+			for (double value : level) output.writeDouble(value);
+		}
+	}
+
+	static Distribution read(ByteBuffer buffer) {
+		final long lines = buffer.getLong();
+		final long[] elements = new long[buffer.getInt()];
+		for (int i = 0; i < elements.length; i++) elements[i] = buffer.getLong();
+		final int k = buffer.getInt();
+		final long count = buffer.getLong();
+		final double min = buffer.getDouble();
+		final double max = buffer.getDouble();
+		final double[][] levels = new double[buffer.getInt()][];
+		for (int h = 0; h < levels.length; h++) {
+			levels[h] = new double[buffer.getInt()];
+			for (int i = 0; i < levels[h].length; i++) levels[h][i] = buffer.getDouble();
+		}
+		return new Distribution(new QuantileSketch(k, count, min, max, levels), elements, lines);
+	}
+}
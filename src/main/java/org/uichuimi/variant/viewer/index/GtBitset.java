@@ -1,23 +1,31 @@
 package org.uichuimi.variant.viewer.index;
 
-import java.io.Serial;
-import java.io.Serializable;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 
-public class GtBitset implements Serializable {
+/**
+ * Genotypes of a window, backed by a memory mapped section of a {@link GtBitsetArchive}. Positions are stored sorted
+ * in one int slab, and the compressed genotypes of each site in one blob, located through an int slab of offsets, so a
+ * lookup is a binary search plus an offset computation.
+ */
+public class GtBitset {
 
-	@Serial
-	private final static long serialVersionUID = 2174957617411699716L;
 	private final String chromosome;
 	private final int start;
 	private final int end;
-	private final Map<Integer, long[]> bitsets;
+	private final IntBuffer positions;
+	private final ByteBuffer sites;
+	private final IntBuffer index;
+	private final int types;
 
-	public GtBitset(String chromosome, int start, int end, Map<Integer, long[]> bitsets) {
+	GtBitset(String chromosome, int start, int end, IntBuffer positions, ByteBuffer sites, IntBuffer index, int types) {
 		this.chromosome = chromosome;
 		this.start = start;
 		this.end = end;
-		this.bitsets = bitsets;
+		this.positions = positions;
+		this.sites = sites;
+		this.index = index;
+		this.types = types;
 	}
 
 	public String getChromosome() {
@@ -32,13 +40,43 @@ public class GtBitset implements Serializable {
 		return end;
 	}
 
+	/**
+	 * @return number of sites in this region
+	 */
+	public int size() {
+		return positions.limit();
+	}
+
+	/**
+	 * @return number of mapped bytes of this region
+	 */
+	public long getBytes() {
+		return 4L * positions.capacity() + sites.capacity() + 4L * index.capacity();
+	}
+
 	/**
 	 * @param position genomic position
 	 *
-	 * @return
+	 * @return the genotypes of the site at position, or null if there is no site at position
 	 */
-	public long[] getBitset(int position) {
-		return bitsets.get(position - start);
+	public GtSite getSite(int position) {
+		if (position < start || position > end) return null;
+		final int site = indexOf(position);
+		if (site < 0) return null;
+		return new GtSite(sites, 4 * index.get(site), types);
+	}
+
+	private int indexOf(int position) {
+		int low = 0;
+		int high = positions.limit() - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int value = positions.get(mid);
+			if (value < position) low = mid + 1;
+			else if (value > position) high = mid - 1;
+			else return mid;
+		}
+		return -1;
 	}
 
 }
@@ -1,34 +1,275 @@
 package org.uichuimi.variant.viewer.index;
 
+import htsjdk.variant.variantcontext.GenotypeType;
+import org.uichuimi.variant.viewer.utils.Constants;
+
 import java.io.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
 
+/**
+ * Genotype archive, written by {@link GtBitsetArchiveBuilder}. The file is laid out as:
+ * <pre>
+ * header    : magic, version, samples, genotype types, directory offset, window size
+ * windows   : for each window, a slab of sorted int positions, the variant-major containers with their int index and
+ *             the sample-major containers with their int index
+ * directory : for each contig, its windows, each with its range, number of sites and the offsets of its slabs
+ * </pre>
+ * Windows cover a fixed size genomic range, so only the window covering the requested position is mapped. Genotypes
+ * are stored as {@link SparseBitmap} containers. Variant-major containers hold, for each site and genotype type, the
+ * samples with that type. Sample-major containers hold the same bits transposed: for each sample and genotype type,
+ * the site ordinals of the window, so per-sample queries only read the containers of that sample. Indices store the
+ * offset of every site or plane, in 4 byte units, from the start of its containers. Slabs are memory mapped read-only,
+ * so nothing is deserialized and mapped pages are shared by every process reading the same archive.
+ * <p>
+ * Mapped windows are kept in a {@link GtBitsetCache} of {@link #CACHE_BYTES} bytes, so lookups alternating between
+ * contigs do not map the same windows again. The archive can be queried from several threads at once.
+ */
 public class GtBitsetArchive implements Serializable {
 
 	@Serial
 	private final static long serialVersionUID = 1655428541224075358L;
 
+	static final int MAGIC = 0x47544241;
+	static final int VERSION = 4;
+	static final int HEADER_SIZE = 32;
+	static final long CACHE_BYTES = 64L << 20;
+
 	private final File file;
-	private transient GtBitset bitset;
+	private transient volatile Map<String, Window[]> directory;
+	private transient int samples;
+	private transient int types;
+	private transient int windowSize;
+	private transient volatile GtBitsetCache<Window> cache;
 
 	public GtBitsetArchive(final File file) {
 		this.file = file;
 	}
 
-	public long[] getBitSet(String contig, int position) {
-		if (bitset == null || !bitset.getChromosome().equals(contig) || bitset.getStart() > position || position > bitset.getEnd()) {
-			loadBitSet(contig, position);
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return number of samples in the archive
+	 */
+	public int getSamples() {
+		if (directory == null) loadDirectory();
+		return samples;
+	}
+
+	/**
+	 * @return size, in base pairs, of the genomic windows of the archive
+	 */
+	public int getWindowSize() {
+		if (directory == null) loadDirectory();
+		return windowSize;
+	}
+
+	/**
+	 * @param contig   contig name
+	 * @param position genomic position
+	 * @return the genotypes of the site, or null if the site is not in the archive
+	 */
+	public GtSite getSite(String contig, int position) {
+		if (directory == null) loadDirectory();
+		final Window window = findWindow(directory.get(contig), position);
+		if (window == null) return null;
+		final GtBitset bitset = getCache().get(window, w -> loadBitSet(contig, w));
+		return bitset == null ? null : bitset.getSite(position);
+	}
+
+	/**
+	 * @return number of window lookups answered by the cache
+	 */
+	public long getCacheHits() {
+		return getCache().getHits();
+	}
+
+	/**
+	 * @return number of windows mapped from the file
+	 */
+	public long getCacheMisses() {
+		return getCache().getMisses();
+	}
+
+	/**
+	 * @return number of windows evicted from the cache
+	 */
+	public long getCacheEvictions() {
+		return getCache().getEvictions();
+	}
+
+	private GtBitsetCache<Window> getCache() {
+		if (cache == null) {
+			synchronized (this) {
+				if (cache == null) cache = new GtBitsetCache<>(CACHE_BYTES);
+			}
 		}
-		return bitset.getBitset(position);
+		return cache;
 	}
 
-	private void loadBitSet(String contig, int position) {
-		try (ZipFile zipFile = new ZipFile(file)) {
-			final ZipEntry entry = zipFile.getEntry(contig);
-			bitset = (GtBitset) new ObjectInputStream(zipFile.getInputStream(entry)).readObject();
-		} catch (IOException | ClassNotFoundException e) {
+	private GtBitset loadBitSet(String contig, Window window) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			// Mappings remain valid once the channel is closed
+			final IntBuffer positions = channel.map(FileChannel.MapMode.READ_ONLY, window.positionsOffset, 4L * window.sites).asIntBuffer();
+			final ByteBuffer sites = channel.map(FileChannel.MapMode.READ_ONLY, window.sitesOffset, window.siteIndexOffset - window.sitesOffset);
+			final IntBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, window.siteIndexOffset, 4L * window.sites).asIntBuffer();
+			return new GtBitset(contig, window.start, window.end, positions, sites, index, types);
+		} catch (IOException e) {
 			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Counts the sites where a sample has a genotype type.
+	 *
+	 * @param sample index of the sample in the file
+	 * @param type   genotype type, UNAVAILABLE and MIXED are counted as NO_CALL
+	 * @return number of sites
+	 */
+	public long countSites(int sample, GenotypeType type) {
+		final long[] count = {0};
+		scanPlanes(List.of(sample), type, (window, planes) -> count[0] += SparseBitmap.cardinality(window.planes, planes[0]));
+		return count[0];
+	}
+
+	/**
+	 * Counts the sites where two samples have the same genotype type.
+	 *
+	 * @param sample index of one sample in the file
+	 * @param other  index of the other sample in the file
+	 * @param type   genotype type, UNAVAILABLE and MIXED are counted as NO_CALL
+	 * @return number of sites
+	 */
+	public long countShared(int sample, int other, GenotypeType type) {
+		final long[] count = {0};
+		scanPlanes(List.of(sample, other), type, (window, planes) -> count[0] += SparseBitmap.andCardinality(window.planes, planes[0], window.planes, planes[1]));
+		return count[0];
+	}
+
+	/**
+	 * Lists the sites where a sample has a genotype type, in archive order.
+	 *
+	 * @param sample   index of the sample in the file
+	 * @param type     genotype type, UNAVAILABLE and MIXED are listed as NO_CALL
+	 * @param consumer receives the contig and position of every site
+	 */
+	public void forEachSite(int sample, GenotypeType type, BiConsumer<String, Integer> consumer) {
+		scanPlanes(List.of(sample), type, (window, planes) ->
+			SparseBitmap.forEach(window.planes, planes[0], ordinal -> consumer.accept(window.contig, window.positions.get(ordinal))));
+	}
+
+	/**
+	 * Maps, window by window, the sample-major containers and gives the position of the containers of the given
+	 * samples for one genotype type.
+	 */
+	private void scanPlanes(List<Integer> samples, GenotypeType type, BiConsumer<MappedWindow, int[]> consumer) {
+		if (directory == null) loadDirectory();
+		final int typeIndex = Constants.validGenotypeTypes().indexOf(Constants.validGenotypeType(type));
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			for (Map.Entry<String, Window[]> entry : directory.entrySet()) {
+				for (Window window : entry.getValue()) {
+					final ByteBuffer planes = channel.map(FileChannel.MapMode.READ_ONLY, window.samplesOffset, window.sampleIndexOffset - window.samplesOffset);
+					final IntBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, window.sampleIndexOffset, 4L * this.samples * types).asIntBuffer();
+					final int[] positions = new int[samples.size()];
+					for (int i = 0; i < samples.size(); i++) {
+						positions[i] = 4 * index.get(samples.get(i) * types + typeIndex);
+					}
+					final IntBuffer sites = channel.map(FileChannel.MapMode.READ_ONLY, window.positionsOffset, 4L * window.sites).asIntBuffer();
+					consumer.accept(new MappedWindow(entry.getKey(), sites, planes), positions);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static Window findWindow(Window[] windows, int position) {
+		if (windows == null) return null;
+		int low = 0;
+		int high = windows.length - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final Window window = windows[mid];
+			if (window.end < position) low = mid + 1;
+			else if (window.start > position) high = mid - 1;
+			else return window;
+		}
+		return null;
+	}
+
+	private synchronized void loadDirectory() {
+		if (directory != null) return;
+		final Map<String, Window[]> directory = new LinkedHashMap<>();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC) throw new IOException("Not a genotype archive: " + file);
+			final int version = header.getInt();
+			if (version != VERSION) throw new IOException("Unsupported genotype archive version " + version);
+			samples = header.getInt();
+			types = header.getInt();
+			final long directoryOffset = header.getLong();
+			windowSize = header.getInt();
+			final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, channel.size() - directoryOffset);
+			final int contigs = buffer.getInt();
+			for (int i = 0; i < contigs; i++) {
+				final byte[] name = new byte[buffer.getShort()];
+				buffer.get(name);
+				final Window[] windows = new Window[buffer.getInt()];
+				for (int w = 0; w < windows.length; w++) {
+					windows[w] = new Window(buffer.getInt(), buffer.getInt(), buffer.getInt(),
+						buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+				}
+				directory.put(new String(name, StandardCharsets.UTF_8), windows);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		this.directory = directory;
+	}
+
+	private static class MappedWindow {
+
+		private final String contig;
+		private final IntBuffer positions;
+		private final ByteBuffer planes;
+
+		private MappedWindow(String contig, IntBuffer positions, ByteBuffer planes) {
+			this.contig = contig;
+			this.positions = positions;
+			this.planes = planes;
+		}
+	}
+
+	private static class Window {
+
+		private final int start;
+		private final int end;
+		private final int sites;
+		private final long positionsOffset;
+		private final long sitesOffset;
+		private final long siteIndexOffset;
+		private final long samplesOffset;
+		private final long sampleIndexOffset;
+
+		private Window(int start, int end, int sites, long positionsOffset, long sitesOffset, long siteIndexOffset, long samplesOffset, long sampleIndexOffset) {
+			this.start = start;
+			this.end = end;
+			this.sites = sites;
+			this.positionsOffset = positionsOffset;
+			this.sitesOffset = sitesOffset;
+			this.siteIndexOffset = siteIndexOffset;
+			this.samplesOffset = samplesOffset;
+			this.sampleIndexOffset = sampleIndexOffset;
 		}
 	}
 }
@@ -1,76 +1,594 @@
 package org.uichuimi.variant.viewer.index;
 
 import htsjdk.variant.variantcontext.GenotypeType;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFHeader;
-import org.uichuimi.variant.viewer.utils.BitUtils;
 import org.uichuimi.variant.viewer.utils.Constants;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
+/**
+ * Writes a {@link GtBitsetArchive}. Sites are buffered per window of {@link #WINDOW_SIZE} base pairs. The thread adding
+ * sites only keeps their positions and their unparsed genotypes, as the VCF reader leaves them. Each window is then
+ * encoded as a segment on a pool of worker threads: genotypes are parsed by chunks of sites, the sample-major planes
+ * are built by ranges of samples, and each set of samples or sites is encoded into the smallest {@link SparseBitmap}
+ * container. Segments are written in the order their windows were added, so several windows, of the same or of
+ * different contigs, are encoded at the same time. Builders of several archives written at once, such as the parts of
+ * one archive built in parallel, can share one pool, so the number of threads does not grow with the builders. Input
+ * is expected to be sorted by position, as for tabix. The directory is written at the end of the file and its offset
+ * patched into the header when the builder is closed.
+ */
 public class GtBitsetArchiveBuilder implements AutoCloseable {
 
+	static final int WINDOW_SIZE = 1 << 20;
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int SITES_PER_TASK = 256;
+	/**
+	 * A multiple of 16, the samples of one word of the one-hot layout, so ranges never share a word
+	 */
+	private static final int SAMPLES_PER_TASK = 1024;
 	private static final List<GenotypeType> typeList = Constants.validGenotypeTypes();
+	private static final int NO_CALL = typeList.indexOf(GenotypeType.NO_CALL);
+	private static final int HOM_REF = typeList.indexOf(GenotypeType.HOM_REF);
+	private static final int HET = typeList.indexOf(GenotypeType.HET);
+	private static final int HOM_VAR = typeList.indexOf(GenotypeType.HOM_VAR);
+	private static final int[] typeIndex = new int[GenotypeType.values().length];
+
+	static {
+		for (GenotypeType type : GenotypeType.values()) {
+			typeIndex[type.ordinal()] = typeList.indexOf(Constants.validGenotypeType(type));
+		}
+	}
+
 	private final File file;
 	private final List<String> people;
 	private final int numberOfWords;
-	private final ZipOutputStream zipFile;
+	private final int sampleWords;
+	private final FileChannel output;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final Map<String, List<long[]>> directory = new LinkedHashMap<>();
+	private final ForkJoinPool pool;
+	/**
+	 * Whether the pool belongs to the caller, so it is not shut down on close
+	 */
+	private final boolean shared;
+	private final Deque<Future<Segment>> pending = new ArrayDeque<>();
 
+	private long offset;
 	private String contig;
-	private Map<Integer, long[]> gts;
+	private int window = -1;
+	private int sites;
+	private boolean sorted;
+	private boolean replacing;
+	private int[] positions;
+	private long[] words;
+	private String[] genotypes;
 
 	public GtBitsetArchiveBuilder(final File file, VCFHeader header) throws IOException {
+		this(file, header, null);
+	}
+
+	/**
+	 * @param pool pool to encode windows on, shared with other builders and left running on close. If null, the
+	 *             builder uses its own pool
+	 */
+	public GtBitsetArchiveBuilder(final File file, VCFHeader header, ForkJoinPool pool) throws IOException {
+		this(file, header, FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), pool);
+		// Header is patched on close, when the directory offset is known
+		offset = GtBitsetArchive.HEADER_SIZE;
+		output.position(offset);
+	}
+
+	private GtBitsetArchiveBuilder(final File file, VCFHeader header, FileChannel output, ForkJoinPool pool) {
 		this.file = file;
-		this.zipFile = new ZipOutputStream(new FileOutputStream(file));
+		this.output = output;
+		this.shared = pool != null;
+		this.pool = shared ? pool : new ForkJoinPool();
 		people = header.getGenotypeSamples();
 		numberOfWords = (int) Math.ceil(1.0 * people.size() * typeList.size() / 64);
+		sampleWords = (people.size() + 63) >> 6;
+		allocate(1024);
+	}
+
+	/**
+	 * Opens an existing archive to add the sites of the lines appended to its VCF file. New windows and the new
+	 * directory are written after the end of the file, and the header is patched when the builder is closed, so the
+	 * archive stays valid until then. The first window added replaces the window of the archive it falls in, so the
+	 * sites of the last window of the archive must be added again before the new ones.
+	 */
+	static GtBitsetArchiveBuilder reopen(File file, VCFHeader header) throws IOException {
+		final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		final GtBitsetArchiveBuilder builder = new GtBitsetArchiveBuilder(file, header, channel, null);
+		try {
+			builder.readDirectory(channel, file, 0);
+			builder.offset = channel.size();
+			channel.position(builder.offset);
+			builder.replacing = true;
+			return builder;
+		} catch (IOException e) {
+			channel.close();
+			builder.pool.shutdown();
+			throw e;
+		}
 	}
 
 	public void addSite(VariantContext variant) throws IOException {
-		final long[] bitSet = createGenotypeBitSet(variant);
-		if (!variant.getContig().equals(contig)) {
-			storeContig();
-			contig = variant.getContig();
-			gts = new LinkedHashMap<>();
+		final String genotypes = unparsedGenotypes(variant);
+		if (genotypes != null) {
+			addSite(variant.getContig(), variant.getStart(), genotypes);
+		} else {
+			// Genotypes already decoded by htsjdk are encoded now
+			addPosition(variant.getContig(), variant.getStart());
+			createGenotypeBitSet(variant, (sites - 1) * numberOfWords);
+		}
+	}
+
+	/**
+	 * @param contig    contig of the site
+	 * @param start     position of the site
+	 * @param genotypes FORMAT and sample columns of the site, as in the VCF line, or null if the line has none
+	 */
+	public void addSite(String contig, int start, String genotypes) throws IOException {
+		addPosition(contig, start);
+		// Missing genotype columns are parsed as missing genotypes
+		this.genotypes[sites - 1] = genotypes == null ? "" : genotypes;
+	}
+
+	private void addPosition(String contig, int start) throws IOException {
+		if (!contig.equals(this.contig) || start / WINDOW_SIZE != window) {
+			storeWindow();
+			this.contig = contig;
+			window = start / WINDOW_SIZE;
+			sorted = true;
+			if (replacing) {
+				final List<long[]> windows = directory.get(contig);
+				if (windows != null) windows.removeIf(w -> w[0] == (long) window * WINDOW_SIZE);
+				replacing = false;
+			}
 		}
-		gts.put(variant.getStart(), bitSet);
+		if (sites == positions.length) grow();
+		if (sites > 0 && start < positions[sites - 1]) sorted = false;
+		positions[sites] = start;
+		genotypes[sites] = null;
+		sites++;
+	}
+
+	/**
+	 * @return the FORMAT and sample columns of the site, if htsjdk has not decoded them yet
+	 */
+	private static String unparsedGenotypes(VariantContext variant) {
+		final GenotypesContext context = variant.getGenotypes();
+		if (!(context instanceof LazyGenotypesContext)) return null;
+		final Object data = ((LazyGenotypesContext) context).getUnparsedGenotypeData();
+		return data instanceof String ? (String) data : null;
+	}
+
+	private void allocate(int capacity) {
+		positions = new int[capacity];
+		words = new long[capacity * numberOfWords];
+		genotypes = new String[capacity];
 	}
 
-	private void storeContig() throws IOException {
+	private void grow() {
+		positions = Arrays.copyOf(positions, positions.length * 2);
+		words = Arrays.copyOf(words, positions.length * numberOfWords);
+		genotypes = Arrays.copyOf(genotypes, positions.length);
+	}
+
+	/**
+	 * Hands the buffered window to the pool and starts a new buffer. Once more windows than worker threads are
+	 * pending, the oldest one is written, so memory stays bounded. On a shared pool, the other builders keep the workers
+	 * busy, so only one window is kept pending.
+	 */
+	private void storeWindow() throws IOException {
 		if (contig == null) return;
-		final GtBitset gtBitset = new GtBitset(contig, 0, Integer.MAX_VALUE, gts);
-		final ZipEntry entry = new ZipEntry(contig);
-		zipFile.putNextEntry(entry);
-		new ObjectOutputStream(zipFile).writeObject(gtBitset);
+		final Segment segment = new Segment(contig, window, sites, sorted, positions, words, genotypes);
+		pending.add(pool.submit(segment::encode));
+		allocate(Math.max(1024, sites));
+		sites = 0;
+		while (pending.size() > (shared ? 1 : pool.getParallelism())) write(pending.poll());
+	}
+
+	private void write(Future<Segment> future) throws IOException {
+		final Segment segment;
+		try {
+			segment = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		flush();
+		final long start = offset;
+		final ByteBuffer data = ByteBuffer.wrap(segment.data);
+		while (data.hasRemaining()) output.write(data);
+		offset += segment.data.length;
+		final long windowStart = (long) segment.window * WINDOW_SIZE;
+		final long windowEnd = Math.min(windowStart + WINDOW_SIZE - 1, Integer.MAX_VALUE);
+		directory.computeIfAbsent(segment.contig, c -> new ArrayList<>())
+			.add(new long[]{windowStart, windowEnd, segment.stored, start, start + segment.sitesOffset,
+				start + segment.siteIndexOffset, start + segment.samplesOffset, start + segment.sampleIndexOffset});
+	}
+
+	/**
+	 * Appends the windows of another archive of the same samples, such as one built for a single contig. Windows are
+	 * copied as they are, so their contigs must not have been added to this archive before.
+	 *
+	 * @param part archive to append
+	 */
+	public void append(File part) throws IOException {
+		storeWindow();
+		contig = null;
+		window = -1;
+		while (!pending.isEmpty()) write(pending.poll());
+		flush();
+		try (FileChannel input = FileChannel.open(part.toPath(), StandardOpenOption.READ)) {
+			final long directoryOffset = readDirectory(input, part, offset - GtBitsetArchive.HEADER_SIZE);
+			long position = GtBitsetArchive.HEADER_SIZE;
+			while (position < directoryOffset) position += input.transferTo(position, directoryOffset - position, output);
+			offset += directoryOffset - GtBitsetArchive.HEADER_SIZE;
+		}
+	}
+
+	/**
+	 * Adds the windows of an archive of the same samples to the directory.
+	 *
+	 * @param shift added to the offsets of the windows, as they are moved within the file
+	 * @return offset of the directory of the archive
+	 */
+	private long readDirectory(FileChannel input, File archive, long shift) throws IOException {
+		final ByteBuffer header = input.map(FileChannel.MapMode.READ_ONLY, 0, GtBitsetArchive.HEADER_SIZE);
+		if (header.getInt() != GtBitsetArchive.MAGIC || header.getInt() != GtBitsetArchive.VERSION || header.getInt() != people.size()) {
+			throw new IOException("Incompatible genotype archive: " + archive);
+		}
+		final long directoryOffset = header.getLong(16);
+		final ByteBuffer buffer = input.map(FileChannel.MapMode.READ_ONLY, directoryOffset, input.size() - directoryOffset);
+		final int contigs = buffer.getInt();
+		for (int i = 0; i < contigs; i++) {
+			final byte[] name = new byte[buffer.getShort()];
+			buffer.get(name);
+			final List<long[]> windows = directory.computeIfAbsent(new String(name, StandardCharsets.UTF_8), c -> new ArrayList<>());
+			final int count = buffer.getInt();
+			for (int w = 0; w < count; w++) {
+				final long[] window = {buffer.getInt(), buffer.getInt(), buffer.getInt(), 0, 0, 0, 0, 0};
+				for (int j = 3; j < window.length; j++) window[j] = buffer.getLong() + shift;
+				windows.add(window);
+			}
+		}
+		return directoryOffset;
+	}
+
+	/**
+	 * @return number of words of a sample-major plane, one bit per site of the window
+	 */
+	static int planeWords(int sites) {
+		return (sites + 63) >> 6;
+	}
+
+	private void putInt(int value) throws IOException {
+		if (buffer.remaining() < Integer.BYTES) flush();
+		buffer.putInt(value);
+		offset += Integer.BYTES;
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) output.write(buffer);
+		buffer.clear();
+	}
+
+	private void storeDirectory() throws IOException {
+		putInt(directory.size());
+		for (Map.Entry<String, List<long[]>> entry : directory.entrySet()) {
+			final byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+			if (buffer.remaining() < Short.BYTES + name.length) flush();
+			buffer.putShort((short) name.length);
+			buffer.put(name);
+			offset += Short.BYTES + name.length;
+			putInt(entry.getValue().size());
+			for (long[] window : entry.getValue()) {
+				if (buffer.remaining() < 3 * Integer.BYTES + 5 * Long.BYTES) flush();
+				buffer.putInt((int) window[0]);
+				buffer.putInt((int) window[1]);
+				buffer.putInt((int) window[2]);
+				for (int i = 3; i < window.length; i++) buffer.putLong(window[i]);
+				offset += 3 * Integer.BYTES + 5 * Long.BYTES;
+			}
+		}
+		flush();
+	}
+
+	private void storeHeader(long directoryOffset) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(GtBitsetArchive.HEADER_SIZE);
+		header.putInt(GtBitsetArchive.MAGIC);
+		header.putInt(GtBitsetArchive.VERSION);
+		header.putInt(people.size());
+		header.putInt(typeList.size());
+		header.putLong(directoryOffset);
+		header.putInt(WINDOW_SIZE);
+		header.rewind();
+		output.write(header, 0);
 	}
 
 	public GtBitsetArchive getArchive() {
 		return new GtBitsetArchive(file);
 	}
 
-	private long[] createGenotypeBitSet(final VariantContext variant) {
-		final long[] bitset = new long[numberOfWords];
+	private void createGenotypeBitSet(final VariantContext variant, int from) {
 		for (int i = 0; i < people.size(); i++) {
-			final GenotypeType genotypeType = variant.getGenotype(i).getType();
-			int type = typeList.indexOf(genotypeType);
 			// We assume UNAVAILABLE and MIXED to be NO_CALL
-			if (type < 0) type = 0;
-			BitUtils.set(bitset, typeList.size() * i + type);
+			final int bit = typeList.size() * i + typeIndex[variant.getGenotype(i).getType().ordinal()];
+			words[from + (bit >> 6)] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * Sets the one-hot bits of a site from its unparsed genotypes: the FORMAT column followed by one column per sample.
+	 * Only the GT key is read, which the VCF specification, and htsjdk, require to be the first one. Sites without GT are
+	 * NO_CALL. Types follow the rules of htsjdk: any missing allele is NO_CALL, equal alleles are HOM_REF or HOM_VAR,
+	 * and different alleles are HET.
+	 */
+	private void parseGenotypes(String data, long[] words, int from) {
+		int column = data.indexOf('\t');
+		final boolean hasGenotype = data.startsWith("GT") && (data.length() == 2 || data.charAt(2) == ':' || data.charAt(2) == '\t');
+		for (int i = 0; i < people.size(); i++) {
+			int type = NO_CALL;
+			if (hasGenotype && column >= 0) {
+				type = parseType(data, column + 1);
+				column = data.indexOf('\t', column + 1);
+			}
+			final int bit = typeList.size() * i + type;
+			words[from + (bit >> 6)] |= 1L << bit;
+		}
+	}
+
+	private static int parseType(String data, int position) {
+		int first = -1;
+		int allele = -1;
+		boolean noCall = false;
+		boolean multiple = false;
+		for (int i = position; ; i++) {
+			final char c = i < data.length() ? data.charAt(i) : '\t';
+			if (c >= '0' && c <= '9') {
+				allele = (allele < 0 ? 0 : allele * 10) + c - '0';
+			} else if (c == '.') {
+				noCall = true;
+			} else {
+				if (allele >= 0) {
+					if (first < 0) first = allele;
+					else if (allele != first) multiple = true;
+				}
+				allele = -1;
+				if (c != '/' && c != '|') break;
+			}
 		}
-		return bitset;
+		if (noCall || first < 0) return NO_CALL;
+		return multiple ? HET : first == 0 ? HOM_REF : HOM_VAR;
 	}
 
 	@Override
 	public void close() throws Exception {
-		storeContig();
-		zipFile.close();
+		try {
+			storeWindow();
+			while (!pending.isEmpty()) write(pending.poll());
+			final long directoryOffset = offset;
+			storeDirectory();
+			storeHeader(directoryOffset);
+		} finally {
+			if (!shared) pool.shutdownNow();
+			output.close();
+		}
+	}
+
+	/**
+	 * A window, encoded on the pool into one byte array with the same layout as in the file. Offsets are relative to
+	 * the start of the segment.
+	 */
+	private class Segment {
+
+		private final String contig;
+		private final int window;
+		private final int sites;
+		private final boolean sorted;
+		private final int[] positions;
+		private final long[] words;
+		private final String[] genotypes;
+
+		private int stored;
+		private byte[] data;
+		private int sitesOffset;
+		private int siteIndexOffset;
+		private int samplesOffset;
+		private int sampleIndexOffset;
+
+		private Segment(String contig, int window, int sites, boolean sorted, int[] positions, long[] words, String[] genotypes) {
+			this.contig = contig;
+			this.window = window;
+			this.sites = sites;
+			this.sorted = sorted;
+			this.positions = positions;
+			this.words = words;
+			this.genotypes = genotypes;
+		}
+
+		private Segment encode() {
+			IntStream.range(0, tasks(sites, SITES_PER_TASK)).parallel().forEach(task -> {
+				for (int site = task * SITES_PER_TASK; site < Math.min(sites, (task + 1) * SITES_PER_TASK); site++) {
+					if (genotypes[site] != null) parseGenotypes(genotypes[site], words, site * numberOfWords);
+				}
+			});
+			final int[] order = storedOrder();
+			stored = order.length;
+			// Site containers, by chunks of sites
+			final Chunk[] siteChunks = new Chunk[tasks(stored, SITES_PER_TASK)];
+			final int[] siteIndex = new int[stored];
+			IntStream.range(0, siteChunks.length).parallel().forEach(task -> {
+				final long[] planes = new long[typeList.size() * sampleWords];
+				final Chunk chunk = new Chunk();
+				for (int ordinal = task * SITES_PER_TASK; ordinal < Math.min(stored, (task + 1) * SITES_PER_TASK); ordinal++) {
+					siteIndex[ordinal] = chunk.size();
+					deinterleave(order[ordinal] * numberOfWords, planes);
+					for (int type = 0; type < typeList.size(); type++) chunk.put(planes, type * sampleWords, sampleWords);
+				}
+				siteChunks[task] = chunk;
+			});
+			// Sample containers, by ranges of samples
+			final int planeWords = planeWords(stored);
+			final Chunk[] sampleChunks = new Chunk[tasks(people.size(), SAMPLES_PER_TASK)];
+			final int[] sampleIndex = new int[people.size() * typeList.size()];
+			IntStream.range(0, sampleChunks.length).parallel().forEach(task -> {
+				final int first = task * SAMPLES_PER_TASK;
+				final int last = Math.min(people.size(), first + SAMPLES_PER_TASK);
+				final long[] transposed = transpose(order, first, last, planeWords);
+				final Chunk chunk = new Chunk();
+				for (int plane = 0; plane < (last - first) * typeList.size(); plane++) {
+					sampleIndex[first * typeList.size() + plane] = chunk.size();
+					chunk.put(transposed, plane * planeWords, planeWords);
+				}
+				sampleChunks[task] = chunk;
+			});
+			layout(order, siteChunks, siteIndex, sampleChunks, sampleIndex);
+			return this;
+		}
+
+		/**
+		 * Concatenates the slabs and turns the chunk relative index entries into offsets, in 4 byte units, from the
+		 * start of the containers.
+		 */
+		private void layout(int[] order, Chunk[] siteChunks, int[] siteIndex, Chunk[] sampleChunks, int[] sampleIndex) {
+			final int sitesSize = Arrays.stream(siteChunks).mapToInt(Chunk::size).sum();
+			final int samplesSize = Arrays.stream(sampleChunks).mapToInt(Chunk::size).sum();
+			final ByteBuffer data = ByteBuffer.allocate(4 * stored + sitesSize + 4 * siteIndex.length + samplesSize + 4 * sampleIndex.length);
+			for (int site : order) data.putInt(positions[site]);
+			sitesOffset = data.position();
+			for (int task = 0; task < siteChunks.length; task++) {
+				final int base = data.position() - sitesOffset;
+				for (int ordinal = task * SITES_PER_TASK; ordinal < Math.min(stored, (task + 1) * SITES_PER_TASK); ordinal++) {
+					siteIndex[ordinal] += base;
+				}
+				siteChunks[task].copyTo(data);
+			}
+			siteIndexOffset = data.position();
+			for (int index : siteIndex) data.putInt(index >> 2);
+			samplesOffset = data.position();
+			final int planesPerTask = SAMPLES_PER_TASK * typeList.size();
+			for (int task = 0; task < sampleChunks.length; task++) {
+				final int base = data.position() - samplesOffset;
+				for (int plane = task * planesPerTask; plane < Math.min(sampleIndex.length, (task + 1) * planesPerTask); plane++) {
+					sampleIndex[plane] += base;
+				}
+				sampleChunks[task].copyTo(data);
+			}
+			sampleIndexOffset = data.position();
+			for (int index : sampleIndex) data.putInt(index >> 2);
+			this.data = data.array();
+		}
+
+		/**
+		 * @return indices of the sites to store, sorted by position
+		 */
+		private int[] storedOrder() {
+			final int[] order = IntStream.range(0, sites).toArray();
+			final int[] sortedOrder = sorted ? order : Arrays.stream(order).boxed()
+				.sorted(Comparator.comparingInt(i -> positions[i]))
+				.mapToInt(Integer::intValue)
+				.toArray();
+			return IntStream.range(0, sortedOrder.length)
+				.filter(i -> !isDuplicated(sortedOrder, i))
+				.map(i -> sortedOrder[i])
+				.toArray();
+		}
+
+		/**
+		 * Sites sharing a position cannot be told apart by a position lookup, so none of them is stored
+		 */
+		private boolean isDuplicated(int[] order, int i) {
+			final int position = positions[order[i]];
+			return i > 0 && positions[order[i - 1]] == position
+				|| i < order.length - 1 && positions[order[i + 1]] == position;
+		}
+
+		/**
+		 * Splits the one-hot words of a site into one set of sample indices per genotype type.
+		 */
+		private void deinterleave(int from, long[] planes) {
+			Arrays.fill(planes, 0L);
+			for (int w = 0; w < numberOfWords; w++) {
+				long bits = words[from + w];
+				while (bits != 0) {
+					final int bit = (w << 6) + Long.numberOfTrailingZeros(bits);
+					final int sample = bit / typeList.size();
+					planes[(bit % typeList.size()) * sampleWords + (sample >> 6)] |= 1L << sample;
+					bits &= bits - 1;
+				}
+			}
+		}
+
+		/**
+		 * Builds the sample-major planes of a range of samples. Bit sample * types + type of a site is the same index
+		 * as the plane of that sample and type, so each set bit is moved to bit ordinal of its plane.
+		 */
+		private long[] transpose(int[] order, int first, int last, int planeWords) {
+			final long[] transposed = new long[(last - first) * typeList.size() * planeWords];
+			final int firstBit = first * typeList.size();
+			final int lastBit = last * typeList.size();
+			for (int ordinal = 0; ordinal < order.length; ordinal++) {
+				final int from = order[ordinal] * numberOfWords;
+				for (int w = firstBit >> 6; w < (lastBit + 63) >> 6; w++) {
+					long bits = words[from + w];
+					while (bits != 0) {
+						final int plane = (w << 6) + Long.numberOfTrailingZeros(bits) - firstBit;
+						transposed[plane * planeWords + (ordinal >> 6)] |= 1L << ordinal;
+						bits &= bits - 1;
+					}
+				}
+			}
+			return transposed;
+		}
+
+		private int tasks(int size, int perTask) {
+			return (size + perTask - 1) / perTask;
+		}
+	}
+
+	/**
+	 * Growable buffer of containers, encoded by one task.
+	 */
+	private static class Chunk {
+
+		private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+		private void put(long[] words, int from, int length) {
+			final int size = SparseBitmap.encodedSize(words, from, length);
+			if (buffer.remaining() < size) {
+				final ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + size));
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+			}
+			SparseBitmap.write(words, from, length, buffer);
+		}
+
+		private int size() {
+			return buffer.position();
+		}
+
+		private void copyTo(ByteBuffer target) {
+			target.put(buffer.array(), 0, buffer.position());
+		}
 	}
 }
@@ -0,0 +1,115 @@
+package org.uichuimi.variant.viewer.index;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Thread-safe LRU cache of the windows of a {@link GtBitsetArchive}. Windows are evicted, least recently used first,
+ * when the bytes they map exceed the budget. Loads are single-flight: concurrent misses on the same window wait for
+ * the first one to load it instead of mapping it again.
+ *
+ * @param <K> window key
+ */
+class GtBitsetCache<K> {
+
+	private final long budget;
+	private final Map<K, GtBitset> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<K, CompletableFuture<GtBitset>> loading = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private long bytes;
+
+	/**
+	 * @param budget maximum number of bytes of the cached windows. The most recently used window is always kept, even
+	 *               if it is larger than the budget
+	 */
+	GtBitsetCache(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * @param key    window key
+	 * @param loader loads the window when it is not cached, may return null
+	 * @return the cached or loaded window
+	 */
+	GtBitset get(K key, Function<K, GtBitset> loader) {
+		GtBitset bitset = lookup(key);
+		if (bitset != null) {
+			hits.incrementAndGet();
+			return bitset;
+		}
+		final CompletableFuture<GtBitset> future = new CompletableFuture<>();
+		final CompletableFuture<GtBitset> running = loading.putIfAbsent(key, future);
+		if (running != null) {
+			// Another thread is loading this window
+			hits.incrementAndGet();
+			return running.join();
+		}
+		try {
+			// The window may have been stored between the lookup and the registration of the load
+			bitset = lookup(key);
+			if (bitset == null) {
+				misses.incrementAndGet();
+				bitset = loader.apply(key);
+				if (bitset != null) store(key, bitset);
+			} else hits.incrementAndGet();
+			future.complete(bitset);
+			return bitset;
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			loading.remove(key);
+		}
+	}
+
+	private synchronized GtBitset lookup(K key) {
+		return entries.get(key);
+	}
+
+	private synchronized void store(K key, GtBitset bitset) {
+		final GtBitset previous = entries.put(key, bitset);
+		if (previous != null) bytes -= previous.getBytes();
+		bytes += bitset.getBytes();
+		final Iterator<GtBitset> iterator = entries.values().iterator();
+		while (bytes > budget && entries.size() > 1) {
+			bytes -= iterator.next().getBytes();
+			iterator.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return number of lookups answered without loading a window
+	 */
+	long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of windows loaded
+	 */
+	long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of windows evicted to keep the cache within its budget
+	 */
+	long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return number of bytes of the cached windows
+	 */
+	synchronized long getBytes() {
+		return bytes;
+	}
+}
@@ -0,0 +1,58 @@
+package org.uichuimi.variant.viewer.index;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Genotypes of one site of a {@link GtBitsetArchive}. For every genotype type, in the order of
+ * {@link org.uichuimi.variant.viewer.utils.Constants#validGenotypeTypes()}, the site has a compressed set with the
+ * indices of the samples with that type. Every sample is in exactly one of the sets.
+ */
+public class GtSite {
+
+	private final ByteBuffer buffer;
+	private final int[] planes;
+
+	GtSite(ByteBuffer buffer, int position, int types) {
+		this.buffer = buffer;
+		this.planes = new int[types];
+		for (int type = 0; type < types; type++) {
+			planes[type] = position;
+			position += SparseBitmap.size(buffer, position);
+		}
+	}
+
+	/**
+	 * @param type index of the genotype type
+	 * @return number of samples with the genotype type
+	 */
+	public int cardinality(int type) {
+		return SparseBitmap.cardinality(buffer, planes[type]);
+	}
+
+	/**
+	 * @param type    index of the genotype type
+	 * @param samples bitset of sample indices
+	 * @return number of samples in the bitset with the genotype type
+	 */
+	public int andCardinality(int type, long[] samples) {
+		return SparseBitmap.andCardinality(buffer, planes[type], samples);
+	}
+
+	/**
+	 * @param type    index of the genotype type
+	 * @param samples bitset of sample indices
+	 * @return true if any sample in the bitset has the genotype type
+	 */
+	public boolean intersects(int type, long[] samples) {
+		return SparseBitmap.intersects(buffer, planes[type], samples);
+	}
+
+	/**
+	 * @param type   index of the genotype type
+	 * @param sample index of the sample
+	 * @return true if the sample has the genotype type
+	 */
+	public boolean contains(int type, int sample) {
+		return SparseBitmap.contains(buffer, planes[type], sample);
+	}
+}
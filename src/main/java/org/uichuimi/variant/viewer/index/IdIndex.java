@@ -0,0 +1,168 @@
+package org.uichuimi.variant.viewer.index;
+
+import org.uichuimi.variant.viewer.utils.HyperLogLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Hash index from the IDs of a VCF file to the file pointers of their lines, written by {@link IdIndexBuilder}. The
+ * file is laid out as:
+ * <pre>
+ * header     : magic, version, number of partitions
+ * directory  : for each partition, the offset and number of slots of its table
+ * partitions : for each partition, an open addressing table of slots, each with the 64 bits hash of an ID and the
+ *              file pointer of a line with that ID. Empty slots have hash 0
+ * </pre>
+ * The partition of an ID is chosen by the upper bits of its hash, and its first slot in the partition by the next 32
+ * bits, so a lookup maps one partition and probes a few consecutive slots. Hashes are not unique: lines found must
+ * still be checked to have the ID.
+ * <p>
+ * An index is a stack of layers, each in its own file: the index of a grown file is a layer with the IDs of the lines
+ * appended, on top of the index of the first lines, so updates do not write the IDs already indexed again. Lookups
+ * search every layer.
+ */
+public class IdIndex {
+
+	static final int MAGIC = 0x49445849;
+	static final int VERSION = 1;
+	static final int PARTITION_BITS = 8;
+	static final int HEADER_SIZE = 3 * Integer.BYTES;
+	static final int DIRECTORY_ENTRY = Long.BYTES + Integer.BYTES;
+	static final int SLOT = 2 * Long.BYTES;
+
+	private final File file;
+	private final IdIndex previous;
+	private long[] offsets;
+	private int[] slots;
+	private ByteBuffer[] tables;
+
+	public IdIndex(File file) {
+		this(file, null);
+	}
+
+	/**
+	 * @param file     file of the top layer
+	 * @param previous layers of the index of the lines before the ones in file. May be null
+	 */
+	IdIndex(File file, IdIndex previous) {
+		this.file = file;
+		this.previous = previous;
+	}
+
+	/**
+	 * @return file of the top layer
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the layers below the top one, or null if there are none
+	 */
+	IdIndex getPrevious() {
+		return previous;
+	}
+
+	/**
+	 * @return number of layers
+	 */
+	int getLayers() {
+		return previous == null ? 1 : previous.getLayers() + 1;
+	}
+
+	/**
+	 * @param id a variant ID, such as rs12345
+	 * @return file pointers of the lines that may have id, in file order
+	 */
+	public long[] find(String id) {
+		final long hash = hash(id);
+		final int partition = partition(hash);
+		final ByteBuffer table = table(partition);
+		final int size = slots[partition];
+		long[] pointers = previous == null ? new long[0] : previous.find(id);
+		if (size == 0) return pointers;
+		for (int slot = slot(hash, size); ; slot = slot + 1 == size ? 0 : slot + 1) {
+			final long stored = table.getLong(slot * SLOT);
+			if (stored == 0) break;
+			if (stored == hash) {
+				pointers = Arrays.copyOf(pointers, pointers.length + 1);
+				pointers[pointers.length - 1] = table.getLong(slot * SLOT + Long.BYTES);
+			}
+		}
+		Arrays.sort(pointers);
+		return pointers;
+	}
+
+	/**
+	 * Calls consumer with the hash and pointer of every entry of the top layer, to merge it into a new layer.
+	 */
+	void forEach(EntryConsumer consumer) throws IOException {
+		for (int partition = 0; partition < 1 << PARTITION_BITS; partition++) {
+			final ByteBuffer table = table(partition);
+			for (int slot = 0; slot < slots[partition]; slot++) {
+				final long hash = table.getLong(slot * SLOT);
+				if (hash != 0) consumer.accept(hash, table.getLong(slot * SLOT + Long.BYTES));
+			}
+		}
+	}
+
+	private synchronized ByteBuffer table(int partition) {
+		if (tables == null) loadDirectory();
+		if (tables[partition] == null) {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				tables[partition] = channel.map(FileChannel.MapMode.READ_ONLY, offsets[partition], (long) slots[partition] * SLOT);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return tables[partition];
+	}
+
+	private void loadDirectory() {
+		final int partitions = 1 << PARTITION_BITS;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE + (long) partitions * DIRECTORY_ENTRY);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != partitions) {
+				throw new IOException("Not an ID index: " + file);
+			}
+			offsets = new long[partitions];
+			slots = new int[partitions];
+			for (int i = 0; i < partitions; i++) {
+				offsets[i] = header.getLong();
+				slots[i] = header.getInt();
+			}
+			tables = new ByteBuffer[partitions];
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return hash of id, never 0, which marks empty slots
+	 */
+	static long hash(String id) {
+		final long hash = HyperLogLog.hash(id);
+		return hash == 0 ? 1 : hash;
+	}
+
+	static int partition(long hash) {
+		return (int) (hash >>> (64 - PARTITION_BITS));
+	}
+
+	/**
+	 * @return first slot of hash in a table of size slots, mapping 32 bits of the hash to the range by multiplication
+	 */
+	static int slot(long hash, int size) {
+		return (int) (((hash >>> (32 - PARTITION_BITS)) & 0xffffffffL) * size >>> 32);
+	}
+
+	interface EntryConsumer {
+		void accept(long hash, long pointer) throws IOException;
+	}
+}
@@ -0,0 +1,169 @@
+package org.uichuimi.variant.viewer.index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes an {@link IdIndex}. Entries are spilled to one temporary file per partition as they are added, so memory does
+ * not grow with the number of IDs. When the index is built, the table of each partition is built in memory from its
+ * spill file and written to the index, sized for a load factor of 3/4. Entries can be added from several threads.
+ * Closing the builder deletes the spill files, whether the index was built or not.
+ * <p>
+ * The entries of an update are written as a new layer on top of the index of the first lines of the file. Layers below
+ * that are not much larger than the new one are merged into it, so layers grow geometrically towards the bottom, an
+ * index keeps a logarithmic number of layers, and every entry is written again a logarithmic number of times.
+ */
+public class IdIndexBuilder implements AutoCloseable {
+
+	private static final int SPILL_BUFFER = 1 << 15;
+	/**
+	 * Layers below the new one are merged into it unless they are this many times larger
+	 */
+	private static final int GROWTH = 2;
+
+	private final File file;
+	private final File[] spills = new File[1 << IdIndex.PARTITION_BITS];
+	private final DataOutputStream[] outputs = new DataOutputStream[spills.length];
+	private final long[] counts = new long[spills.length];
+
+	/**
+	 * @param file file of the bottom layer of the index. Layers above it are named after it, with their depth
+	 */
+	public IdIndexBuilder(File file) throws IOException {
+		this.file = file;
+		try {
+			for (int i = 0; i < spills.length; i++) {
+				spills[i] = new File(file.getAbsolutePath() + ".spill" + i);
+				outputs[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spills[i]), SPILL_BUFFER));
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param id      an ID of a line
+	 * @param pointer file pointer of the line
+	 */
+	public void add(String id, long pointer) throws IOException {
+		add(IdIndex.hash(id), pointer);
+	}
+
+	/**
+	 * Adds a batch of entries at once, so threads adding entries do not wait for each other on every line.
+	 */
+	synchronized void add(long[] hashes, long[] pointers, int size) throws IOException {
+		for (int i = 0; i < size; i++) add(hashes[i], pointers[i]);
+	}
+
+
+	private synchronized void add(long hash, long pointer) throws IOException {
+		final int partition = IdIndex.partition(hash);
+		outputs[partition].writeLong(hash);
+		outputs[partition].writeLong(pointer);
+		counts[partition]++;
+	}
+
+	/**
+	 * Writes the entries added as the top layer of an index.
+	 *
+	 * @param previous index of the lines before the ones added, whose top layers are merged into the new one if they
+	 *                 are not much larger. May be null
+	 * @return the index
+	 */
+	public IdIndex build(IdIndex previous) throws IOException {
+		IdIndex below = previous;
+		while (below != null && below.getFile().length() <= GROWTH * size()) {
+			below.forEach(this::add);
+			below = below.getPrevious();
+		}
+		final File layer = below == null ? file : new File(file.getAbsolutePath() + "." + below.getLayers());
+		for (DataOutputStream output : outputs) output.close();
+		write(layer);
+		return new IdIndex(layer, below);
+	}
+
+	/**
+	 * @return size of the layer with the entries added so far
+	 */
+	private long size() {
+		long size = IdIndex.HEADER_SIZE + (long) spills.length * IdIndex.DIRECTORY_ENTRY;
+		for (long count : counts) size += (count + count / 3 + 1) * IdIndex.SLOT;
+		return size;
+	}
+
+	private void write(File layer) throws IOException {
+		// The previous layer may still be mapped, so it is replaced rather than overwritten
+		final File temp = new File(layer.getAbsolutePath() + ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				final ByteBuffer header = ByteBuffer.allocate(IdIndex.HEADER_SIZE + spills.length * IdIndex.DIRECTORY_ENTRY);
+				header.putInt(IdIndex.MAGIC).putInt(IdIndex.VERSION).putInt(spills.length);
+				long offset = header.capacity();
+				channel.position(offset);
+				for (int partition = 0; partition < spills.length; partition++) {
+					final int slots = (int) (counts[partition] + counts[partition] / 3 + 1);
+					header.putLong(offset).putInt(slots);
+					writeTable(channel, partition, slots);
+					offset += (long) slots * IdIndex.SLOT;
+				}
+				header.flip();
+				for (long position = 0; header.hasRemaining(); ) position += channel.write(header, position);
+			}
+			Files.move(temp.toPath(), layer.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Closes and deletes the spill files.
+	 */
+	@Override
+	public void close() throws IOException {
+		IOException error = null;
+		for (DataOutputStream output : outputs) {
+			try {
+				if (output != null) output.close();
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+		for (File spill : spills) if (spill != null) spill.delete();
+		if (error != null) throw error;
+	}
+
+	/**
+	 * Inserts the entries of the spill file of partition into a table with linear probing, and writes the table.
+	 */
+	private void writeTable(FileChannel channel, int partition, int slots) throws IOException {
+		final long[] table = new long[2 * slots];
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(spills[partition]), SPILL_BUFFER))) {
+			for (long i = 0; i < counts[partition]; i++) {
+				final long hash = input.readLong();
+				final long pointer = input.readLong();
+				int slot = IdIndex.slot(hash, slots);
+				while (table[2 * slot] != 0) slot = slot + 1 == slots ? 0 : slot + 1;
+				table[2 * slot] = hash;
+				table[2 * slot + 1] = pointer;
+			}
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(SPILL_BUFFER);
+		for (long value : table) {
+			if (!buffer.hasRemaining()) write(channel, buffer);
+			buffer.putLong(value);
+		}
+		write(channel, buffer);
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+}
@@ -0,0 +1,252 @@
+package org.uichuimi.variant.viewer.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Directory of indexes shared by every copy of a VCF file, so files in read only directories can be indexed and copies
+ * or links of a file reuse one index. Each entry is a directory named by the fingerprint of the content of the file:
+ * its size, the digest of its header and the digest of {@link #SAMPLES} blocks spread over the file. An entry holds
+ * the index, genotype archive, ID index and tabix index of the file, named {@link #BASE} and the usual extensions.
+ * <p>
+ * Entries are built in a staging directory and published by renaming it, so readers never see a partial entry, even
+ * when the cache is on a network file system shared by several workstations. When a file grows, the entry of its path
+ * is copied to staging and updated, then published under the new fingerprint, so copies of the file that have not grown
+ * keep using it. Entries are only deleted when they are evicted, least recently used first, when the cache is larger
+ * than its limit. Evicted entries are renamed back to staging before their files are deleted.
+ * <p>
+ * The directory is taken from the system property {@code vcf.viewer.index.cache}, and defaults to
+ * {@code ~/.vcf-viewer/index-cache}. Its limit in bytes is taken from {@code vcf.viewer.index.cache.size}.
+ */
+public class IndexCache {
+
+	static final String BASE = "index";
+	private static final int SAMPLES = 16;
+	private static final int SAMPLE_SIZE = 1 << 12;
+	private static final long DEFAULT_LIMIT = 20L << 30;
+	private static final String PATHS = "paths";
+	private static final String STAGING = ".staging-";
+	/**
+	 * Staging directories older than this are left over by interrupted builds
+	 */
+	private static final long STALE = 24 * 60 * 60 * 1000L;
+
+	private final File directory;
+	private final long limit;
+
+	IndexCache(File directory, long limit) {
+		this.directory = directory;
+		this.limit = limit;
+	}
+
+	/**
+	 * @return the cache of the system properties, or null if its directory cannot be created
+	 */
+	static IndexCache getDefault() {
+		final String path = System.getProperty("vcf.viewer.index.cache");
+		final File directory = path != null
+			? new File(path)
+			: new File(System.getProperty("user.home"), ".vcf-viewer" + File.separator + "index-cache");
+		final long limit = Long.getLong("vcf.viewer.index.cache.size", DEFAULT_LIMIT);
+		try {
+			Files.createDirectories(directory.toPath().resolve(PATHS));
+			return Files.isWritable(directory.toPath()) ? new IndexCache(directory, limit) : null;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * @return fingerprint of the content of vcf
+	 */
+	static String fingerprint(File vcf) throws IOException {
+		try (RandomAccessFile input = new RandomAccessFile(vcf, "r")) {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			final long length = input.length();
+			digest.update(Long.toString(length).getBytes(StandardCharsets.UTF_8));
+			digest.update(VcfIndex.headerDigest(vcf));
+			// The last sample ends at the end of the file, where a grown file differs
+			final byte[] sample = new byte[SAMPLE_SIZE];
+			final long last = Math.max(0, length - SAMPLE_SIZE);
+			for (int i = 0; i < SAMPLES; i++) {
+				input.seek(last * i / (SAMPLES - 1));
+				final int read = (int) Math.min(SAMPLE_SIZE, length);
+				input.readFully(sample, 0, read);
+				digest.update(sample, 0, read);
+			}
+			final StringBuilder builder = new StringBuilder();
+			for (byte b : Arrays.copyOf(digest.digest(), 20)) builder.append("%02x".formatted(b));
+			return builder.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return base path of the files of the published entry of fingerprint
+	 */
+	File getBase(String fingerprint) {
+		return new File(new File(directory, fingerprint), BASE);
+	}
+
+	/**
+	 * Loads the index of the published entry of fingerprint, and marks the entry as used. Entries are shared by copies
+	 * of a file with other modification times, so the index is checked against the content of vcf instead.
+	 *
+	 * @return the index, or null if there is no entry or its index cannot be loaded
+	 */
+	VcfIndex load(File vcf, String fingerprint) {
+		final File entry = new File(directory, fingerprint);
+		if (!entry.isDirectory()) return null;
+		final VcfIndex index = VcfIndex.loadCopy(vcf, getBase(fingerprint));
+		if (index != null) entry.setLastModified(System.currentTimeMillis());
+		return index;
+	}
+
+	/**
+	 * Creates a staging directory to build the entry of vcf. If an entry was published for the path of vcf, its files
+	 * are copied into staging, so its index can be updated if vcf has only grown. The entry itself is left to other
+	 * copies of the file and other workstations, until it is evicted.
+	 *
+	 * @return staging directory, not visible to other readers until {@link #publish(File, File, String) published}
+	 */
+	File stage(File vcf) throws IOException {
+		final Path staging = directory.toPath().resolve(STAGING + UUID.randomUUID());
+		Files.createDirectory(staging);
+		final String previous = readPath(vcf);
+		final File[] files = previous == null ? null : directory.toPath().resolve(previous).toFile().listFiles();
+		if (files != null) {
+			try {
+				// Files are updated in place, so they are not linked. Modification times tell whether the tabix index
+				// is older than the file, so they are kept
+				for (File file : files) Files.copy(file.toPath(), staging.resolve(file.getName()), StandardCopyOption.COPY_ATTRIBUTES);
+			} catch (IOException e) {
+				// The entry was evicted while copying, so the index is built from scratch
+				e.printStackTrace();
+				delete(staging.toFile());
+				Files.createDirectory(staging);
+			}
+		}
+		return staging.toFile();
+	}
+
+	/**
+	 * Publishes a staging directory as the entry of fingerprint, links it to the path of vcf and evicts old entries. If
+	 * another build published the same entry first, staging is discarded.
+	 */
+	void publish(File vcf, File staging, String fingerprint) throws IOException {
+		final Path entry = directory.toPath().resolve(fingerprint);
+		try {
+			Files.move(staging.toPath(), entry, StandardCopyOption.ATOMIC_MOVE);
+		} catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+			delete(staging);
+		}
+		entry.toFile().setLastModified(System.currentTimeMillis());
+		writePath(vcf, fingerprint);
+		evict(fingerprint);
+	}
+
+	/**
+	 * Discards a staging directory after a failed build.
+	 */
+	void discard(File staging) {
+		delete(staging);
+	}
+
+	private String readPath(File vcf) throws IOException {
+		final Path link = pathLink(vcf);
+		return Files.exists(link) ? Files.readString(link).trim() : null;
+	}
+
+	private void writePath(File vcf, String fingerprint) throws IOException {
+		final Path link = pathLink(vcf);
+		final Path temp = link.resolveSibling(link.getFileName() + STAGING + UUID.randomUUID());
+		Files.writeString(temp, fingerprint);
+		Files.move(temp, link, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return file with the fingerprint of the last entry published for the path of vcf, named by a digest of its path
+	 */
+	private Path pathLink(File vcf) throws IOException {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			final byte[] hash = digest.digest(vcf.getCanonicalPath().getBytes(StandardCharsets.UTF_8));
+			final StringBuilder builder = new StringBuilder();
+			for (byte b : Arrays.copyOf(hash, 20)) builder.append("%02x".formatted(b));
+			return directory.toPath().resolve(PATHS).resolve(builder.toString());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until the cache fits its limit, the staging directories of interrupted
+	 * builds and the path links of deleted entries. The entry of fingerprint is kept.
+	 */
+	private void evict(String fingerprint) {
+		final File[] files = directory.listFiles();
+		if (files == null) return;
+		final List<File> entries = new ArrayList<>();
+		long total = 0;
+		for (File file : files) {
+			if (file.getName().startsWith(STAGING)) {
+				if (file.lastModified() < System.currentTimeMillis() - STALE) delete(file);
+			} else if (file.isDirectory() && !file.getName().equals(PATHS)) {
+				entries.add(file);
+				total += size(file);
+			}
+		}
+		entries.sort(Comparator.comparingLong(File::lastModified));
+		for (File entry : entries) {
+			if (total <= limit) break;
+			if (entry.getName().equals(fingerprint)) continue;
+			total -= size(entry);
+			evict(entry);
+		}
+		// Links to evicted entries
+		final File[] links = new File(directory, PATHS).listFiles();
+		if (links != null) for (File link : links) {
+			try {
+				if (!new File(directory, Files.readString(link.toPath()).trim()).isDirectory()) link.delete();
+			} catch (IOException e) {
+				// Replaced by another build
+			}
+		}
+	}
+
+	/**
+	 * Renames entry to a staging directory before deleting its files, so readers see either the whole entry or none of
+	 * it, as when it was published.
+	 */
+	private void evict(File entry) {
+		final Path evicted = directory.toPath().resolve(STAGING + UUID.randomUUID());
+		try {
+			Files.move(entry.toPath(), evicted, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// Evicted by another workstation
+			return;
+		}
+		delete(evicted.toFile());
+	}
+
+	private static long size(File entry) {
+		final File[] files = entry.listFiles();
+		long size = 0;
+		if (files != null) for (File file : files) size += file.length();
+		return size;
+	}
+
+	private static void delete(File directory) {
+		final File[] files = directory.listFiles();
+		if (files != null) for (File file : files) file.delete();
+		directory.delete();
+	}
+}
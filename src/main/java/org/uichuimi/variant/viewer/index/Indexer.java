@@ -1,10 +1,18 @@
 package org.uichuimi.variant.viewer.index;
 
+import htsjdk.samtools.Bin;
+import htsjdk.samtools.BinningIndexContent;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.GenomicIndexUtil;
+import htsjdk.samtools.LinearIndex;
+import htsjdk.tribble.Tribble;
 import htsjdk.tribble.TribbleException;
+import htsjdk.tribble.index.Block;
 import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexFactory;
 import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndex;
 import htsjdk.tribble.index.tabix.TabixIndexCreator;
-import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLineType;
@@ -14,16 +22,23 @@ import org.uichuimi.variant.viewer.filter.Field;
 import org.uichuimi.variant.viewer.filter.FieldBuilder;
 import org.uichuimi.variant.viewer.utils.Chromosome;
 import org.uichuimi.variant.viewer.utils.Constants;
+import org.uichuimi.variant.viewer.utils.FanOutConsumer;
 import org.uichuimi.variant.viewer.utils.GenomeProgress;
-import org.uichuimi.variant.viewer.utils.ResourceConsumer;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Indexer extends Task<VcfIndex> {
 
 	private static final int LIMIT = 75;
 	private final File file;
+	/**
+	 * Path of the index files, without extension: the file itself, or a base in an {@link IndexCache} entry
+	 */
+	private File base;
 
 	public Indexer(final File file) {
 		this.file = file;
@@ -31,120 +46,478 @@ public class Indexer extends Task<VcfIndex> {
 
 	@Override
 	protected VcfIndex call() {
-		final File indexFile = new File(file.getAbsolutePath() + ".vcf-index");
-		if (indexFile.exists()) {
-			updateMessage("Reading index");
-			try (FileInputStream in = new FileInputStream(indexFile)) {
-				return (VcfIndex) new ObjectInputStream(in).readObject();
-			} catch (IOException | ClassNotFoundException e) {
-				e.printStackTrace();
-			}
+		updateMessage("Reading index");
+		final VcfIndex existing = VcfIndex.load(file);
+		if (existing != null) return existing;
+		// Indexes next to the file are kept there. New ones go to the cache, unless there is none
+		final IndexCache cache = IndexCache.getDefault();
+		if (cache == null || VcfIndex.getIndexFile(file).exists() && file.getAbsoluteFile().getParentFile().canWrite()) {
+			return index(file);
 		}
-		final VcfIndex index = createIndex();
-		try (FileOutputStream out = new FileOutputStream(indexFile)) {
-			updateMessage("Saving index");
-			new ObjectOutputStream(out).writeObject(index);
+		final String fingerprint;
+		final File staging;
+		try {
+			fingerprint = IndexCache.fingerprint(file);
+			final VcfIndex cached = cache.load(file, fingerprint);
+			if (cached != null) return cached;
+			staging = cache.stage(file);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return index(file);
+		}
+		final VcfIndex index = index(new File(staging, IndexCache.BASE));
+		try {
+			if (index == null) return null;
+			cache.publish(file, staging, fingerprint);
+			// Files were moved, so the index is opened from its entry
+			return cache.load(file, fingerprint);
 		} catch (IOException e) {
 			e.printStackTrace();
+			return null;
+		} finally {
+			cache.discard(staging);
 		}
+	}
+
+	/**
+	 * Updates the index in base if the file has only grown since it was indexed, or creates a new one.
+	 */
+	private VcfIndex index(File base) {
+		this.base = base;
+		final VcfIndex previous = VcfIndex.loadAppended(file, base);
+		if (previous != null) {
+			try {
+				return createIndexSequentially(previous);
+			} catch (Exception e) {
+				// A failed update is replaced by a new index
+				e.printStackTrace();
+			}
+		}
+		final VcfIndex index = createIndex();
+		if (previous != null && index != null) deleteMergedLayers(previous.getIdIndex(), index.getIdIndex());
 		return index;
 	}
 
 	private VcfIndex createIndex() {
-		final Collection<ResourceConsumer<VCFHeader, VariantContext>> consumers = new ArrayList<>();
-		final ViewerIndexCreator indexCreator = new ViewerIndexCreator();
-		consumers.add(indexCreator);
-		// Optionally, create TBI
-		if (needsIndex()) {
-			consumers.add(new TabixCreator(file));
-		}
-		long lineCount = 0;
-		try (VCFFileReader reader = new VCFFileReader(file, false)) {
-			final VCFHeader header = reader.getHeader();
-			for (ResourceConsumer<VCFHeader, VariantContext> consumer : consumers) {
-				consumer.start(header);
-			}
-			final Chromosome.Namespace namespace = Chromosome.Namespace.guess(reader.getHeader());
-			for (final VariantContext variant : reader) {
-				for (ResourceConsumer<VCFHeader, VariantContext> consumer : consumers) {
-					consumer.consume(variant, lineCount);
+		final List<String> contigs = indexedContigs();
+		try {
+			return contigs.size() > 1 ? createIndexByContig(contigs) : createIndexSequentially(null);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Indexes the lines of the file in one pass. When an index is updated with the lines appended since it was
+	 * indexed, the lines of the last window of the genotype archive are read again, as the window is encoded again,
+	 * but they are not passed to the other consumers. The tabix index of a block compressed file is updated the same
+	 * way, with the lines appended.
+	 *
+	 * @param previous index of the first lines of the file, from which indexing is resumed. May be null
+	 */
+	private VcfIndex createIndexSequentially(VcfIndex previous) throws Exception {
+		// Lines appended while indexing are indexed, and so updated, next time
+		final long size = file.length();
+		final long modified = file.lastModified();
+		final VCFHeader header = readHeader();
+		final List<VcfLineConsumer> consumers = new ArrayList<>();
+		final File archiveFile = previous != null && previous.getArchive() != null
+			? previous.getArchive().getFile()
+			: new File(base.getAbsolutePath() + ".gt-archive");
+		final long from = previous == null ? 0 : previous.getEndPointer();
+		final BitmapIndexCreator bitmapCreator = new BitmapIndexCreator(previous);
+		final GtBitsetArchiveCreator archiveCreator = new GtBitsetArchiveCreator(archiveFile, previous != null, null);
+		// The spill files of the ID and trigram indexes and of the Bloom filters are deleted, even if indexing fails
+		try (IdIndexBuilder idBuilder = new IdIndexBuilder(new File(base.getAbsolutePath() + ".id-index"));
+		     TrigramIndexCreator trigramCreator = new TrigramIndexCreator(previous, trigramFile());
+		     ZoneMapCreator zoneCreator = new ZoneMapCreator(previous, bloomFile())) {
+			final ViewerIndexCreator indexCreator = new ViewerIndexCreator(new GtBitsetArchive(archiveFile), zoneCreator, bitmapCreator, previous);
+			// Consumers are finished in order, and the index needs the finished zone map and bitmaps
+			consumers.add(new Resumed(zoneCreator, from));
+			consumers.add(new Resumed(bitmapCreator, from));
+			consumers.add(new Resumed(indexCreator, from));
+			consumers.add(new Resumed(trigramCreator, from));
+			consumers.add(new Resumed(new IdIndexCreator(idBuilder), from));
+			consumers.add(archiveCreator);
+			// Only block compressed files can be indexed with tabix
+			final File tabix = tabixFile();
+			if (VcfLineReader.isBlockCompressed(file)) {
+				if (previous == null && !tabix.exists()) consumers.add(new TabixCreator(tabix, null));
+				else if (previous != null && tabix.exists() && tabix.lastModified() < file.lastModified()) {
+					consumers.add(new Resumed(new TabixCreator(tabix, new TabixIndex(tabix)), from));
 				}
-				if (lineCount++ % 1000 == 0) {
-					updateProgress(GenomeProgress.getProgress(variant, namespace), 1);
-					updateMessage("Indexing " + variant.getContig() + " : " + variant.getStart());
+			}
+			// Consumers run on their own threads, so reading is only slowed down by the slowest of them
+			final FanOutConsumer<VCFHeader, VcfLine> fanOut = new FanOutConsumer<>(consumers);
+			fanOut.start(header);
+			final Chromosome.Namespace namespace = Chromosome.Namespace.guess(header);
+			final String action = previous == null ? "Indexing " : "Updating index ";
+			long lineCount = 0;
+			final long end;
+			final boolean terminated;
+			try (VcfLineReader reader = new VcfLineReader(file, infoKeys(consumers))) {
+				if (previous != null) reader.skip(Math.min(from, previous.getArchivePointer()));
+				VcfLine line;
+				while ((line = reader.next()) != null) {
+					fanOut.consume(line, line.getFilePointer());
+					if (lineCount++ % 1000 == 0) {
+						updateProgress(GenomeProgress.getProgress(line.getContig(), line.getStart(), namespace), 1);
+						updateMessage(action + line.getContig() + " : " + line.getStart());
+					}
 				}
+				end = reader.getFilePointer();
+				terminated = reader.isTerminated();
+				fanOut.finnish(end);
 			}
-			for (ResourceConsumer<VCFHeader, VariantContext> consumer : consumers) {
-				consumer.finnish(lineCount);
+			updateMessage("Saving index");
+			final VcfIndex index = indexCreator.get();
+			index.setIdIndex(idBuilder.build(previous == null ? null : previous.getIdIndex()));
+			index.setTrigramIndex(trigramCreator.get());
+			index.setBloomFilters(zoneCreator.getBlooms(index.getValueBitmaps()));
+			index.setSource(size, modified, end, archiveCreator.getWindowPointer(end), terminated);
+			index.save(file, base, header);
+			if (previous != null) deleteMergedLayers(previous.getIdIndex(), index.getIdIndex());
+			return index;
+		}
+	}
+
+	/**
+	 * Indexes each contig of a tabix indexed file in parallel. Every contig is read with its own reader, from the first
+	 * to the last tabix block of the contig, into its own {@link ViewerIndexCreator} and its own part of the genotype
+	 * archive. Parts of the archive are encoded on the pool that reads the contigs, and appended to the archive in file
+	 * order as soon as the contigs before them are indexed. The other partitions are merged in file order at the end.
+	 */
+	private VcfIndex createIndexByContig(List<String> contigs) throws Exception {
+		final long size = file.length();
+		final long modified = file.lastModified();
+		final File archiveFile = new File(base.getAbsolutePath() + ".gt-archive");
+		final VCFHeader header = readHeader();
+		final TabixIndex tabix = (TabixIndex) IndexFactory.loadIndex(tabixFile().getAbsolutePath());
+		final List<Partition> partitions = new ArrayList<>();
+		final ForkJoinPool pool = new ForkJoinPool();
+		final AtomicInteger indexed = new AtomicInteger();
+		final AtomicInteger appended = new AtomicInteger();
+		// The spill files of the ID and trigram indexes and of the Bloom filters are deleted, even if indexing fails
+		try (IdIndexBuilder idBuilder = new IdIndexBuilder(new File(base.getAbsolutePath() + ".id-index"));
+		     TrigramIndexCreator trigramCreator = new TrigramIndexCreator(null, trigramFile());
+		     ZoneMapCreator zoneCreator = new ZoneMapCreator(null, bloomFile())) {
+			for (int i = 0; i < contigs.size(); i++) {
+				final List<Block> blocks = tabix.getBlocks(contigs.get(i), 1, Integer.MAX_VALUE);
+				if (blocks.isEmpty()) continue;
+				final long start = blocks.stream().mapToLong(Block::getStartPosition).min().orElseThrow();
+				final long end = blocks.stream().mapToLong(Block::getEndPosition).max().orElseThrow();
+				partitions.add(new Partition(contigs.get(i), start, end, new File(archiveFile.getAbsolutePath() + ".part" + i), new File(trigramFile().getAbsolutePath() + ".part" + i), new File(bloomFile().getAbsolutePath() + ".part" + i), idBuilder, pool));
 			}
-		} catch (Exception e) {
+			// A null archive builder, for files without genotypes, is not closed
+			try (GtBitsetArchiveBuilder builder = header.hasGenotypingData() ? new GtBitsetArchiveBuilder(archiveFile, header, pool) : null) {
+				pool.submit(() -> partitions.parallelStream().forEach(partition -> {
+					partition.index(header);
+					appendArchives(builder, partitions, partition, appended);
+					updateProgress(indexed.incrementAndGet(), partitions.size());
+					updateMessage("Indexed %d of %d contigs".formatted(indexed.get(), partitions.size()));
+				})).get();
+			}
+			updateMessage("Merging index");
+			final BitmapIndexCreator bitmapCreator = new BitmapIndexCreator(null);
+			final ViewerIndexCreator indexCreator = new ViewerIndexCreator(new GtBitsetArchive(archiveFile), zoneCreator, bitmapCreator, null);
+			zoneCreator.start(header);
+			bitmapCreator.start(header);
+			trigramCreator.start(header);
+			indexCreator.start(header);
+			for (Partition partition : partitions) {
+				indexCreator.merge(partition.indexCreator);
+				zoneCreator.append(partition.zoneCreator);
+				bitmapCreator.append(partition.bitmapCreator);
+				trigramCreator.append(partition.trigramCreator);
+			}
+			indexCreator.finnish(0);
+			updateMessage("Saving index");
+			final Partition last = partitions.get(partitions.size() - 1);
+			final VcfIndex index = indexCreator.get();
+			index.setIdIndex(idBuilder.build(null));
+			index.setTrigramIndex(trigramCreator.get());
+			index.setBloomFilters(zoneCreator.getBlooms(index.getValueBitmaps()));
+			index.setSource(size, modified, last.endPointer, last.archiveCreator.getWindowPointer(last.endPointer), last.terminated);
+			index.save(file, base, header);
+			return index;
+		} finally {
+			pool.shutdown();
+			partitions.forEach(partition -> {
+				partition.archiveFile.delete();
+				partition.trigramCreator.close();
+				partition.zoneCreator.close();
+			});
+		}
+	}
+
+	/**
+	 * Deletes the layers of the ID index of a previous index that are not layers of the new one, as they were merged
+	 * into one of its layers.
+	 */
+	private static void deleteMergedLayers(IdIndex previous, IdIndex index) {
+		final Set<File> kept = new HashSet<>();
+		for (IdIndex layer = index; layer != null; layer = layer.getPrevious()) kept.add(layer.getFile().getAbsoluteFile());
+		for (IdIndex layer = previous; layer != null; layer = layer.getPrevious()) {
+			if (!kept.contains(layer.getFile().getAbsoluteFile())) layer.getFile().delete();
+		}
+	}
+
+	/**
+	 * Marks partition as indexed, and appends to builder the parts of the archive of the indexed partitions that follow
+	 * the ones already appended, in file order. Parts are deleted once appended, so they do not pile up until every
+	 * contig is indexed.
+	 *
+	 * @param builder  builder of the archive, or null if the file has no genotypes
+	 * @param appended number of partitions appended
+	 */
+	private static void appendArchives(GtBitsetArchiveBuilder builder, List<Partition> partitions, Partition partition, AtomicInteger appended) {
+		synchronized (partitions) {
+			partition.indexed = true;
+			while (appended.get() < partitions.size() && partitions.get(appended.get()).indexed) {
+				final Partition next = partitions.get(appended.getAndIncrement());
+				try {
+					if (builder != null) builder.append(next.archiveFile);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				next.archiveFile.delete();
+			}
+		}
+	}
+
+	private File trigramFile() {
+		return new File(base.getAbsolutePath() + ".trigrams");
+	}
+
+	private File bloomFile() {
+		return new File(base.getAbsolutePath() + ".blooms");
+	}
+
+	private VCFHeader readHeader() {
+		try (VCFFileReader reader = new VCFFileReader(file, false)) {
+			return reader.getHeader();
+		}
+	}
+
+	private static Collection<String> infoKeys(Collection<VcfLineConsumer> consumers) {
+		final Set<String> keys = new LinkedHashSet<>();
+		consumers.forEach(consumer -> keys.addAll(consumer.getInfoKeys()));
+		return keys;
+	}
+
+	/**
+	 * @return the tabix index next to the file if there is one, or else the one stored with the index, which may not
+	 * exist yet
+	 */
+	private File tabixFile() {
+		final File tabix = Tribble.tabixIndexFile(file);
+		return tabix.exists() ? tabix : Tribble.tabixIndexFile(base);
+	}
+
+	/**
+	 * @return contigs of the tabix index of the file, in file order, or an empty list if the file is not block
+	 * compressed or has no tabix index up to date
+	 */
+	private List<String> indexedContigs() {
+		final File tabix = tabixFile();
+		// A tabix index older than the file may miss its last lines
+		if (!tabix.exists() || tabix.lastModified() < file.lastModified() || !VcfLineReader.isBlockCompressed(file)) return List.of();
+		try {
+			final Index index = IndexFactory.loadIndex(tabix.getAbsolutePath());
+			return index instanceof TabixIndex ? index.getSequenceNames() : List.of();
+		} catch (TribbleException e) {
 			e.printStackTrace();
+			return List.of();
 		}
-		return indexCreator.get();
 	}
 
-	private boolean needsIndex() {
-		boolean needsIndex = true;
-		try (VCFFileReader ignored = new VCFFileReader(file)) {
-			needsIndex = false;
-		} catch (TribbleException ignored) {
+	/**
+	 * Lines of one contig, read between the virtual offsets of its first and last tabix blocks.
+	 */
+	private class Partition {
+
+		private final String contig;
+		private final long start;
+		private final long end;
+		private final File archiveFile;
+		private final ZoneMapCreator zoneCreator;
+		private final BitmapIndexCreator bitmapCreator;
+		private final TrigramIndexCreator trigramCreator;
+		private final ViewerIndexCreator indexCreator;
+		private final GtBitsetArchiveCreator archiveCreator;
+		private final IdIndexCreator idCreator;
+		/**
+		 * File pointer after the last line of the contig
+		 */
+		private long endPointer;
+		/**
+		 * Whether the last line of the contig ended with a line break
+		 */
+		private boolean terminated = true;
+
+		/**
+		 * Set once the contig is indexed, guarded by the list of partitions
+		 */
+		private boolean indexed;
+
+		private Partition(String contig, long start, long end, File archiveFile, File trigramFile, File bloomFile, IdIndexBuilder idBuilder, ForkJoinPool pool) {
+			this.contig = contig;
+			this.start = start;
+			this.end = end;
+			this.archiveFile = archiveFile;
+			this.zoneCreator = new ZoneMapCreator(null, bloomFile);
+			this.bitmapCreator = new BitmapIndexCreator(null);
+			this.trigramCreator = new TrigramIndexCreator(null, trigramFile);
+			this.indexCreator = new ViewerIndexCreator(null, zoneCreator, bitmapCreator, null);
+			this.archiveCreator = new GtBitsetArchiveCreator(archiveFile, false, pool);
+			this.idCreator = new IdIndexCreator(idBuilder);
+		}
+
+		private void index(VCFHeader header) {
+			final List<VcfLineConsumer> consumers = List.of(zoneCreator, bitmapCreator, trigramCreator, indexCreator, archiveCreator, idCreator);
+			for (VcfLineConsumer consumer : consumers) consumer.start(header);
+			try (VcfLineReader reader = new VcfLineReader(file, infoKeys(consumers))) {
+				reader.seek(start);
+				VcfLine line;
+				endPointer = start;
+				while (reader.getFilePointer() < end && (line = reader.next()) != null) {
+					// Blocks may share lines with the neighbour contigs
+					if (!line.getContig().equals(contig)) continue;
+					for (VcfLineConsumer consumer : consumers) consumer.consume(line, line.getFilePointer());
+					endPointer = reader.getFilePointer();
+					terminated = reader.isTerminated();
+				}
+				for (VcfLineConsumer consumer : consumers) consumer.finnish(endPointer);
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
 		}
-		return needsIndex;
 	}
 
-	private static class ViewerIndexCreator implements ResourceConsumer<VCFHeader, VariantContext> {
+	private static class ViewerIndexCreator implements VcfLineConsumer {
 
-		private final Map<String, Set<String>> options = new TreeMap<>();
-		private final Set<String> contigs = new LinkedHashSet<>();
-		private final Set<String> filters = new LinkedHashSet<>();
-		private Chromosome.Namespace namespace;
+		private final Map<String, ValueCounts> options = new LinkedHashMap<>();
+		private final Map<String, Distribution> numbers = new LinkedHashMap<>();
+		private final Set<String> infoKeys = new LinkedHashSet<>();
+		private final GtBitsetArchive archive;
+		private final ZoneMapCreator zones;
+		private final BitmapIndexCreator bitmaps;
+		private final VcfIndex previous;
+		private ValueCounts contigs;
+		private ValueCounts filters;
+		private ValueCounts ids;
+		private String[] keys;
+		private ValueCounts[] counts;
+		private Distribution qual;
+		private String[] numberKeys;
+		private Distribution[] distributions;
 		private VCFHeader header;
 		private VcfIndex index;
+		private long lineCount;
+
+		/**
+		 * @param previous index of the first lines of the file, whose counts are resumed. May be null
+		 */
+		private ViewerIndexCreator(GtBitsetArchive archive, ZoneMapCreator zones, BitmapIndexCreator bitmaps, VcfIndex previous) {
+			this.archive = archive;
+			this.zones = zones;
+			this.bitmaps = bitmaps;
+			this.previous = previous;
+		}
 
 		@Override
 		public void start(VCFHeader header) {
 			this.header = header;
-			namespace = Chromosome.Namespace.guess(header);
+			contigs = resume(Field.Category.STANDARD, Constants.CHROM, Integer.MAX_VALUE);
+			filters = resume(Field.Category.STANDARD, Constants.FILTER, Integer.MAX_VALUE);
+			ids = resume(Field.Category.STANDARD, Constants.ID, 0);
+			if (previous != null) lineCount = previous.getLineCount();
 			header.getInfoHeaderLines().stream()
 				.filter(line -> line.getType() == VCFHeaderLineType.String)
-				.forEach(line -> options.put(line.getID(), new TreeSet<>()));
+				.forEach(line -> options.put(line.getID(), resume(Field.Category.INFO, line.getID(), LIMIT)));
+			keys = options.keySet().toArray(String[]::new);
+			counts = options.values().toArray(ValueCounts[]::new);
+			qual = resume(Field.Category.STANDARD, Constants.QUAL);
+			header.getInfoHeaderLines().stream()
+				.filter(line -> line.getType() == VCFHeaderLineType.Integer || line.getType() == VCFHeaderLineType.Float)
+				.forEach(line -> numbers.put(line.getID(), resume(Field.Category.INFO, line.getID())));
+			numberKeys = numbers.keySet().toArray(String[]::new);
+			distributions = numbers.values().toArray(Distribution[]::new);
+			infoKeys.addAll(options.keySet());
+			infoKeys.addAll(numbers.keySet());
+		}
+
+		private ValueCounts resume(Field.Category category, String name, int limit) {
+			final ValueCounts counts = previous == null ? null : previous.getValueCounts(VcfIndex.key(category, name));
+			return counts == null ? new ValueCounts(limit) : counts;
+		}
 
+		private Distribution resume(Field.Category category, String name) {
+			final Distribution distribution = previous == null ? null : previous.getDistribution(VcfIndex.key(category, name));
+			return distribution == null ? new Distribution() : distribution;
+		}
+
+		@Override
+		public Collection<String> getInfoKeys() {
+			return infoKeys;
 		}
 
 		@Override
-		public void consume(VariantContext variantContext, long position) {
-			contigs.add(variantContext.getContig());
-			filters.addAll(variantContext.getFilters());
-			for (final String id : options.keySet()) {
-				final Set<String> set = options.get(id);
-				final Collection<String> value = variantContext.getCommonInfo().getAttributeAsStringList(id, null);
+		public void consume(VcfLine line, long position) {
+			lineCount++;
+			contigs.add(line.getContig());
+			for (String filter : line.getFilters()) filters.add(filter);
+			final String id = line.getId();
+			if (!id.equals(".")) ids.add(id);
+			for (int i = 0; i < keys.length; i++) {
+				final String value = line.getInfo(keys[i]);
 				if (value == null) continue;
-				for (String val : value) {
-					if (val != null) {
-						set.add(val);
-					}
-				}
-			}
-			// Check too long options
-			for (final String id : new ArrayList<>(options.keySet())) {
-				if (options.get(id).size() > LIMIT) {
-					options.remove(id);
-				}
+				// As htsjdk, lists are split by comma and keys without value are true
+				if (value.isEmpty()) counts[i].add("true");
+				else for (String val : value.split(",")) counts[i].add(val);
 			}
+			// htsjdk reads a missing QUAL as -10
+			final double quality = line.getQual();
+			if (quality == -10.0) qual.addMissing();
+			else qual.add(quality);
+			for (int i = 0; i < numberKeys.length; i++) distributions[i].add(line.getInfo(numberKeys[i]));
+		}
 
+		/**
+		 * Adds the state of the index creator of another partition of the same file. Partitions must be merged in file
+		 * order, so contigs and filters keep their order of appearance.
+		 */
+		void merge(ViewerIndexCreator other) {
+			lineCount += other.lineCount;
+			contigs.merge(other.contigs);
+			filters.merge(other.filters);
+			ids.merge(other.ids);
+			options.forEach((id, values) -> values.merge(other.options.get(id)));
+			qual.merge(other.qual);
+			numbers.forEach((id, distribution) -> distribution.merge(other.numbers.get(id)));
 		}
 
 		@Override
 		public void finnish(long position) throws Exception {
 			final List<Field> fields = new ArrayList<>(
-				List.of(chromField(new ArrayList<>(contigs)),
+				List.of(chromField(new ArrayList<>(contigs.getCounts().keySet())),
 					posField(), qualField(), idField(),
-					filterField(new ArrayList<>(filters)))
+					filterField(new ArrayList<>(filters.getCounts().keySet())))
 			);
 			for (final VCFInfoHeaderLine line : header.getInfoHeaderLines()) {
-				fields.add(toField(line, options.getOrDefault(line.getID(), Set.of())));
+				final ValueCounts values = options.get(line.getID());
+				fields.add(toField(line, values == null ? Set.of() : new TreeSet<>(values.getCounts().keySet())));
 			}
-			index = new VcfIndex(fields, position);
+			final Map<String, ValueCounts> valueCounts = new HashMap<>();
+			valueCounts.put(VcfIndex.key(Field.Category.STANDARD, Constants.CHROM), contigs);
+			valueCounts.put(VcfIndex.key(Field.Category.STANDARD, Constants.FILTER), filters);
+			valueCounts.put(VcfIndex.key(Field.Category.STANDARD, Constants.ID), ids);
+			options.forEach((id, values) -> valueCounts.put(VcfIndex.key(Field.Category.INFO, id), values));
+			final Map<String, Distribution> distributions = new HashMap<>();
+			distributions.put(VcfIndex.key(Field.Category.STANDARD, Constants.QUAL), qual);
+			numbers.forEach((id, distribution) -> distributions.put(VcfIndex.key(Field.Category.INFO, id), distribution));
+			index = new VcfIndex(fields, lineCount, header.hasGenotypingData() ? archive : null, zones.get(), valueCounts, distributions, bitmaps.getBitmaps(), bitmaps.getOffsets());
 		}
 
 		VcfIndex get() {
@@ -177,12 +550,19 @@ public class Indexer extends Task<VcfIndex> {
 
 	}
 
-	private static class TabixCreator implements ResourceConsumer<VCFHeader, VariantContext> {
+	private static class TabixCreator implements VcfLineConsumer {
 
 		private final TabixIndexCreator tabixIndexCreator = new TabixIndexCreator(TabixFormat.VCF);
-		private final File vcfFile;
+		private final File tabixFile;
+		private final TabixIndex previous;
 
-		private TabixCreator(File vcfFile) {this.vcfFile = vcfFile;}
+		/**
+		 * @param previous tabix index of the first lines of the file, to which the lines consumed are added. May be null
+		 */
+		private TabixCreator(File tabixFile, TabixIndex previous) {
+			this.tabixFile = tabixFile;
+			this.previous = previous;
+		}
 
 		@Override
 		public void start(VCFHeader vcfHeader) {
@@ -190,15 +570,386 @@ public class Indexer extends Task<VcfIndex> {
 		}
 
 		@Override
-		public void consume(VariantContext variantContext, long position) {
-			tabixIndexCreator.addFeature(variantContext, position);
+		public void consume(VcfLine line, long position) {
+			tabixIndexCreator.addFeature(line, position);
 		}
 
 		@Override
 		public void finnish(long position) throws IOException {
-			final Index index = tabixIndexCreator.finalizeIndex(position);
-			index.writeBasedOnFeatureFile(vcfFile);
+			final TabixIndex index = (TabixIndex) tabixIndexCreator.finalizeIndex(position);
+			final TabixIndex merged = previous == null ? index : append(previous, index);
+			if (merged == null) throw new IOException("Lines appended to a contig indexed before others: " + tabixFile);
+			merged.write(tabixFile);
+		}
+
+		/**
+		 * Adds to the tabix index of the first lines of a file the index of the lines appended to it. Appended lines
+		 * come after the previous ones, so the chunks of each bin are concatenated, and the linear index keeps the
+		 * offset of every window that already had one. The metadata pseudo bin written by samtools is dropped.
+		 *
+		 * @return the index of the whole file, or null if the appended lines continue a contig other than the last one
+		 */
+		private static TabixIndex append(TabixIndex previous, TabixIndex tail) {
+			final List<String> names = new ArrayList<>(previous.getSequenceNames());
+			final List<BinningIndexContent> contents = new ArrayList<>(Arrays.asList(previous.getIndices()));
+			final List<String> tailNames = tail.getSequenceNames();
+			for (int i = 0; i < tailNames.size(); i++) {
+				final int reference = names.indexOf(tailNames.get(i));
+				if (reference < 0) {
+					names.add(tailNames.get(i));
+					contents.add(append(names.size() - 1, null, tail.getIndices()[i]));
+				} else if (i == 0 && reference == names.size() - 1) {
+					contents.set(reference, append(reference, contents.get(reference), tail.getIndices()[i]));
+				} else return null;
+			}
+			return new TabixIndex(previous.getFormatSpec(), names, contents.toArray(BinningIndexContent[]::new));
+		}
+
+		private static BinningIndexContent append(int reference, BinningIndexContent previous, BinningIndexContent tail) {
+			final TreeMap<Integer, List<Chunk>> chunks = new TreeMap<>();
+			for (BinningIndexContent content : new BinningIndexContent[]{previous, tail}) {
+				if (content == null) continue;
+				for (Bin bin : content.getBins()) {
+					if (bin.getBinNumber() >= GenomicIndexUtil.MAX_BINS) continue;
+					chunks.computeIfAbsent(bin.getBinNumber(), number -> new ArrayList<>()).addAll(bin.getChunkList());
+				}
+			}
+			final Bin[] bins = new Bin[chunks.isEmpty() ? 0 : chunks.lastKey() + 1];
+			for (Map.Entry<Integer, List<Chunk>> entry : chunks.entrySet()) {
+				final Bin bin = new Bin(reference, entry.getKey());
+				bin.setChunkList(Chunk.optimizeChunkList(entry.getValue(), 0));
+				bins[entry.getKey()] = bin;
+			}
+			final long[] entries = linearEntries(previous);
+			final long[] tailEntries = linearEntries(tail);
+			final long[] merged = Arrays.copyOf(entries, Math.max(entries.length, tailEntries.length));
+			for (int window = 0; window < tailEntries.length; window++) {
+				if (window >= entries.length || entries[window] == 0) merged[window] = tailEntries[window];
+			}
+			return new BinningIndexContent(reference, new BinningIndexContent.BinList(bins, chunks.size()), new LinearIndex(reference, 0, merged));
+		}
+
+		/**
+		 * @return offsets of the linear index of content, from the first window of the contig
+		 */
+		private static long[] linearEntries(BinningIndexContent content) {
+			if (content == null || content.getLinearIndex() == null) return new long[0];
+			final LinearIndex index = content.getLinearIndex();
+			final long[] entries = new long[index.getIndexStart() + index.size()];
+			System.arraycopy(index.getIndexEntries(), 0, entries, index.getIndexStart(), index.size());
+			return entries;
+		}
+	}
+
+	private static class ZoneMapCreator implements VcfLineConsumer, AutoCloseable {
+
+		private final VcfIndex previous;
+		private final File file;
+		private ZoneMap.Builder builder;
+
+		/**
+		 * @param previous index of the first lines of the file, whose zones are kept. May be null
+		 * @param file     file of the Bloom filters, next to which they are spilled while building
+		 */
+		private ZoneMapCreator(VcfIndex previous, File file) {
+			this.previous = previous;
+			this.file = file;
+		}
+
+		@Override
+		public void start(VCFHeader header) {
+			builder = new ZoneMap.Builder(header, new File(file.getAbsolutePath() + ".spill"));
+			if (previous != null) builder.append(previous.getZoneMap());
+		}
+
+		@Override
+		public Collection<String> getInfoKeys() {
+			return builder.getInfoKeys();
+		}
+
+		@Override
+		public void consume(VcfLine line, long position) {
+			builder.add(line);
+		}
+
+		@Override
+		public void finnish(long position) {
+			builder.finish(position);
 		}
 
+		/**
+		 * Appends the zones of the partition that follows in the file.
+		 */
+		void append(ZoneMapCreator other) {
+			builder.append(other.builder);
+		}
+
+		ZoneMap get() {
+			return builder.build();
+		}
+
+		/**
+		 * @param bitmaps value bitmaps of the file, whose fields need no Bloom filters
+		 */
+		BloomFilters getBlooms(ValueBitmaps bitmaps) throws IOException {
+			return builder.buildBlooms(file, bitmaps);
+		}
+
+		@Override
+		public void close() {
+			if (builder != null) builder.close();
+		}
+	}
+
+	private static class BitmapIndexCreator implements VcfLineConsumer {
+
+		private final VcfIndex previous;
+		private final LineOffsets.Builder offsets = new LineOffsets.Builder();
+		private ValueBitmaps.Builder builder;
+
+		/**
+		 * @param previous index of the first lines of the file, whose bitmaps and offsets are kept. May be null
+		 */
+		private BitmapIndexCreator(VcfIndex previous) {
+			this.previous = previous;
+		}
+
+		@Override
+		public void start(VCFHeader header) {
+			builder = new ValueBitmaps.Builder(header, LIMIT);
+			if (previous != null) {
+				builder.append(previous.getValueBitmaps());
+				offsets.append(previous.getLineOffsets());
+			}
+		}
+
+		@Override
+		public Collection<String> getInfoKeys() {
+			return builder.getInfoKeys();
+		}
+
+		@Override
+		public void consume(VcfLine line, long position) {
+			builder.add(line);
+			offsets.add(position);
+		}
+
+		@Override
+		public void finnish(long position) {
+		}
+
+		/**
+		 * Appends the bitmaps and offsets of the partition that follows in the file.
+		 */
+		void append(BitmapIndexCreator other) {
+			builder.append(other.getBitmaps());
+			offsets.append(other.getOffsets());
+		}
+
+		ValueBitmaps getBitmaps() {
+			return builder.build();
+		}
+
+		LineOffsets getOffsets() {
+			return offsets.build();
+		}
+	}
+
+	private static class TrigramIndexCreator implements VcfLineConsumer, AutoCloseable {
+
+		private final VcfIndex previous;
+		private final File file;
+		private TrigramIndex.Builder builder;
+
+		/**
+		 * @param previous index of the first lines of the file, whose trigrams are kept. May be null
+		 * @param file     file of the index, next to which lists are spilled while building
+		 */
+		private TrigramIndexCreator(VcfIndex previous, File file) {
+			this.previous = previous;
+			this.file = file;
+		}
+
+		@Override
+		public void start(VCFHeader header) {
+			builder = new TrigramIndex.Builder(header, new File(file.getAbsolutePath() + ".spill"));
+			try {
+				if (previous != null) builder.append(previous.getTrigramIndex());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public Collection<String> getInfoKeys() {
+			return builder.getInfoKeys();
+		}
+
+		@Override
+		public void consume(VcfLine line, long position) {
+			builder.add(line);
+		}
+
+		@Override
+		public void finnish(long position) {
+		}
+
+		/**
+		 * Appends the trigrams of the partition that follows in the file.
+		 */
+		void append(TrigramIndexCreator other) throws IOException {
+			builder.append(other.builder);
+		}
+
+		TrigramIndex get() throws IOException {
+			return builder.build(file);
+		}
+
+		@Override
+		public void close() {
+			if (builder != null) builder.close();
+		}
+	}
+
+	/**
+	 * Adds the IDs of the lines to an {@link IdIndexBuilder} shared by every partition, in batches.
+	 */
+	private static class IdIndexCreator implements VcfLineConsumer {
+
+		private static final int BATCH = 4096;
+		private final IdIndexBuilder builder;
+		private final long[] hashes = new long[BATCH];
+		private final long[] pointers = new long[BATCH];
+		private int size;
+
+		private IdIndexCreator(IdIndexBuilder builder) {
+			this.builder = builder;
+		}
+
+		@Override
+		public void start(VCFHeader header) {
+		}
+
+		@Override
+		public void consume(VcfLine line, long position) {
+			final String id = line.getId();
+			if (id.equals(".")) return;
+			// A line may have several IDs, separated by semicolons
+			for (String value : id.split(";")) {
+				hashes[size] = IdIndex.hash(value);
+				pointers[size++] = position;
+				if (size == BATCH) flush();
+			}
+		}
+
+		private void flush() {
+			try {
+				builder.add(hashes, pointers, size);
+				size = 0;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void finnish(long position) {
+			flush();
+		}
+	}
+
+	private static class GtBitsetArchiveCreator implements VcfLineConsumer {
+
+		private final File archiveFile;
+		private final boolean reopen;
+		private final ForkJoinPool pool;
+		private GtBitsetArchiveBuilder builder;
+		private String contig;
+		private int window = -1;
+		private long windowPointer = -1;
+
+		/**
+		 * @param reopen whether to add the lines to the existing archive, starting by the lines of its last window
+		 * @param pool   pool shared with other archives to encode windows on, or null for a pool of its own
+		 */
+		private GtBitsetArchiveCreator(File archiveFile, boolean reopen, ForkJoinPool pool) {
+			this.archiveFile = archiveFile;
+			this.reopen = reopen;
+			this.pool = pool;
+		}
+
+		@Override
+		public void start(VCFHeader vcfHeader) {
+			if (!vcfHeader.hasGenotypingData()) return;
+			try {
+				builder = reopen
+					? GtBitsetArchiveBuilder.reopen(archiveFile, vcfHeader)
+					: new GtBitsetArchiveBuilder(archiveFile, vcfHeader, pool);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void consume(VcfLine line, long position) {
+			if (!line.getContig().equals(contig) || line.getStart() / GtBitsetArchiveBuilder.WINDOW_SIZE != window) {
+				contig = line.getContig();
+				window = line.getStart() / GtBitsetArchiveBuilder.WINDOW_SIZE;
+				windowPointer = position;
+			}
+			if (builder == null) return;
+			try {
+				builder.addSite(line.getContig(), line.getStart(), line.getGenotypes());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void finnish(long position) throws Exception {
+			if (builder != null) builder.close();
+		}
+
+		/**
+		 * @param end file pointer after the last line
+		 * @return file pointer of the first line of the last window, or end if there were no lines
+		 */
+		long getWindowPointer(long end) {
+			return windowPointer < 0 ? end : windowPointer;
+		}
+	}
+
+	/**
+	 * Passes the lines from a file pointer on to a consumer, so consumers resumed from a previous index skip the lines
+	 * already counted in it.
+	 */
+	private static class Resumed implements VcfLineConsumer {
+
+		private final VcfLineConsumer consumer;
+		private final long from;
+
+		private Resumed(VcfLineConsumer consumer, long from) {
+			this.consumer = consumer;
+			this.from = from;
+		}
+
+		@Override
+		public void start(VCFHeader header) {
+			consumer.start(header);
+		}
+
+		@Override
+		public Collection<String> getInfoKeys() {
+			return consumer.getInfoKeys();
+		}
+
+		@Override
+		public void consume(VcfLine line, long position) {
+			if (position >= from) consumer.consume(line, position);
+		}
+
+		@Override
+		public void finnish(long position) throws Exception {
+			consumer.finnish(position);
+		}
 	}
 }
@@ -0,0 +1,240 @@
+package org.uichuimi.variant.viewer.index;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * File pointer, virtual offset in block compressed files, of every line of a VCF file, by ordinal. Lines found with the
+ * {@link ValueBitmaps} of a file are read from here without scanning the lines before them.
+ * <p>
+ * Lines are grouped by {@link #GROUP} consecutive ordinals. The pointer of the first line of each group is stored as
+ * is, and the pointers of the other lines as the gap from the previous line, encoded as a variable length long. Gaps are
+ * the length of a line, or a few bytes more when a line starts in the next compressed block, so a line takes about 2
+ * bytes instead of 8. The pointer of a line is found from the start of its group, decoding at most 255 gaps.
+ * <p>
+ * Gaps are addressed by long positions, and are read through {@link MappedBytes}, so they are not limited by the size of
+ * a buffer.
+ */
+public class LineOffsets {
+
+	/**
+	 * Number of lines of a group, a power of two
+	 */
+	static final int GROUP = 256;
+	private static final int GROUP_BITS = Integer.numberOfTrailingZeros(GROUP);
+
+	private final int size;
+	private final LongBuffer firsts;
+	private final LongBuffer positions;
+	private final MappedBytes gaps;
+
+	/**
+	 * @param firsts    pointer of the first line of each group
+	 * @param positions position in gaps of the gap of the second line of each group
+	 * @param gaps      gaps between the pointers of consecutive lines of each group
+	 */
+	private LineOffsets(int size, LongBuffer firsts, LongBuffer positions, MappedBytes gaps) {
+		this.size = size;
+		this.firsts = firsts;
+		this.positions = positions;
+		this.gaps = gaps;
+	}
+
+	/**
+	 * @return number of lines
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return file pointer of the line with ordinal
+	 */
+	public long get(int ordinal) {
+		return cursor().get(ordinal);
+	}
+
+	/**
+	 * @return a cursor to read the pointers of increasing ordinals, which decodes each gap once
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	void write(DataOutputStream output) throws IOException {
+		final int groups = firsts.limit();
+		output.writeInt(size);
+		output.writeInt(groups);
+		for (int i = 0; i < groups; i++) output.writeLong(firsts.get(i));
+		for (int i = 0; i < groups; i++) output.writeLong(positions.get(i));
+		output.writeLong(gaps.length());
+		final byte[] buffer = new byte[1 << 16];
+		for (long position = 0; position < gaps.length(); position += buffer.length) {
+			final int length = (int) Math.min(buffer.length, gaps.length() - position);
+			gaps.get(position, buffer, 0, length);
+			output.write(buffer, 0, length);
+		}
+	}
+
+	static LineOffsets read(MappedBytes section) {
+		final int size = section.getInt(0);
+		final int groups = section.getInt(Integer.BYTES);
+		// Groups and gaps are read in place. Groups take at most 128 MiB, so they fit in a buffer
+		final ByteBuffer buffer = section.buffer(2 * Integer.BYTES, groups * 2 * Long.BYTES);
+		final LongBuffer firsts = buffer.slice().limit(groups * Long.BYTES).asLongBuffer();
+		final LongBuffer positions = buffer.position(groups * Long.BYTES).slice().asLongBuffer();
+		final long start = 2 * Integer.BYTES + groups * 2L * Long.BYTES;
+		final long length = section.getLong(start);
+		return new LineOffsets(size, firsts, positions, section.slice(start + Long.BYTES, length));
+	}
+
+	/**
+	 * Reads pointers by increasing ordinal. Moving forward within a group only decodes the gaps in between, and any other
+	 * move starts again from a group. A cursor is not thread safe, but every thread can have its own.
+	 */
+	public class Cursor {
+
+		private int ordinal = -1;
+		private long pointer;
+		private long position;
+
+		/**
+		 * @return file pointer of the line with ordinal
+		 */
+		public long get(int ordinal) {
+			if (ordinal < 0 || ordinal >= size) throw new IndexOutOfBoundsException(ordinal);
+			if (ordinal < this.ordinal || ordinal >>> GROUP_BITS != this.ordinal >>> GROUP_BITS) {
+				final int group = ordinal >>> GROUP_BITS;
+				this.ordinal = group << GROUP_BITS;
+				pointer = firsts.get(group);
+				position = positions.get(group);
+			}
+			while (this.ordinal < ordinal) {
+				long gap = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = gaps.get(position++);
+					gap |= (long) (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				pointer += gap;
+				this.ordinal++;
+			}
+			return pointer;
+		}
+	}
+
+	/**
+	 * Collects the pointers of the lines of a file, in file order.
+	 */
+	static class Builder {
+
+		/**
+		 * Gaps are kept in chunks of 2^CHUNK_BITS bytes, so they grow without copying them, and without a limit
+		 */
+		private static final int CHUNK_BITS = 20;
+		private static final int CHUNK = 1 << CHUNK_BITS;
+		private long[] firsts = new long[64];
+		private long[] positions = new long[64];
+		/**
+		 * The first chunk grows from a few bytes, for the small partitions of files with many contigs
+		 */
+		private byte[][] chunks = {new byte[1024]};
+		private long length;
+		private int size;
+		private long last;
+
+		void add(long pointer) {
+			if ((size & (GROUP - 1)) == 0) {
+				final int group = size >>> GROUP_BITS;
+				if (group == firsts.length) {
+					firsts = Arrays.copyOf(firsts, 2 * group);
+					positions = Arrays.copyOf(positions, 2 * group);
+				}
+				firsts[group] = pointer;
+				positions[group] = length;
+			} else {
+				if (pointer < last) throw new IllegalArgumentException("pointers must be added in file order");
+				long gap = pointer - last;
+				while ((gap & ~0x7FL) != 0) {
+					put((byte) (gap & 0x7F | 0x80));
+					gap >>>= 7;
+				}
+				put((byte) gap);
+			}
+			last = pointer;
+			size++;
+		}
+
+		private void put(byte b) {
+			final int index = (int) (length & (CHUNK - 1));
+			reserve(index + 1);
+			chunks[(int) (length >>> CHUNK_BITS)][index] = b;
+			length++;
+		}
+
+		private void put(MappedBytes bytes) {
+			for (long copied = 0; copied < bytes.length(); ) {
+				final int index = (int) (length & (CHUNK - 1));
+				final int count = (int) Math.min(bytes.length() - copied, CHUNK - index);
+				reserve(index + count);
+				bytes.get(copied, chunks[(int) (length >>> CHUNK_BITS)], index, count);
+				copied += count;
+				length += count;
+			}
+		}
+
+		/**
+		 * Makes room in the current chunk for capacity bytes, at most a chunk.
+		 */
+		private void reserve(int capacity) {
+			final int chunk = (int) (length >>> CHUNK_BITS);
+			if (chunk == chunks.length) chunks = Arrays.copyOf(chunks, 2 * chunk);
+			if (chunks[chunk] == null) chunks[chunk] = new byte[CHUNK];
+			else if (capacity > chunks[chunk].length) {
+				chunks[chunk] = Arrays.copyOf(chunks[chunk], Math.min(CHUNK, Math.max(capacity, 2 * chunks[chunk].length)));
+			}
+		}
+
+		/**
+		 * Appends the pointers of the lines that follow in the file, such as the ones of another partition, or precedes
+		 * them, as the pointers of a file that has grown.
+		 */
+		void append(LineOffsets other) {
+			if ((size & (GROUP - 1)) != 0) {
+				// Groups of other start in the middle of a group of this, so gaps are added one by one
+				final Cursor cursor = other.cursor();
+				for (int i = 0; i < other.size(); i++) add(cursor.get(i));
+				return;
+			}
+			if (other.size() == 0) return;
+			// Groups of other are groups of this, as when resuming, so they are copied as they are. The last one may be
+			// partial, and the lines that follow are added to it
+			final int first = size >>> GROUP_BITS;
+			final int groups = other.firsts.limit();
+			if (first + groups > firsts.length) {
+				firsts = Arrays.copyOf(firsts, Math.max(2 * firsts.length, first + groups));
+				positions = Arrays.copyOf(positions, firsts.length);
+			}
+			for (int i = 0; i < groups; i++) {
+				firsts[first + i] = other.firsts.get(i);
+				positions[first + i] = length + other.positions.get(i);
+			}
+			put(other.gaps);
+			last = other.get(other.size() - 1);
+			size += other.size();
+		}
+
+		LineOffsets build() {
+			final int groups = (size + GROUP - 1) >>> GROUP_BITS;
+			return new LineOffsets(size,
+				LongBuffer.wrap(Arrays.copyOf(firsts, groups)),
+				LongBuffer.wrap(Arrays.copyOf(positions, groups)),
+				MappedBytes.wrap(Arrays.copyOf(chunks, (int) ((length + CHUNK - 1) >>> CHUNK_BITS)), CHUNK_BITS, length));
+		}
+	}
+}
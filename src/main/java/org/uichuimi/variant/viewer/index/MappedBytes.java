@@ -0,0 +1,126 @@
+package org.uichuimi.variant.viewer.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only range of bytes that can be longer than a {@link ByteBuffer} can hold, split in windows of the same power of
+ * two size. Ranges of a file are memory mapped in windows of {@link #WINDOW_BITS 1 GiB}, or in one window if they fit
+ * in a buffer. Values are read big endian, as written by a DataOutputStream, and may cross windows.
+ */
+class MappedBytes {
+
+	static final int WINDOW_BITS = 30;
+
+	private final ByteBuffer[] windows;
+	private final int bits;
+	private final long mask;
+	/**
+	 * Position of this range in the windows
+	 */
+	private final long offset;
+	private final long length;
+
+	private MappedBytes(ByteBuffer[] windows, int bits, long offset, long length) {
+		this.windows = windows;
+		this.bits = bits;
+		this.mask = (1L << bits) - 1;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * @return length bytes of channel from offset, mapped
+	 */
+	static MappedBytes map(FileChannel channel, long offset, long length) throws IOException {
+		// A single window has no boundaries, so it can be as large as a buffer
+		final int bits = length <= Integer.MAX_VALUE ? Integer.SIZE - 1 : WINDOW_BITS;
+		final ByteBuffer[] windows = new ByteBuffer[(int) Math.max(1, (length + (1L << bits) - 1) >>> bits)];
+		for (int i = 0; i < windows.length; i++) {
+			final long start = (long) i << bits;
+			windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + start, Math.min(length - start, 1L << bits));
+		}
+		return new MappedBytes(windows, bits, 0, length);
+	}
+
+	/**
+	 * @param chunks arrays of 2^bits bytes, but the last one, which may be shorter
+	 * @return the first length bytes of chunks, which are not copied
+	 */
+	static MappedBytes wrap(byte[][] chunks, int bits, long length) {
+		final ByteBuffer[] windows = new ByteBuffer[Math.max(1, chunks.length)];
+		for (int i = 0; i < windows.length; i++) windows[i] = ByteBuffer.wrap(i < chunks.length ? chunks[i] : new byte[0]);
+		return new MappedBytes(windows, bits, 0, length);
+	}
+
+	/**
+	 * @return length bytes from position, sharing the windows of this range
+	 */
+	MappedBytes slice(long position, long length) {
+		return new MappedBytes(windows, bits, offset + position, length);
+	}
+
+	long length() {
+		return length;
+	}
+
+	byte get(long position) {
+		final long p = offset + position;
+		return windows[(int) (p >>> bits)].get((int) (p & mask));
+	}
+
+	int getInt(long position) {
+		final long p = offset + position;
+		final ByteBuffer window = windows[(int) (p >>> bits)];
+		final int index = (int) (p & mask);
+		if (index + Integer.BYTES <= window.limit()) return window.getInt(index);
+		int value = 0;
+		for (int i = 0; i < Integer.BYTES; i++) value = value << 8 | get(position + i) & 0xFF;
+		return value;
+	}
+
+	long getLong(long position) {
+		final long p = offset + position;
+		final ByteBuffer window = windows[(int) (p >>> bits)];
+		final int index = (int) (p & mask);
+		if (index + Long.BYTES <= window.limit()) return window.getLong(index);
+		return (long) getInt(position) << 32 | getInt(position + Integer.BYTES) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Copies length bytes from position into target, from start.
+	 */
+	void get(long position, byte[] target, int start, int length) {
+		int copied = 0;
+		while (copied < length) {
+			final long p = offset + position + copied;
+			final ByteBuffer window = windows[(int) (p >>> bits)];
+			final int index = (int) (p & mask);
+			final int count = Math.min(length - copied, window.limit() - index);
+			window.get(index, target, start + copied, count);
+			copied += count;
+		}
+	}
+
+	/**
+	 * @return a new view of length bytes from position, as one buffer
+	 * @throws IllegalStateException if the bytes are not in one window
+	 */
+	ByteBuffer buffer(long position, int length) {
+		final long p = offset + position;
+		final ByteBuffer window = windows[(int) (p >>> bits)];
+		final int index = (int) (p & mask);
+		if (index + length > window.limit()) throw new IllegalStateException("Range of " + length + " bytes does not fit in a buffer");
+		return window.duplicate().position(index).limit(index + length).slice();
+	}
+
+	/**
+	 * @return a new view of the whole range as one buffer
+	 * @throws IllegalStateException if the range does not fit in one window
+	 */
+	ByteBuffer buffer() {
+		if (length > Integer.MAX_VALUE) throw new IllegalStateException("Range of " + length + " bytes does not fit in a buffer");
+		return buffer(0, (int) length);
+	}
+}
@@ -0,0 +1,325 @@
+package org.uichuimi.variant.viewer.index;
+
+import org.uichuimi.variant.viewer.utils.BitUtils;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntConsumer;
+
+/**
+ * Adaptive compressed bitmaps, in the spirit of Roaring. A bitmap is stored as the smallest of three containers:
+ * <pre>
+ * ARRAY  : header, n sorted int values
+ * BITMAP : header, n long words
+ * RUN    : header, n pairs of int (start, length)
+ * </pre>
+ * The header is one int, with the kind in the 2 upper bits and n in the rest. Containers describe their own size and
+ * are aligned to 4 bytes, so they are read in place from a mapped buffer. All operations work on the compressed form,
+ * without inflating it into words. Bitmap containers are counted and intersected by the kernels of {@link BitUtils}.
+ */
+final class SparseBitmap {
+
+	static final int ARRAY = 0;
+	static final int BITMAP = 1;
+	static final int RUN = 2;
+	private static final int HEADER = 4;
+	private static final int COUNT = 0x3FFFFFFF;
+
+	private SparseBitmap() {
+	}
+
+	/**
+	 * @param words  source bitmap
+	 * @param from   first word of the bitmap
+	 * @param length number of words of the bitmap
+	 * @return number of bytes needed to encode the bitmap with {@link #write(long[], int, int, ByteBuffer)}
+	 */
+	static int encodedSize(long[] words, int from, int length) {
+		return HEADER + payload(kind(words, from, length), words, from, length);
+	}
+
+	/**
+	 * Encodes a bitmap into the smallest container.
+	 *
+	 * @param words  source bitmap
+	 * @param from   first word of the bitmap
+	 * @param length number of words of the bitmap
+	 * @param output buffer with at least {@link #encodedSize(long[], int, int)} bytes remaining
+	 */
+	static void write(long[] words, int from, int length, ByteBuffer output) {
+		final int kind = kind(words, from, length);
+		switch (kind) {
+			case ARRAY -> {
+				output.putInt(kind << 30 | cardinality(words, from, length));
+				forEachBit(words, from, length, output::putInt);
+			}
+			case BITMAP -> {
+				output.putInt(kind << 30 | length);
+				for (int w = from; w < from + length; w++) output.putLong(words[w]);
+			}
+			default -> {
+				output.putInt(kind << 30 | runs(words, from, length));
+				final int bits = length << 6;
+				int bit = nextBit(words, from, length, 0, true);
+				while (bit < bits) {
+					final int end = nextBit(words, from, length, bit, false);
+					output.putInt(bit);
+					output.putInt(end - bit);
+					bit = nextBit(words, from, length, end, true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of bytes used by the container at position
+	 */
+	static int size(ByteBuffer buffer, int position) {
+		return HEADER + payload(kind(buffer, position), count(buffer, position));
+	}
+
+	static int cardinality(ByteBuffer buffer, int position) {
+		final int n = count(buffer, position);
+		final int data = position + HEADER;
+		switch (kind(buffer, position)) {
+			case ARRAY:
+				return n;
+			case BITMAP:
+				return BitUtils.cardinality(buffer, data, n);
+			default:
+				int length = 0;
+				for (int i = 0; i < n; i++) length += buffer.getInt(data + 8 * i + 4);
+				return length;
+		}
+	}
+
+	/**
+	 * Counts the values of the container that are set in mask.
+	 */
+	static int andCardinality(ByteBuffer buffer, int position, long[] mask) {
+		final int n = count(buffer, position);
+		final int data = position + HEADER;
+		int count = 0;
+		switch (kind(buffer, position)) {
+			case ARRAY:
+				for (int i = 0; i < n; i++) {
+					if (BitUtils.get(mask, buffer.getInt(data + 4 * i))) count++;
+				}
+				return count;
+			case BITMAP:
+				return BitUtils.andCardinality(buffer, data, mask, n);
+			default:
+				for (int i = 0; i < n; i++) {
+					final int start = buffer.getInt(data + 8 * i);
+					count += BitUtils.cardinality(mask, start, start + buffer.getInt(data + 8 * i + 4));
+				}
+				return count;
+		}
+	}
+
+	/**
+	 * Checks whether any value of the container is set in mask.
+	 */
+	static boolean intersects(ByteBuffer buffer, int position, long[] mask) {
+		final int n = count(buffer, position);
+		final int data = position + HEADER;
+		switch (kind(buffer, position)) {
+			case ARRAY:
+				for (int i = 0; i < n; i++) {
+					if (BitUtils.get(mask, buffer.getInt(data + 4 * i))) return true;
+				}
+				return false;
+			case BITMAP:
+				return BitUtils.intersects(buffer, data, mask, n);
+			default:
+				for (int i = 0; i < n; i++) {
+					final int start = buffer.getInt(data + 8 * i);
+					if (BitUtils.cardinality(mask, start, start + buffer.getInt(data + 8 * i + 4)) != 0) return true;
+				}
+				return false;
+		}
+	}
+
+	/**
+	 * Counts the values present in both containers.
+	 */
+	static int andCardinality(ByteBuffer a, int aPosition, ByteBuffer b, int bPosition) {
+		if (kind(a, aPosition) != ARRAY && kind(b, bPosition) == ARRAY) {
+			return andCardinality(b, bPosition, a, aPosition);
+		}
+		if (kind(a, aPosition) == ARRAY) {
+			final int n = count(a, aPosition);
+			int count = 0;
+			for (int i = 0; i < n; i++) {
+				if (contains(b, bPosition, a.getInt(aPosition + HEADER + 4 * i))) count++;
+			}
+			return count;
+		}
+		int count = 0;
+		final int n = count(a, aPosition);
+		final int data = aPosition + HEADER;
+		if (kind(a, aPosition) == BITMAP && kind(b, bPosition) == BITMAP) {
+			return BitUtils.andCardinality(a, data, b, bPosition + HEADER, Math.min(n, count(b, bPosition)));
+		}
+		// At least one of them is a run container
+		if (kind(a, aPosition) == BITMAP) return andCardinality(b, bPosition, a, aPosition);
+		for (int i = 0; i < n; i++) {
+			final int start = a.getInt(data + 8 * i);
+			final int end = start + a.getInt(data + 8 * i + 4);
+			for (int value = start; value < end; value++) {
+				if (contains(b, bPosition, value)) count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Sets into target every value of the container.
+	 */
+	static void or(ByteBuffer buffer, int position, long[] target) {
+		or(buffer, position, target, 0);
+	}
+
+	/**
+	 * Sets into target every value of the container plus offset.
+	 *
+	 * @param offset a multiple of 64, so bitmap containers are merged word by word
+	 */
+	static void or(ByteBuffer buffer, int position, long[] target, int offset) {
+		if (kind(buffer, position) == BITMAP) {
+			final int n = count(buffer, position);
+			final int data = position + HEADER;
+			final int first = offset >> 6;
+			for (int i = 0; i < n; i++) target[first + i] |= buffer.getLong(data + 8 * i);
+		} else forEach(buffer, position, value -> BitUtils.set(target, offset + value));
+	}
+
+	static boolean contains(ByteBuffer buffer, int position, int value) {
+		final int n = count(buffer, position);
+		final int data = position + HEADER;
+		switch (kind(buffer, position)) {
+			case ARRAY: {
+				int low = 0;
+				int high = n - 1;
+				while (low <= high) {
+					final int mid = (low + high) >>> 1;
+					final int v = buffer.getInt(data + 4 * mid);
+					if (v < value) low = mid + 1;
+					else if (v > value) high = mid - 1;
+					else return true;
+				}
+				return false;
+			}
+			case BITMAP:
+				return (value >> 6) < n && (buffer.getLong(data + 8 * (value >> 6)) & 1L << value) != 0;
+			default: {
+				int low = 0;
+				int high = n - 1;
+				while (low <= high) {
+					final int mid = (low + high) >>> 1;
+					final int start = buffer.getInt(data + 8 * mid);
+					if (start > value) high = mid - 1;
+					else if (start + buffer.getInt(data + 8 * mid + 4) <= value) low = mid + 1;
+					else return true;
+				}
+				return false;
+			}
+		}
+	}
+
+	static void forEach(ByteBuffer buffer, int position, IntConsumer consumer) {
+		final int n = count(buffer, position);
+		final int data = position + HEADER;
+		switch (kind(buffer, position)) {
+			case ARRAY -> {
+				for (int i = 0; i < n; i++) consumer.accept(buffer.getInt(data + 4 * i));
+			}
+			case BITMAP -> {
+				for (int i = 0; i < n; i++) {
+					long bits = buffer.getLong(data + 8 * i);
+					while (bits != 0) {
+						consumer.accept((i << 6) + Long.numberOfTrailingZeros(bits));
+						bits &= bits - 1;
+					}
+				}
+			}
+			default -> {
+				for (int i = 0; i < n; i++) {
+					final int start = buffer.getInt(data + 8 * i);
+					final int end = start + buffer.getInt(data + 8 * i + 4);
+					for (int value = start; value < end; value++) consumer.accept(value);
+				}
+			}
+		}
+	}
+
+	private static int kind(long[] words, int from, int length) {
+		final int array = 4 * cardinality(words, from, length);
+		final int bitmap = 8 * length;
+		final int run = 8 * runs(words, from, length);
+		if (array <= bitmap && array <= run) return ARRAY;
+		return run < bitmap ? RUN : BITMAP;
+	}
+
+	private static int payload(int kind, long[] words, int from, int length) {
+		return switch (kind) {
+			case ARRAY -> payload(kind, cardinality(words, from, length));
+			case BITMAP -> payload(kind, length);
+			default -> payload(kind, runs(words, from, length));
+		};
+	}
+
+	private static int payload(int kind, int n) {
+		return kind == ARRAY ? 4 * n : 8 * n;
+	}
+
+	private static int kind(ByteBuffer buffer, int position) {
+		return buffer.getInt(position) >>> 30;
+	}
+
+	private static int count(ByteBuffer buffer, int position) {
+		return buffer.getInt(position) & COUNT;
+	}
+
+	private static int cardinality(long[] words, int from, int length) {
+		int count = 0;
+		for (int w = from; w < from + length; w++) count += Long.bitCount(words[w]);
+		return count;
+	}
+
+	/**
+	 * A run starts at every set bit whose previous bit is not set.
+	 */
+	private static int runs(long[] words, int from, int length) {
+		int runs = 0;
+		long carry = 0;
+		for (int w = from; w < from + length; w++) {
+			runs += Long.bitCount(words[w] & ~(words[w] << 1 | carry));
+			carry = words[w] >>> 63;
+		}
+		return runs;
+	}
+
+	private static void forEachBit(long[] words, int from, int length, IntConsumer consumer) {
+		for (int w = 0; w < length; w++) {
+			long bits = words[from + w];
+			while (bits != 0) {
+				consumer.accept((w << 6) + Long.numberOfTrailingZeros(bits));
+				bits &= bits - 1;
+			}
+		}
+	}
+
+	/**
+	 * @return index of the next bit, starting at bit, whose value is set, or length * 64 if there is none
+	 */
+	private static int nextBit(long[] words, int from, int length, int bit, boolean set) {
+		int w = bit >> 6;
+		if (w >= length) return length << 6;
+		long word = (set ? words[from + w] : ~words[from + w]) & (-1L << bit);
+		while (word == 0) {
+			if (++w == length) return length << 6;
+			word = set ? words[from + w] : ~words[from + w];
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(word);
+	}
+}
@@ -0,0 +1,909 @@
+package org.uichuimi.variant.viewer.index;
+
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import org.uichuimi.variant.viewer.components.Accessor;
+import org.uichuimi.variant.viewer.filter.AttributeFilter;
+import org.uichuimi.variant.viewer.filter.Field;
+import org.uichuimi.variant.viewer.filter.Operator;
+import org.uichuimi.variant.viewer.utils.BitUtils;
+import org.uichuimi.variant.viewer.utils.Constants;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Inverted index of the trigrams of ID and the text INFO fields of a VCF file. For every trigram of the lowercase
+ * values of a field, it stores the ordinals of the lines with that trigram, as a list of gaps encoded as variable
+ * length ints. The lines whose value contains a text have every trigram of the text, so the intersection of the lists
+ * of its trigrams is a superset of the lines passing a {@link Operator#TEXT_CONTAINS} filter. Lines found must still
+ * be decoded and filtered, and are located by ordinal with the {@link LineOffsets} of the file.
+ * <p>
+ * The index is stored in its own file, next to the {@link VcfIndex}:
+ * <pre>
+ * header   : magic, version, number of lines, offset of the columns
+ * postings : for each column, and each of its trigrams in order, the list of the trigram: number of ordinals, last
+ *            ordinal and gaps
+ * columns  : number of columns, and for each column its key, number of trigrams, the trigrams and the position of the
+ *            list of each trigram in the postings, plus the end of the last one
+ * </pre>
+ * Postings are mapped in windows, so they are not limited by the size of a buffer, nor loaded in memory.
+ * <p>
+ * Fields whose lists grow beyond {@link #BYTES_PER_LINE} bytes per line, such as long annotations, are dropped while
+ * indexing. Only ASCII letters are lowercased, so texts with other characters are not looked up here.
+ */
+public class TrigramIndex {
+
+	/**
+	 * Maximum average size of the lists of a field, per line
+	 */
+	static final int BYTES_PER_LINE = 32;
+	private static final int MAGIC = 0x54524749;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 3 * Integer.BYTES + Long.BYTES;
+	/**
+	 * Size of the number of ordinals and the last ordinal that start a list
+	 */
+	private static final int LIST_HEADER = 2 * Integer.BYTES;
+	/**
+	 * Trigram of the list of lines without value. Characters in trigrams are never 0
+	 */
+	private static final int MISSING = 0;
+
+	private final File file;
+	private final int lines;
+	private final Map<String, Column> columns;
+	private final MappedBytes postings;
+
+	private TrigramIndex(File file, int lines, Map<String, Column> columns, MappedBytes postings) {
+		this.file = file;
+		this.lines = lines;
+		this.columns = columns;
+		this.postings = postings;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return true if the lines passing filter can be looked up in the trigrams
+	 */
+	public boolean supports(AttributeFilter filter) {
+		if (!columns.containsKey(VcfIndex.key(filter.getField())) || filter.getOperator() != Operator.TEXT_CONTAINS) {
+			return false;
+		}
+		if (filter.getField().isList() && filter.getAccessor() == Accessor.NONE) return false;
+		final Collection<?> values = filter.getValue() instanceof Collection
+			? (Collection<?>) filter.getValue()
+			: Collections.singletonList(filter.getValue());
+		if (values.isEmpty()) return false;
+		for (Object value : values) if (!(value instanceof String) || !searchable((String) value)) return false;
+		return true;
+	}
+
+	/**
+	 * htsjdk shows lists of a single valued field as "[a, b]", which the raw text does not contain.
+	 */
+	private static boolean searchable(String text) {
+		if (text.length() < 3 || text.contains(", ") || text.indexOf('[') >= 0 || text.indexOf(']') >= 0) return false;
+		for (int i = 0; i < text.length(); i++) if (text.charAt(i) >= 0x80) return false;
+		return true;
+	}
+
+	/**
+	 * Sets in target the ordinals of the lines that may pass filter: the lines with every trigram of any of the texts of
+	 * the filter, and the lines without value if the filter is not strict.
+	 *
+	 * @param filter a filter {@link #supports(AttributeFilter) supported} by this index
+	 * @param target bitset with a bit for every line of the file
+	 */
+	public void or(AttributeFilter filter, long[] target) {
+		final Column column = columns.get(VcfIndex.key(filter.getField()));
+		final Collection<?> values = filter.getValue() instanceof Collection
+			? (Collection<?>) filter.getValue()
+			: List.of(filter.getValue());
+		final long[] words = new long[target.length];
+		final long[] other = new long[target.length];
+		for (Object value : values) {
+			final long[] positions = lists(column, (String) value);
+			if (positions.length == 0) continue;
+			Arrays.fill(words, 0);
+			decode(positions[0], words);
+			for (int i = 1; i < positions.length; i++) {
+				Arrays.fill(other, 0);
+				decode(positions[i], other);
+				BitUtils.and(words, other, words);
+			}
+			BitUtils.or(target, words, target);
+		}
+		if (!filter.isStrict()) {
+			final int missing = column.find(MISSING);
+			if (missing >= 0) decode(column.positions.get(missing), target);
+		}
+	}
+
+	/**
+	 * @return positions of the lists of the trigrams of text, shortest first, or none if a trigram is not in the column
+	 */
+	private long[] lists(Column column, String text) {
+		final int[] trigrams = trigrams(text);
+		final long[] positions = new long[trigrams.length];
+		final long[] sizes = new long[trigrams.length];
+		for (int i = 0; i < trigrams.length; i++) {
+			final int index = column.find(trigrams[i]);
+			if (index < 0) return new long[0];
+			positions[i] = column.positions.get(index);
+			sizes[i] = (long) postings.getInt(positions[i]) << 32 | i;
+		}
+		Arrays.sort(sizes);
+		final long[] sorted = new long[positions.length];
+		for (int i = 0; i < sizes.length; i++) sorted[i] = positions[(int) sizes[i]];
+		return sorted;
+	}
+
+	/**
+	 * Sets in target the ordinals of the list at position.
+	 */
+	private void decode(long position, long[] target) {
+		forEach(position, ordinal -> BitUtils.set(target, ordinal));
+	}
+
+	/**
+	 * Calls consumer with the ordinals of the list at position, in order.
+	 */
+	private void forEach(long position, IntConsumer consumer) {
+		final int count = postings.getInt(position);
+		int ordinal = -1;
+		position += LIST_HEADER;
+		for (int i = 0; i < count; i++) {
+			int gap = 0;
+			for (int shift = 0; ; shift += 7) {
+				final byte b = postings.get(position++);
+				gap |= (b & 0x7F) << shift;
+				if (b >= 0) break;
+			}
+			ordinal += gap + 1;
+			consumer.accept(ordinal);
+		}
+	}
+
+	/**
+	 * @return distinct trigrams of text, lowercase
+	 */
+	private static int[] trigrams(String text) {
+		final Trigrams trigrams = new Trigrams();
+		trigrams.add(text);
+		return Arrays.copyOf(trigrams.values, trigrams.size);
+	}
+
+	static TrigramIndex read(File file) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) throw new IOException("Not a trigram index: " + file);
+			final int lines = header.getInt();
+			final long end = header.getLong();
+			final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, end, channel.size() - end);
+			final int size = buffer.getInt();
+			final Map<String, Column> columns = new HashMap<>();
+			for (int c = 0; c < size; c++) {
+				final String key = VcfIndex.readString(buffer);
+				final int trigrams = buffer.getInt();
+				// Trigrams and positions are read in place
+				final IntBuffer keys = buffer.slice().limit(trigrams * Integer.BYTES).asIntBuffer();
+				buffer.position(buffer.position() + trigrams * Integer.BYTES);
+				final LongBuffer positions = buffer.slice().limit((trigrams + 1) * Long.BYTES).asLongBuffer();
+				buffer.position(buffer.position() + (trigrams + 1) * Long.BYTES);
+				columns.put(key, new Column(keys, positions));
+			}
+			return new TrigramIndex(file, lines, columns, MappedBytes.map(channel, HEADER_SIZE, end - HEADER_SIZE));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Sorted trigrams of a field, and the position of the list of each trigram in the postings. The list of trigram i
+	 * ends where the one of trigram i + 1 starts.
+	 */
+	private static class Column {
+
+		private final IntBuffer trigrams;
+		private final LongBuffer positions;
+
+		private Column(IntBuffer trigrams, LongBuffer positions) {
+			this.trigrams = trigrams;
+			this.positions = positions;
+		}
+
+		private int find(int trigram) {
+			int low = 0;
+			int high = trigrams.limit() - 1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				final int value = trigrams.get(mid);
+				if (value < trigram) low = mid + 1;
+				else if (value > trigram) high = mid - 1;
+				else return mid;
+			}
+			return -1;
+		}
+
+		/**
+		 * @return bytes of the lists
+		 */
+		private long bytes() {
+			return positions.get(trigrams.limit()) - positions.get(0);
+		}
+	}
+
+	/**
+	 * Distinct trigrams of a text. Letters are lowercased, and characters out of ASCII are folded into one byte.
+	 */
+	private static class Trigrams {
+
+		private int[] values = new int[64];
+		private int size;
+
+		private void add(String text) {
+			for (int i = 0; i + 2 < text.length(); i++) {
+				final int trigram = fold(text.charAt(i)) << 16 | fold(text.charAt(i + 1)) << 8 | fold(text.charAt(i + 2));
+				if (contains(trigram)) continue;
+				if (size == values.length) values = Arrays.copyOf(values, 2 * size);
+				values[size++] = trigram;
+			}
+		}
+
+		/**
+		 * Texts are short, so a linear search is faster than hashing.
+		 */
+		private boolean contains(int trigram) {
+			for (int i = 0; i < size; i++) if (values[i] == trigram) return true;
+			return false;
+		}
+
+		private static int fold(char c) {
+			if (c >= 'A' && c <= 'Z') return c + ('a' - 'A');
+			if (c >= 0x80) return 0x80 | (c & 0x7F);
+			return c == 0 ? 1 : c;
+		}
+	}
+
+	/**
+	 * List of the ordinals of the lines with a trigram, while building.
+	 */
+	private static class Posting {
+
+		private byte[] bytes = new byte[4];
+		private int length;
+		private int count;
+		private int last = -1;
+
+		/**
+		 * @return number of bytes added
+		 */
+		private int add(int ordinal) {
+			if (ordinal == last) return 0;
+			final int start = length;
+			if (length + 5 > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + 5));
+			length += writeGap(bytes, length, ordinal - last - 1);
+			last = ordinal;
+			count++;
+			return length - start;
+		}
+	}
+
+	/**
+	 * Writes gap as a variable length int at offset of bytes.
+	 *
+	 * @return number of bytes written
+	 */
+	private static int writeGap(byte[] bytes, int offset, int gap) {
+		int length = 0;
+		while ((gap & ~0x7F) != 0) {
+			bytes[offset + length++] = (byte) (gap & 0x7F | 0x80);
+			gap >>>= 7;
+		}
+		bytes[offset + length++] = (byte) gap;
+		return length;
+	}
+
+	/**
+	 * Lists of the trigrams of a field while building, in an open addressing table. Lists are cleared when spilled,
+	 * but their size is kept, to drop the field by the size of all of its lists.
+	 */
+	private static class Lists {
+
+		/**
+		 * Estimated memory of a new list, with its slot in the table
+		 */
+		private static final int LIST_MEMORY = 64;
+		private int[] keys = new int[64];
+		private Posting[] postings = new Posting[64];
+		private int size;
+		private long bytes;
+
+		/**
+		 * @return estimated memory added
+		 */
+		private int add(int trigram, int ordinal) {
+			int slot = slot(trigram, keys.length);
+			while (postings[slot] != null && keys[slot] != trigram) slot = (slot + 1) & (keys.length - 1);
+			int memory = 0;
+			if (postings[slot] == null) {
+				if (size + 1 > keys.length * 3 / 4) {
+					grow();
+					return add(trigram, ordinal);
+				}
+				keys[slot] = trigram;
+				postings[slot] = new Posting();
+				size++;
+				memory = LIST_MEMORY;
+			}
+			final int added = postings[slot].add(ordinal);
+			bytes += added;
+			return memory + added;
+		}
+
+		private void grow() {
+			final int[] oldKeys = keys;
+			final Posting[] oldPostings = postings;
+			keys = new int[2 * oldKeys.length];
+			postings = new Posting[2 * oldKeys.length];
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldPostings[i] == null) continue;
+				int slot = slot(oldKeys[i], keys.length);
+				while (postings[slot] != null) slot = (slot + 1) & (keys.length - 1);
+				keys[slot] = oldKeys[i];
+				postings[slot] = oldPostings[i];
+			}
+		}
+
+		private static int slot(int trigram, int length) {
+			return (trigram * 0x9E3779B1) >>> (Integer.numberOfLeadingZeros(length) + 1);
+		}
+
+		/**
+		 * Writes the lists sorted by trigram, each one as its trigram, number of ordinals, last ordinal, number of bytes
+		 * and gaps, and clears them.
+		 *
+		 * @return number of bytes written
+		 */
+		private long spill(DataOutputStream output) throws IOException {
+			final long[] sorted = new long[size];
+			int index = 0;
+			// Trigrams are positive, so they sort with their slots in the lower bits
+			for (int slot = 0; slot < keys.length; slot++) if (postings[slot] != null) sorted[index++] = (long) keys[slot] << 32 | slot;
+			Arrays.sort(sorted);
+			long written = 0;
+			for (long entry : sorted) {
+				final Posting posting = postings[(int) entry];
+				output.writeInt((int) (entry >>> 32));
+				output.writeInt(posting.count);
+				output.writeInt(posting.last);
+				output.writeInt(posting.length);
+				output.write(posting.bytes, 0, posting.length);
+				written += 4 * Integer.BYTES + posting.length;
+			}
+			keys = new int[64];
+			postings = new Posting[64];
+			size = 0;
+			return written;
+		}
+	}
+
+	/**
+	 * Lists of some consecutive lines of a file, sorted by trigram, in a spill file or in a trigram index.
+	 */
+	private interface Run {
+
+		/**
+		 * @param channels open channels of the spill files
+		 * @param order    position of the run in the file, to merge lists in file order
+		 * @return cursor over the lists of column key, before its first list, or null if the run has no lists for key
+		 */
+		Cursor cursor(String key, Map<File, FileChannel> channels, int order);
+
+		/**
+		 * @return this run, with its ordinals offset by lines more
+		 */
+		Run shift(int lines);
+	}
+
+	/**
+	 * Lists spilled by a builder, located by column in its spill file.
+	 */
+	private static class SpillRun implements Run {
+
+		private final File file;
+		/**
+		 * Offset and number of lists of each column in the spill file
+		 */
+		private final Map<String, long[]> lists;
+		/**
+		 * Ordinal of the first line of the builder that spilled the lists
+		 */
+		private final int base;
+
+		private SpillRun(File file, Map<String, long[]> lists, int base) {
+			this.file = file;
+			this.lists = lists;
+			this.base = base;
+		}
+
+		@Override
+		public Cursor cursor(String key, Map<File, FileChannel> channels, int order) {
+			final long[] range = lists.get(key);
+			return range == null ? null : new SpillCursor(channels.get(file), range[0], (int) range[1], base, order);
+		}
+
+		@Override
+		public Run shift(int lines) {
+			return new SpillRun(file, lists, base + lines);
+		}
+	}
+
+	/**
+	 * Lists of an index, as the index of the first lines of a file that has grown.
+	 */
+	private static class IndexRun implements Run {
+
+		private final TrigramIndex index;
+		/**
+		 * Ordinal of the first line of the index
+		 */
+		private final int base;
+
+		private IndexRun(TrigramIndex index, int base) {
+			this.index = index;
+			this.base = base;
+		}
+
+		@Override
+		public Cursor cursor(String key, Map<File, FileChannel> channels, int order) {
+			final Column column = index.columns.get(key);
+			return column == null ? null : new IndexCursor(index.postings, column, base, order);
+		}
+
+		@Override
+		public Run shift(int lines) {
+			return new IndexRun(index, base + lines);
+		}
+	}
+
+	/**
+	 * Position in the lists of a column of a run, at the list of {@link #trigram}.
+	 */
+	private abstract static class Cursor {
+
+		final int base;
+		final int order;
+		int trigram;
+		int count;
+		int last;
+		/**
+		 * Bytes of the gaps of the current list
+		 */
+		long length;
+
+		private Cursor(int base, int order) {
+			this.base = base;
+			this.order = order;
+		}
+
+		/**
+		 * Moves to the next list, reading its trigram, number of ordinals, last ordinal and length.
+		 *
+		 * @return false if there are no more lists
+		 */
+		abstract boolean next() throws IOException;
+
+		/**
+		 * @return next byte of the gaps of the current list
+		 */
+		abstract byte read() throws IOException;
+
+		/**
+		 * Copies the next bytes of the gaps of the current list to output.
+		 */
+		abstract void copy(OutputStream output, long bytes) throws IOException;
+
+		/**
+		 * Writes the gaps of the current list to output, following the ordinal previous. Only the first gap changes, the
+		 * others are copied.
+		 *
+		 * @return number of bytes written
+		 */
+		private long write(OutputStream output, int previous, byte[] gap) throws IOException {
+			int first = 0;
+			int size = 0;
+			for (int shift = 0; ; shift += 7) {
+				final byte b = read();
+				size++;
+				first |= (b & 0x7F) << shift;
+				if (b >= 0) break;
+			}
+			// The first gap of a run follows ordinal -1
+			final int written = writeGap(gap, 0, base + first - previous - 1);
+			output.write(gap, 0, written);
+			copy(output, length - size);
+			return written + length - size;
+		}
+	}
+
+	private static class SpillCursor extends Cursor {
+
+		private final DataInputStream input;
+		private final byte[] buffer = new byte[1 << 13];
+		private int remaining;
+
+		private SpillCursor(FileChannel channel, long offset, int lists, int base, int order) {
+			super(base, order);
+			this.input = new DataInputStream(new BufferedInputStream(new ChannelInput(channel, offset), 1 << 16));
+			this.remaining = lists;
+		}
+
+		@Override
+		boolean next() throws IOException {
+			if (remaining == 0) return false;
+			remaining--;
+			trigram = input.readInt();
+			count = input.readInt();
+			last = input.readInt();
+			length = input.readInt();
+			return true;
+		}
+
+		@Override
+		byte read() throws IOException {
+			return input.readByte();
+		}
+
+		@Override
+		void copy(OutputStream output, long bytes) throws IOException {
+			while (bytes > 0) {
+				final int read = (int) Math.min(bytes, buffer.length);
+				input.readFully(buffer, 0, read);
+				output.write(buffer, 0, read);
+				bytes -= read;
+			}
+		}
+	}
+
+	private static class IndexCursor extends Cursor {
+
+		private final MappedBytes postings;
+		private final Column column;
+		private final byte[] buffer = new byte[1 << 13];
+		private int index = -1;
+		private long position;
+
+		private IndexCursor(MappedBytes postings, Column column, int base, int order) {
+			super(base, order);
+			this.postings = postings;
+			this.column = column;
+		}
+
+		@Override
+		boolean next() {
+			if (++index >= column.trigrams.limit()) return false;
+			final long start = column.positions.get(index);
+			trigram = column.trigrams.get(index);
+			count = postings.getInt(start);
+			last = postings.getInt(start + Integer.BYTES);
+			position = start + LIST_HEADER;
+			length = column.positions.get(index + 1) - position;
+			return true;
+		}
+
+		@Override
+		byte read() {
+			return postings.get(position++);
+		}
+
+		@Override
+		void copy(OutputStream output, long bytes) throws IOException {
+			while (bytes > 0) {
+				final int read = (int) Math.min(bytes, buffer.length);
+				postings.get(position, buffer, 0, read);
+				output.write(buffer, 0, read);
+				position += read;
+				bytes -= read;
+			}
+		}
+	}
+
+	/**
+	 * Stream of a file from an offset, read with positional reads, so several streams can share one channel.
+	 */
+	private static class ChannelInput extends InputStream {
+
+		private final FileChannel channel;
+		private long position;
+
+		private ChannelInput(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+			if (read > 0) position += read;
+			return read;
+		}
+	}
+
+	/**
+	 * Builds the trigram index of a file from its lines, in file order. A field is dropped when its lists take more than
+	 * {@link #BYTES_PER_LINE} bytes per line, once they are larger than {@link #MIN_DROP} bytes.
+	 * <p>
+	 * Lists are kept in memory up to {@link #SPILL} bytes, and then spilled to a file as a run of lines. Runs, and the
+	 * indexes and builders appended, are merged into the index file when it is built, copying the gaps of each list
+	 * but the first one. Spill files are deleted on close.
+	 */
+	static class Builder implements AutoCloseable {
+
+		private static final long MIN_DROP = 1 << 20;
+		private static final long SPILL = 1 << 26;
+		private final String idKey = VcfIndex.key(Field.Category.STANDARD, Constants.ID);
+		private final Map<String, Lists> columns = new LinkedHashMap<>();
+		private final List<String> infoKeys = new ArrayList<>();
+		private final List<String> infoColumns = new ArrayList<>();
+		private final Trigrams trigrams = new Trigrams();
+		private final File spill;
+		/**
+		 * Runs of lines spilled or appended, in file order
+		 */
+		private final List<Run> runs = new ArrayList<>();
+		/**
+		 * Spill files of this builder and of the builders appended to it
+		 */
+		private final List<File> spills = new ArrayList<>();
+		private long spillLength;
+		private int lines;
+		/**
+		 * Ordinal of the first line of the lists in memory
+		 */
+		private int first;
+		private long memory;
+
+		/**
+		 * @param spill file where lists are spilled, which is created when needed
+		 */
+		Builder(VCFHeader header, File spill) {
+			this.spill = spill;
+			columns.put(idKey, new Lists());
+			for (VCFInfoHeaderLine line : header.getInfoHeaderLines()) {
+				if (line.getType() == VCFHeaderLineType.String) {
+					infoKeys.add(line.getID());
+					infoColumns.add(VcfIndex.key(Field.Category.INFO, line.getID()));
+					columns.put(infoColumns.get(infoColumns.size() - 1), new Lists());
+				}
+			}
+		}
+
+		/**
+		 * @return text INFO keys, whose values are read from lines
+		 */
+		List<String> getInfoKeys() {
+			return infoKeys;
+		}
+
+		void add(VcfLine line) {
+			final int ordinal = lines++;
+			// htsjdk sees an empty ID as ".", not as missing
+			add(idKey, line.getId(), false, ordinal);
+			for (int i = 0; i < infoKeys.size(); i++) {
+				final String value = line.getInfo(infoKeys.get(i));
+				// As the value bitmaps, "." is missing too, and keys without value are true
+				add(infoColumns.get(i), value == null ? null : value.isEmpty() ? "true" : value, value == null || value.equals("."), ordinal);
+			}
+			if (memory > SPILL) {
+				try {
+					spill();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+
+		private void add(String key, String value, boolean missing, int ordinal) {
+			final Lists lists = columns.get(key);
+			if (lists == null) return;
+			if (missing) memory += lists.add(MISSING, ordinal);
+			if (value != null) {
+				trigrams.size = 0;
+				trigrams.add(value);
+				for (int i = 0; i < trigrams.size; i++) memory += lists.add(trigrams.values[i], ordinal);
+			}
+			if (lists.bytes > MIN_DROP && lists.bytes > (long) BYTES_PER_LINE * lines) columns.remove(key);
+		}
+
+		/**
+		 * Writes the lists in memory to the spill file, as a new run.
+		 */
+		private void spill() throws IOException {
+			if (first == lines) return;
+			final boolean created = spills.contains(spill);
+			if (!created) spills.add(spill);
+			final Map<String, long[]> lists = new HashMap<>();
+			try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spill, created), 1 << 16))) {
+				for (Map.Entry<String, Lists> entry : columns.entrySet()) {
+					final int size = entry.getValue().size;
+					if (size == 0) continue;
+					lists.put(entry.getKey(), new long[]{spillLength, size});
+					spillLength += entry.getValue().spill(output);
+				}
+			}
+			runs.add(new SpillRun(spill, lists, 0));
+			first = lines;
+			memory = 0;
+		}
+
+		/**
+		 * Precedes the lines added with the ones of the index of a file that has grown. A field dropped in other is
+		 * dropped here too. The lists of other are not read until the index is built.
+		 */
+		void append(TrigramIndex other) throws IOException {
+			spill();
+			columns.keySet().retainAll(other.columns.keySet());
+			runs.add(new IndexRun(other, lines));
+			for (Map.Entry<String, Lists> entry : columns.entrySet()) {
+				entry.getValue().bytes += other.columns.get(entry.getKey()).bytes();
+			}
+			lines += other.lines;
+			first = lines;
+			dropLarge();
+		}
+
+		/**
+		 * Appends the lines of the builder of the partition that follows in the file, and takes its spill files. A field
+		 * dropped in other is dropped here too.
+		 */
+		void append(Builder other) throws IOException {
+			spill();
+			other.spill();
+			columns.keySet().retainAll(other.columns.keySet());
+			for (Run run : other.runs) runs.add(run.shift(lines));
+			spills.addAll(other.spills);
+			other.spills.clear();
+			for (Map.Entry<String, Lists> entry : columns.entrySet()) {
+				entry.getValue().bytes += other.columns.get(entry.getKey()).bytes;
+			}
+			lines += other.lines;
+			first = lines;
+			dropLarge();
+		}
+
+		private void dropLarge() {
+			columns.values().removeIf(lists -> lists.bytes > MIN_DROP && lists.bytes > (long) BYTES_PER_LINE * lines);
+		}
+
+		/**
+		 * Merges the runs into file, replacing it once written, as the index being updated may be read from it.
+		 */
+		TrigramIndex build(File file) throws IOException {
+			spill();
+			final File temp = new File(file.getAbsolutePath() + ".tmp");
+			final Map<File, FileChannel> channels = new HashMap<>();
+			try {
+				for (File spilled : spills) channels.put(spilled, FileChannel.open(spilled.toPath(), StandardOpenOption.READ));
+				try (FileOutputStream stream = new FileOutputStream(temp);
+				     DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+					output.writeInt(MAGIC);
+					output.writeInt(VERSION);
+					output.writeInt(lines);
+					output.writeLong(0);
+					final Map<String, Merged> merged = new LinkedHashMap<>();
+					long position = 0;
+					for (String key : columns.keySet()) {
+						final Merged column = new Merged();
+						position = merge(key, channels, output, position, column);
+						merged.put(key, column);
+					}
+					output.writeInt(merged.size());
+					for (Map.Entry<String, Merged> entry : merged.entrySet()) {
+						VcfIndex.writeString(output, entry.getKey());
+						final Merged column = entry.getValue();
+						output.writeInt(column.size);
+						for (int i = 0; i < column.size; i++) output.writeInt(column.trigrams[i]);
+						for (int i = 0; i <= column.size; i++) output.writeLong(column.positions[i]);
+					}
+					output.flush();
+					stream.getChannel().write(ByteBuffer.allocate(Long.BYTES).putLong(0, HEADER_SIZE + position), 3 * Integer.BYTES);
+				}
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				for (FileChannel channel : channels.values()) channel.close();
+				temp.delete();
+			}
+			return read(file);
+		}
+
+		/**
+		 * Writes the lists of column key of every run, joining the lists of the same trigram in file order.
+		 *
+		 * @param position position in the postings of the first list
+		 * @return position after the last list
+		 */
+		private long merge(String key, Map<File, FileChannel> channels, DataOutputStream output, long position, Merged column) throws IOException {
+			final PriorityQueue<Cursor> queue = new PriorityQueue<>(Comparator.<Cursor>comparingInt(cursor -> cursor.trigram).thenComparingInt(cursor -> cursor.order));
+			for (int i = 0; i < runs.size(); i++) {
+				final Cursor cursor = runs.get(i).cursor(key, channels, i);
+				if (cursor != null && cursor.next()) queue.add(cursor);
+			}
+			final List<Cursor> parts = new ArrayList<>();
+			final byte[] gap = new byte[5];
+			while (!queue.isEmpty()) {
+				final int trigram = queue.peek().trigram;
+				parts.clear();
+				int count = 0;
+				while (!queue.isEmpty() && queue.peek().trigram == trigram) {
+					parts.add(queue.poll());
+					count += parts.get(parts.size() - 1).count;
+				}
+				final Cursor last = parts.get(parts.size() - 1);
+				column.add(trigram, position);
+				output.writeInt(count);
+				output.writeInt(last.base + last.last);
+				position += LIST_HEADER;
+				int previous = -1;
+				for (Cursor part : parts) {
+					position += part.write(output, previous, gap);
+					previous = part.base + part.last;
+					if (part.next()) queue.add(part);
+				}
+			}
+			column.end(position);
+			return position;
+		}
+
+		/**
+		 * Deletes the spill files.
+		 */
+		@Override
+		public void close() {
+			spills.forEach(File::delete);
+			spills.clear();
+		}
+	}
+
+	/**
+	 * Trigrams and positions of a column while merging.
+	 */
+	private static class Merged {
+
+		private int[] trigrams = new int[64];
+		private long[] positions = new long[65];
+		private int size;
+
+		private void add(int trigram, long position) {
+			if (size == trigrams.length) {
+				trigrams = Arrays.copyOf(trigrams, 2 * size);
+				positions = Arrays.copyOf(positions, 2 * size + 1);
+			}
+			trigrams[size] = trigram;
+			positions[size++] = position;
+		}
+
+		private void end(long position) {
+			positions[size] = position;
+		}
+	}
+}
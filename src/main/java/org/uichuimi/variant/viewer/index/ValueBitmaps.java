@@ -0,0 +1,382 @@
+package org.uichuimi.variant.viewer.index;
+
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import org.uichuimi.variant.viewer.components.Accessor;
+import org.uichuimi.variant.viewer.filter.AttributeFilter;
+import org.uichuimi.variant.viewer.filter.Field;
+import org.uichuimi.variant.viewer.filter.Operator;
+import org.uichuimi.variant.viewer.utils.BitUtils;
+import org.uichuimi.variant.viewer.utils.Constants;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Inverted index of the categorical fields of a VCF file: CHROM, FILTER and the text INFO fields with few distinct
+ * values. For every value of a field, it stores the ordinals of the lines with that value, and for every field the
+ * ordinals of the lines without value. Ordinals are split in chunks of 2^16, as in Roaring, and each chunk is stored
+ * as the smallest {@link SparseBitmap} container.
+ * <p>
+ * The bitmaps of an equality filter are a superset of the lines that pass it, as filters compare values ignoring case
+ * and htsjdk may see a value differently than the raw line. Lines in the bitmap must still be decoded and filtered.
+ * Lines are located by ordinal with the {@link LineOffsets} of the file.
+ */
+public class ValueBitmaps {
+
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_WORDS = 1 << (CHUNK_BITS - 6);
+	private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+	private final int lines;
+	private final Map<String, Column> columns;
+	private final ByteBuffer containers;
+
+	private ValueBitmaps(int lines, Map<String, Column> columns, ByteBuffer containers) {
+		this.lines = lines;
+		this.columns = columns;
+		this.containers = containers;
+	}
+
+	/**
+	 * @return true if the lines passing filter can be looked up in the bitmaps
+	 */
+	public boolean supports(AttributeFilter filter) {
+		return columns.containsKey(VcfIndex.key(filter.getField()))
+			&& filter.getOperator() == Operator.TEXT_EQUAL
+			&& (filter.getValue() instanceof String || filter.getValue() instanceof Collection)
+			&& !(filter.getField().isList() && filter.getAccessor() == Accessor.NONE);
+	}
+
+	/**
+	 * @return true if column key has bitmaps, so it has no more values than the limit
+	 */
+	boolean contains(String key) {
+		return columns.containsKey(key);
+	}
+
+	/**
+	 * Sets in target the ordinals of the lines that may pass filter: the lines with any of the values of the filter,
+	 * and the lines without value if the filter is not strict.
+	 *
+	 * @param filter a filter {@link #supports(AttributeFilter) supported} by these bitmaps
+	 * @param target bitset with a bit for every line of the file
+	 */
+	public void or(AttributeFilter filter, long[] target) {
+		final Column column = columns.get(VcfIndex.key(filter.getField()));
+		final Collection<?> selected = filter.getValue() instanceof Collection
+			? (Collection<?>) filter.getValue()
+			: List.of(filter.getValue());
+		column.values.forEach((value, bitmap) -> {
+			for (Object option : selected) {
+				if (value.equalsIgnoreCase(String.valueOf(option))) {
+					or(bitmap, target);
+					break;
+				}
+			}
+		});
+		if (!filter.isStrict()) or(column.missing, target);
+	}
+
+	private void or(Bitmap bitmap, long[] target) {
+		for (int i = 0; i < bitmap.size; i++) {
+			SparseBitmap.or(containers, bitmap.positions[i], target, bitmap.chunks[i] << CHUNK_BITS);
+		}
+	}
+
+	/**
+	 * Calls consumer with the ordinals of bitmap, shifted by base, that fall in chunk of the shifted ordinals.
+	 */
+	private void forEach(Bitmap bitmap, int base, int chunk, IntConsumer consumer) {
+		for (int i = 0; i < bitmap.size; i++) {
+			final int start = base + (bitmap.chunks[i] << CHUNK_BITS);
+			if (start >>> CHUNK_BITS > chunk || (start + CHUNK_MASK) >>> CHUNK_BITS < chunk) continue;
+			SparseBitmap.forEach(containers, bitmap.positions[i], value -> {
+				if ((start + value) >>> CHUNK_BITS == chunk) consumer.accept(start + value);
+			});
+		}
+	}
+
+	void write(DataOutputStream output) throws IOException {
+		output.writeInt(lines);
+		output.writeInt(columns.size());
+		for (Map.Entry<String, Column> entry : columns.entrySet()) {
+			VcfIndex.writeString(output, entry.getKey());
+			entry.getValue().missing.write(output);
+			output.writeInt(entry.getValue().values.size());
+			for (Map.Entry<String, Bitmap> value : entry.getValue().values.entrySet()) {
+				VcfIndex.writeString(output, value.getKey());
+				value.getValue().write(output);
+			}
+		}
+		final byte[] bytes = new byte[containers.limit()];
+		containers.get(0, bytes);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	static ValueBitmaps read(ByteBuffer buffer) {
+		final int lines = buffer.getInt();
+		final int size = buffer.getInt();
+		final Map<String, Column> columns = new HashMap<>();
+		for (int c = 0; c < size; c++) {
+			final String key = VcfIndex.readString(buffer);
+			final Column column = new Column(Bitmap.read(buffer));
+			final int values = buffer.getInt();
+			for (int v = 0; v < values; v++) column.values.put(VcfIndex.readString(buffer), Bitmap.read(buffer));
+			columns.put(key, column);
+		}
+		final int length = buffer.getInt();
+		// Containers are read in place
+		final ByteBuffer containers = buffer.slice().limit(length);
+		return new ValueBitmaps(lines, columns, containers);
+	}
+
+	private static class Column {
+
+		private final Bitmap missing;
+		private final Map<String, Bitmap> values = new LinkedHashMap<>();
+
+		private Column(Bitmap missing) {
+			this.missing = missing;
+		}
+	}
+
+	/**
+	 * Containers of the chunks of a bitmap, in chunk order.
+	 */
+	private static class Bitmap {
+
+		private int[] chunks;
+		private int[] positions;
+		private int size;
+		/**
+		 * Bits of the current chunk, while building
+		 */
+		private long[] words;
+
+		private Bitmap(int capacity) {
+			chunks = new int[capacity];
+			positions = new int[capacity];
+		}
+
+		private void add(int chunk, int position) {
+			if (size == chunks.length) {
+				chunks = Arrays.copyOf(chunks, 2 * size + 1);
+				positions = Arrays.copyOf(positions, 2 * size + 1);
+			}
+			chunks[size] = chunk;
+			positions[size++] = position;
+		}
+
+		private void write(DataOutputStream output) throws IOException {
+			output.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				output.writeInt(chunks[i]);
+				output.writeInt(positions[i]);
+			}
+		}
+
+		private static Bitmap read(ByteBuffer buffer) {
+			final int size = buffer.getInt();
+			final Bitmap bitmap = new Bitmap(size);
+			for (int i = 0; i < size; i++) bitmap.add(buffer.getInt(), buffer.getInt());
+			return bitmap;
+		}
+	}
+
+	/**
+	 * Builds the bitmaps of a file from its lines, in file order. The bits of the current chunk are kept in plain
+	 * words, and encoded when the lines reach the next chunk. A text INFO field is dropped when it has more distinct
+	 * values than the limit.
+	 */
+	static class Builder {
+
+		private final int limit;
+		private final Map<String, Column> columns = new LinkedHashMap<>();
+		private final List<String> infoKeys = new ArrayList<>();
+		private final List<Bitmap> touched = new ArrayList<>();
+		private final String chromKey = VcfIndex.key(Field.Category.STANDARD, Constants.CHROM);
+		private final String filterKey = VcfIndex.key(Field.Category.STANDARD, Constants.FILTER);
+		private ByteBuffer containers = ByteBuffer.allocate(1 << 16);
+		private int lines;
+		private int chunk;
+
+		/**
+		 * @param limit maximum number of distinct values of a text INFO field
+		 */
+		Builder(VCFHeader header, int limit) {
+			this.limit = limit;
+			columns.put(chromKey, new Column(new Bitmap(1)));
+			columns.put(filterKey, new Column(new Bitmap(1)));
+			for (VCFInfoHeaderLine line : header.getInfoHeaderLines()) {
+				if (line.getType() == VCFHeaderLineType.String) {
+					infoKeys.add(line.getID());
+					columns.put(VcfIndex.key(Field.Category.INFO, line.getID()), new Column(new Bitmap(1)));
+				}
+			}
+		}
+
+		/**
+		 * @return text INFO keys, whose values are read from lines
+		 */
+		List<String> getInfoKeys() {
+			return infoKeys;
+		}
+
+		void add(VcfLine line) {
+			final int ordinal = next(lines++);
+			add(chromKey, line.getContig(), ordinal);
+			final Set<String> filters = line.getFilters();
+			if (filters.isEmpty()) missing(filterKey, ordinal);
+			else for (String filter : filters) add(filterKey, filter, ordinal);
+			for (String key : infoKeys) {
+				final String columnKey = VcfIndex.key(Field.Category.INFO, key);
+				final String value = line.getInfo(key);
+				// htsjdk may see "." as a missing value too
+				if (value == null || value.equals(".")) missing(columnKey, ordinal);
+				if (value == null) continue;
+				// As the value counts, lists are split by comma and keys without value are true
+				if (value.isEmpty()) add(columnKey, "true", ordinal);
+				else for (String val : value.split(",")) add(columnKey, val, ordinal);
+			}
+		}
+
+		/**
+		 * Encodes the current chunk when ordinal belongs to the next one.
+		 */
+		private int next(int ordinal) {
+			if (ordinal >>> CHUNK_BITS != chunk) {
+				flush();
+				chunk = ordinal >>> CHUNK_BITS;
+			}
+			return ordinal;
+		}
+
+		private void add(String key, String value, int ordinal) {
+			final Bitmap bitmap = bitmap(key, value);
+			if (bitmap != null) set(bitmap, ordinal);
+		}
+
+		/**
+		 * @return the bitmap of value in column key, created if value is new, or null if the column is dropped
+		 */
+		private Bitmap bitmap(String key, String value) {
+			final Column column = columns.get(key);
+			if (column == null) return null;
+			Bitmap bitmap = column.values.get(value);
+			if (bitmap == null) {
+				if (!key.equals(chromKey) && !key.equals(filterKey) && column.values.size() >= limit) {
+					columns.remove(key);
+					return null;
+				}
+				bitmap = new Bitmap(1);
+				column.values.put(value, bitmap);
+			}
+			return bitmap;
+		}
+
+		private void missing(String key, int ordinal) {
+			final Column column = columns.get(key);
+			if (column != null) set(column.missing, ordinal);
+		}
+
+		private void set(Bitmap bitmap, int ordinal) {
+			if (bitmap.words == null) {
+				bitmap.words = new long[CHUNK_WORDS];
+				touched.add(bitmap);
+			}
+			BitUtils.set(bitmap.words, ordinal & CHUNK_MASK);
+		}
+
+		private void flush() {
+			for (Bitmap bitmap : touched) {
+				int length = CHUNK_WORDS;
+				while (bitmap.words[length - 1] == 0) length--;
+				reserve(SparseBitmap.encodedSize(bitmap.words, 0, length));
+				bitmap.add(chunk, containers.position());
+				SparseBitmap.write(bitmap.words, 0, length, containers);
+				bitmap.words = null;
+			}
+			touched.clear();
+		}
+
+		private void reserve(int size) {
+			if (containers.remaining() < size) {
+				final ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * containers.capacity(), containers.position() + size));
+				grown.put(containers.flip());
+				containers = grown;
+			}
+		}
+
+		/**
+		 * Appends the bitmaps of the lines that follow in the file, such as the ones of another partition, or precedes
+		 * them, as the bitmaps of a file that has grown. A field dropped in other is dropped here too.
+		 */
+		void append(ValueBitmaps other) {
+			columns.keySet().retainAll(other.columns.keySet());
+			final int base = lines;
+			lines += other.lines;
+			if (other.lines == 0) return;
+			final int last = (lines - 1) >>> CHUNK_BITS;
+			int target = base >>> CHUNK_BITS;
+			if ((base & CHUNK_MASK) == 0) {
+				// Chunks of other are chunks of this, as when resuming, so their containers are copied as they are. The
+				// last one may be partial, so it is decoded to add the lines that follow
+				next(base);
+				copy(other, target, last);
+				target = last;
+			}
+			// Otherwise chunks of other may straddle two chunks of this, so they are added chunk by chunk of this
+			for (; target <= last; target++) append(other, base, target);
+		}
+
+		/**
+		 * Copies the containers of the chunks of other before chunk end, shifted by shift chunks.
+		 */
+		private void copy(ValueBitmaps other, int shift, int end) {
+			for (Map.Entry<String, Column> entry : other.columns.entrySet()) {
+				final String key = entry.getKey();
+				final Column column = columns.get(key);
+				if (column == null) continue;
+				copy(other, entry.getValue().missing, column.missing, shift, end);
+				for (Map.Entry<String, Bitmap> value : entry.getValue().values.entrySet()) {
+					if (value.getValue().size == 0 || value.getValue().chunks[0] + shift >= end) continue;
+					final Bitmap bitmap = bitmap(key, value.getKey());
+					if (bitmap == null) break;
+					copy(other, value.getValue(), bitmap, shift, end);
+				}
+			}
+		}
+
+		private void copy(ValueBitmaps other, Bitmap source, Bitmap target, int shift, int end) {
+			for (int i = 0; i < source.size && source.chunks[i] + shift < end; i++) {
+				final int position = source.positions[i];
+				final int size = SparseBitmap.size(other.containers, position);
+				reserve(size);
+				target.add(source.chunks[i] + shift, containers.position());
+				containers.put(other.containers.duplicate().position(position).limit(position + size));
+			}
+		}
+
+		private void append(ValueBitmaps other, int base, int target) {
+			next(target << CHUNK_BITS);
+			for (Map.Entry<String, Column> entry : other.columns.entrySet()) {
+				final String key = entry.getKey();
+				other.forEach(entry.getValue().missing, base, target, ordinal -> missing(key, ordinal));
+				entry.getValue().values.forEach((value, bitmap) ->
+					other.forEach(bitmap, base, target, ordinal -> add(key, value, ordinal)));
+			}
+		}
+
+		ValueBitmaps build() {
+			flush();
+			final ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(containers.array(), containers.position()));
+			return new ValueBitmaps(lines, columns, buffer);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package org.uichuimi.variant.viewer.index;
+
+import org.uichuimi.variant.viewer.utils.HyperLogLog;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Distinct values of a field of a VCF file. Every value is added to a {@link HyperLogLog} sketch, so the number of
+ * distinct values is always known, at least approximately. Values are also counted in a dictionary, in order of
+ * appearance, while there are no more than a limit of them. Past the limit the field is not categorical, the dictionary
+ * is dropped and new values only cost a hash.
+ */
+public class ValueCounts {
+
+	private static final int PRECISION = 12;
+
+	private final int limit;
+	private final HyperLogLog sketch;
+	private Map<String, long[]> counts = new LinkedHashMap<>();
+
+	/**
+	 * @param limit maximum number of distinct values of a categorical field
+	 */
+	ValueCounts(int limit) {
+		this.limit = limit;
+		this.sketch = new HyperLogLog(PRECISION);
+	}
+
+	private ValueCounts(int limit, HyperLogLog sketch, Map<String, long[]> counts) {
+		this.limit = limit;
+		this.sketch = sketch;
+		this.counts = counts;
+	}
+
+	void add(String value) {
+		sketch.add(value);
+		if (counts == null) return;
+		final long[] count = counts.get(value);
+		if (count != null) count[0]++;
+		else if (counts.size() < limit) counts.put(value, new long[]{1});
+		else counts = null;
+	}
+
+	/**
+	 * Adds the values of another part of the same file. Parts must be merged in file order, so values keep their order
+	 * of appearance.
+	 */
+	void merge(ValueCounts other) {
+		sketch.merge(other.sketch);
+		if (counts == null) return;
+		if (other.counts == null) {
+			counts = null;
+			return;
+		}
+		other.counts.forEach((value, count) -> counts.computeIfAbsent(value, v -> new long[1])[0] += count[0]);
+		if (counts.size() > limit) counts = null;
+	}
+
+	/**
+	 * @return true if the field has few enough distinct values to be counted one by one
+	 */
+	public boolean isCategorical() {
+		return counts != null;
+	}
+
+	/**
+	 * @return number of distinct values, exact for categorical fields, estimated otherwise
+	 */
+	public long getCardinality() {
+		return counts != null ? counts.size() : sketch.estimate();
+	}
+
+	/**
+	 * @return occurrences of each value, in order of appearance, or an empty map if the field is not categorical
+	 */
+	public Map<String, Long> getCounts() {
+		if (counts == null) return Collections.emptyMap();
+		final Map<String, Long> rtn = new LinkedHashMap<>();
+		counts.forEach((value, count) -> rtn.put(value, count[0]));
+		return rtn;
+	}
+
+	/**
+	 * Writes the sketch too, so counting can be resumed when the file grows.
+	 */
+	void write(DataOutputStream output) throws IOException {
+		output.writeInt(limit);
+		output.writeInt(sketch.getRegisters().length);
+		output.write(sketch.getRegisters());
+		output.writeBoolean(counts != null);
+		if (counts == null) return;
+		output.writeInt(counts.size());
+		for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+			VcfIndex.writeString(output, entry.getKey());
+			output.writeLong(entry.getValue()[0]);
+		}
+	}
+
+	static ValueCounts read(ByteBuffer buffer) {
+		final int limit = buffer.getInt();
+		final byte[] registers = new byte[buffer.getInt()];
+		buffer.get(registers);
+		final HyperLogLog sketch = new HyperLogLog(registers);
+		if (buffer.get() == 0) return new ValueCounts(limit, sketch, null);
+		final int size = buffer.getInt();
+		final Map<String, long[]> counts = new LinkedHashMap<>();
+		for (int i = 0; i < size; i++) counts.put(VcfIndex.readString(buffer), new long[]{buffer.getLong()});
+		return new ValueCounts(limit, sketch, counts);
+	}
+}
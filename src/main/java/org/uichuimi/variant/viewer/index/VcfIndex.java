@@ -1,30 +1,622 @@
 package org.uichuimi.variant.viewer.index;
 
+import htsjdk.tribble.Tribble;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLine;
+import org.uichuimi.variant.viewer.filter.AttributeFilter;
 import org.uichuimi.variant.viewer.filter.Field;
 
-import java.io.Serial;
-import java.io.Serializable;
-import java.util.List;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
 
-public class VcfIndex implements Serializable {
+/**
+ * Index of a VCF file, stored in a binary file with extension {@link #EXTENSION}, next to the file or in an
+ * {@link IndexCache}:
+ * <pre>
+ * header   : magic, version, source size, source modification time, SHA-256 of the VCF header
+ * sections : number of sections, and for each section its name, offset and length
+ * fields   : for each field, its category, type, list flag and name
+ * options  : for each field, its options
+ * stats    : number of variants, file pointer after the last line indexed, file pointer of the first line of the last
+ *            window of the genotype archive, length of the archive, SHA-256 of the last indexed bytes of the source
+ *            and whether the last line indexed ended with a line break
+ * archive  : name of the genotype archive, in the directory of the index, empty if there is none
+ * ids      : number of layers of the {@link IdIndex}, none if there is no index, and for each layer, from the bottom,
+ *            the name of its file, in the directory of the index, and its length
+ * zones    : the {@link ZoneMap} of the file
+ * blooms   : name of the file of the {@link BloomFilters} of the zone map, in the directory of the index, and its length
+ * values   : the {@link ValueCounts} of the text fields
+ * numbers  : the {@link Distribution} of QUAL and the numeric INFO fields
+ * bitmaps  : the {@link ValueBitmaps} of the categorical fields
+ * trigrams : name of the file of the {@link TrigramIndex} of the text fields, in the directory of the index, and its
+ *            length
+ * offsets  : the {@link LineOffsets} of the file
+ * </pre>
+ * Each section is memory mapped on load. Fields are read when the index is opened, but the options of a field are only
+ * read the first time they are requested, and the other sections the first time they are needed. An index whose
+ * version does not match, or whose source has changed, is not loaded, so it is rebuilt. If lines have only been appended
+ * to the source, the index can be {@link #loadAppended(File, File) loaded} to be updated from the last line indexed.
+ */
+public class VcfIndex {
 
-	@Serial
-	private static final long serialVersionUID = 3192814140848325947L;
+	static final String EXTENSION = ".vcf-index";
+	private static final int MAGIC = 0x56435849;
+	private static final int VERSION = 16;
+	private static final int TAIL_SIZE = 1 << 16;
+	private static final int DIGEST_SIZE = 32;
+	private static final String FIELDS = "fields";
+	private static final String OPTIONS = "options";
+	private static final String STATS = "stats";
+	private static final String ARCHIVE = "archive";
+	private static final String IDS = "ids";
+	private static final String ZONES = "zones";
+	private static final String BLOOMS = "blooms";
+	private static final String VALUES = "values";
+	private static final String NUMBERS = "numbers";
+	private static final String BITMAPS = "bitmaps";
+	private static final String TRIGRAMS = "trigrams";
+	private static final String OFFSETS = "offsets";
 
 	private final List<Field> fields;
-	private final long lineCount;
+	private final GtBitsetArchive archive;
+	private Map<String, MappedBytes> sections;
+	private Long lineCount;
+	private long endPointer;
+	private long archivePointer;
+	private long archiveLength;
+	/**
+	 * Lengths of the layers of the ID index, from the bottom, when the index was saved
+	 */
+	private long[] idIndexLengths;
+	private File trigramFile;
+	/**
+	 * Length of the trigram index when the index was saved
+	 */
+	private long trigramLength;
+	private File bloomFile;
+	/**
+	 * Length of the Bloom filters when the index was saved
+	 */
+	private long bloomLength;
+	private byte[] tailDigest;
+	private boolean terminated = true;
+	private long sourceSize = -1;
+	private long sourceModified;
+	private ZoneMap zoneMap;
+	private BloomFilters bloomFilters;
+	private Map<String, ValueCounts> valueCounts;
+	private Map<String, Distribution> distributions;
+	private ValueBitmaps valueBitmaps;
+	private TrigramIndex trigramIndex;
+	private LineOffsets lineOffsets;
+	private IdIndex idIndex;
+	/**
+	 * Path of the index files without their extensions. May be null before the index is saved
+	 */
+	private File base;
 
-	public VcfIndex(final List<Field> fields, final long lineCount) {
+	public VcfIndex(final List<Field> fields, final long lineCount, final GtBitsetArchive archive, final ZoneMap zoneMap, final Map<String, ValueCounts> valueCounts, final Map<String, Distribution> distributions, final ValueBitmaps valueBitmaps, final LineOffsets lineOffsets) {
 		this.fields = fields;
 		this.lineCount = lineCount;
+		this.archive = archive;
+		this.zoneMap = zoneMap;
+		this.valueCounts = valueCounts;
+		this.distributions = distributions;
+		this.valueBitmaps = valueBitmaps;
+		this.lineOffsets = lineOffsets;
+	}
+
+	private VcfIndex(Map<String, MappedBytes> sections, File base) {
+		this.sections = sections;
+		this.base = base;
+		this.fields = readFields();
+		final String archive = readString(section(ARCHIVE));
+		this.archive = archive.isEmpty() ? null : new GtBitsetArchive(new File(base.getParentFile(), archive));
+		final ByteBuffer ids = section(IDS);
+		idIndexLengths = new long[ids.getInt()];
+		for (int i = 0; i < idIndexLengths.length; i++) {
+			idIndex = new IdIndex(new File(base.getParentFile(), readString(ids)), idIndex);
+			idIndexLengths[i] = ids.getLong();
+		}
+		final ByteBuffer trigrams = section(TRIGRAMS);
+		trigramFile = new File(base.getParentFile(), readString(trigrams));
+		trigramLength = trigrams.getLong();
+		final ByteBuffer blooms = section(BLOOMS);
+		bloomFile = new File(base.getParentFile(), readString(blooms));
+		bloomLength = blooms.getLong();
 	}
 
 	public List<Field> getFields() {
 		return fields;
 	}
 
-	public long getLineCount() {
+	public synchronized long getLineCount() {
+		if (lineCount == null) readStats();
 		return lineCount;
 	}
 
+	/**
+	 * @return file pointer after the last line indexed, where indexing is resumed
+	 */
+	synchronized long getEndPointer() {
+		if (lineCount == null) readStats();
+		return endPointer;
+	}
+
+	/**
+	 * @return file pointer of the first line of the last window of the genotype archive, which is built again when
+	 * indexing is resumed
+	 */
+	synchronized long getArchivePointer() {
+		if (lineCount == null) readStats();
+		return archivePointer;
+	}
+
+	/**
+	 * Sets the part of the source covered by this index.
+	 *
+	 * @param size           size of the source when indexing started
+	 * @param modified       modification time of the source when indexing started
+	 * @param endPointer     file pointer after the last line indexed
+	 * @param archivePointer file pointer of the first line of the last window of the genotype archive
+	 * @param terminated     false if the last line indexed had no line break, so it may have been partly written
+	 */
+	void setSource(long size, long modified, long endPointer, long archivePointer, boolean terminated) {
+		this.sourceSize = size;
+		this.sourceModified = modified;
+		this.endPointer = endPointer;
+		this.archivePointer = archivePointer;
+		this.terminated = terminated;
+	}
+
+	private void readStats() {
+		final ByteBuffer stats = section(STATS);
+		lineCount = stats.getLong();
+		endPointer = stats.getLong();
+		archivePointer = stats.getLong();
+		archiveLength = stats.getLong();
+		tailDigest = new byte[DIGEST_SIZE];
+		stats.get(tailDigest);
+		terminated = stats.get() != 0;
+	}
+
+	public synchronized ZoneMap getZoneMap() {
+		if (zoneMap == null) zoneMap = ZoneMap.read(section(ZONES), getBloomFilters());
+		return zoneMap;
+	}
+
+	synchronized BloomFilters getBloomFilters() {
+		if (bloomFilters == null) bloomFilters = BloomFilters.read(bloomFile);
+		return bloomFilters;
+	}
+
+	synchronized void setBloomFilters(BloomFilters bloomFilters) {
+		this.bloomFilters = bloomFilters;
+		if (zoneMap != null) zoneMap = zoneMap.withBlooms(bloomFilters);
+	}
+
+	public synchronized ValueBitmaps getValueBitmaps() {
+		if (valueBitmaps == null) valueBitmaps = ValueBitmaps.read(section(BITMAPS));
+		return valueBitmaps;
+	}
+
+	public synchronized TrigramIndex getTrigramIndex() {
+		if (trigramIndex == null) trigramIndex = TrigramIndex.read(trigramFile);
+		return trigramIndex;
+	}
+
+	void setTrigramIndex(TrigramIndex trigramIndex) {
+		this.trigramIndex = trigramIndex;
+	}
+
+	public synchronized LineOffsets getLineOffsets() {
+		if (lineOffsets == null) lineOffsets = LineOffsets.read(sections.get(OFFSETS));
+		return lineOffsets;
+	}
+
+	/**
+	 * @return the distinct values of field, or null if they were not counted, as for numeric fields
+	 */
+	public ValueCounts getValueCounts(Field field) {
+		return getValueCounts(key(field));
+	}
+
+	synchronized ValueCounts getValueCounts(String key) {
+		if (valueCounts == null) valueCounts = readValueCounts();
+		return valueCounts.get(key);
+	}
+
+	/**
+	 * @return the distribution of the values of field, or null if it is not QUAL or a numeric INFO field
+	 */
+	public Distribution getDistribution(Field field) {
+		return getDistribution(key(field));
+	}
+
+	synchronized Distribution getDistribution(String key) {
+		if (distributions == null) distributions = readDistributions();
+		return distributions.get(key);
+	}
+
+	/**
+	 * @return predicted number of lines passing filter, or -1 if it cannot be predicted, as for filters on text fields
+	 */
+	public long estimate(AttributeFilter filter) {
+		if (!(filter.getValue() instanceof Number)) return -1;
+		final Distribution distribution = getDistribution(filter.getField());
+		return distribution == null ? -1 : distribution.estimate(filter);
+	}
+
+	/**
+	 * @return the index of the IDs of the file, or null if the file was indexed without it
+	 */
+	public IdIndex getIdIndex() {
+		return idIndex;
+	}
+
+	void setIdIndex(IdIndex idIndex) {
+		this.idIndex = idIndex;
+	}
+
+	/**
+	 * @return the genotype archive of the file, or null if the file has no genotypes or was indexed without it
+	 */
+	public GtBitsetArchive getArchive() {
+		return archive;
+	}
+
+	/**
+	 * @return the tabix index of the file stored with this index, which may not exist, or null if the index is not saved
+	 */
+	public File getTabixFile() {
+		return base == null ? null : Tribble.tabixIndexFile(base);
+	}
+
+	/**
+	 * @param base path of the index files, without extension, such as the path of the VCF file
+	 * @return the index file
+	 */
+	static File getIndexFile(File base) {
+		return new File(base.getAbsolutePath() + EXTENSION);
+	}
+
+	/**
+	 * Loads the index of a VCF file. The index is up to date when the size and modification time of the file match the
+	 * ones recorded, so an index is not used for a copy of the file, which may have been edited.
+	 *
+	 * @param vcf indexed file
+	 * @return the index, or null if there is no index, it has another version or the file has changed since it was
+	 * indexed
+	 */
+	public static VcfIndex load(File vcf) {
+		return open(vcf, vcf, Check.CURRENT);
+	}
+
+	/**
+	 * Loads the index stored in base of a file with the same content as vcf, such as an {@link IndexCache} entry found
+	 * by the fingerprint of vcf. The modification time is not compared, but the size, the digest of the header and the
+	 * digest of the last bytes of vcf must match the ones recorded.
+	 *
+	 * @param base path of the index files, without extension
+	 * @return the index, or null if there is no index, it has another version or the content of vcf does not match
+	 */
+	static VcfIndex loadCopy(File vcf, File base) {
+		return open(vcf, base, Check.COPY);
+	}
+
+	/**
+	 * Loads the index of a VCF file that has grown since it was indexed, so the index can be updated with the lines
+	 * appended. The file must have the same header, the last bytes indexed must not have changed, and the last line
+	 * indexed must have had a line break, as otherwise it may have been indexed while it was being written.
+	 *
+	 * @param vcf indexed file
+	 * @return the index, or null if there is no index, or the file has not grown only by appending lines
+	 */
+	static VcfIndex loadAppended(File vcf, File base) {
+		return open(vcf, base, Check.APPENDED);
+	}
+
+	private static VcfIndex open(File vcf, File base, Check check) {
+		final File indexFile = getIndexFile(base);
+		if (!indexFile.exists()) return null;
+		try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+			final DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			if (channel.size() < 2 * Integer.BYTES || input.readInt() != MAGIC || input.readInt() != VERSION) return null;
+			final long size = input.readLong();
+			final long modified = input.readLong();
+			final byte[] digest = new byte[DIGEST_SIZE];
+			input.readFully(digest);
+			switch (check) {
+				case CURRENT -> {
+					if (size != vcf.length() || modified != vcf.lastModified()) return null;
+				}
+				case COPY -> {
+					if (size != vcf.length() || !Arrays.equals(digest, headerDigest(vcf))) return null;
+				}
+				case APPENDED -> {
+					if (size >= vcf.length() || !Arrays.equals(digest, headerDigest(vcf))) return null;
+				}
+			}
+			// Sections are mapped one by one, so the index is not limited by the size of a buffer
+			final Map<String, MappedBytes> sections = new HashMap<>();
+			final int count = input.readInt();
+			for (int i = 0; i < count; i++) {
+				final byte[] name = new byte[input.readUnsignedShort()];
+				input.readFully(name);
+				sections.put(new String(name, StandardCharsets.UTF_8), MappedBytes.map(channel, input.readLong(), input.readLong()));
+			}
+			final VcfIndex index = new VcfIndex(sections, base);
+			// The trigram index and Bloom filters are replaced before the index is saved, so they may be newer after an
+			// interrupted update
+			if (index.trigramFile.length() != index.trigramLength) return null;
+			if (index.bloomFile.length() != index.bloomLength) return null;
+			if (check != Check.CURRENT) {
+				index.readStats();
+				if (!Arrays.equals(index.tailDigest, tailDigest(vcf, size))) return null;
+			}
+			if (check == Check.APPENDED) {
+				// The rest of a partly written last line would be indexed as a line of its own
+				if (!index.terminated) return null;
+				index.sourceSize = size;
+				// An archive or ID index that does not match the index, as after an interrupted update, is built again
+				if (index.archive != null && index.archive.getFile().length() != index.archiveLength) return null;
+				int layer = index.idIndexLengths.length;
+				for (IdIndex ids = index.idIndex; ids != null; ids = ids.getPrevious()) {
+					if (ids.getFile().length() != index.idIndexLengths[--layer]) return null;
+				}
+			}
+			return index;
+		} catch (IOException | RuntimeException e) {
+			// A truncated or corrupted index is rebuilt
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Writes this index. The genotype archive and ID index must be in the same directory.
+	 *
+	 * @param vcf    indexed file
+	 * @param base   path of the index files, without extension
+	 * @param header header of the file
+	 */
+	void save(File vcf, File base, VCFHeader header) throws IOException {
+		final Map<String, SectionWriter> sections = new LinkedHashMap<>();
+		final ByteArrayOutputStream options = new ByteArrayOutputStream();
+		final DataOutputStream optionsOutput = new DataOutputStream(options);
+		sections.put(FIELDS, output -> {
+			output.writeInt(fields.size());
+			for (Field field : fields) {
+				output.writeByte(field.getCategory().ordinal());
+				output.writeByte(field.getType().ordinal());
+				output.writeBoolean(field.isList());
+				writeString(output, field.getName());
+				output.writeInt(options.size());
+				optionsOutput.writeInt(field.getOptions().size());
+				for (String option : field.getOptions()) writeString(optionsOutput, option);
+			}
+		});
+		sections.put(OPTIONS, output -> output.write(options.toByteArray()));
+		final long size = sourceSize < 0 ? vcf.length() : sourceSize;
+		final long modified = sourceSize < 0 ? vcf.lastModified() : sourceModified;
+		sections.put(STATS, output -> {
+			output.writeLong(getLineCount());
+			output.writeLong(getEndPointer());
+			output.writeLong(getArchivePointer());
+			output.writeLong(archive == null ? 0 : archive.getFile().length());
+			output.write(tailDigest(vcf, size));
+			output.writeBoolean(terminated);
+		});
+		sections.put(ARCHIVE, output -> writeString(output, archive == null ? "" : archive.getFile().getName()));
+		sections.put(IDS, output -> {
+			final Deque<IdIndex> layers = new ArrayDeque<>();
+			for (IdIndex layer = idIndex; layer != null; layer = layer.getPrevious()) layers.push(layer);
+			output.writeInt(layers.size());
+			for (IdIndex layer : layers) {
+				writeString(output, layer.getFile().getName());
+				output.writeLong(layer.getFile().length());
+			}
+		});
+		sections.put(ZONES, output -> getZoneMap().write(output));
+		sections.put(BLOOMS, output -> {
+			final File blooms = getBloomFilters().getFile();
+			writeString(output, blooms.getName());
+			output.writeLong(blooms.length());
+		});
+		sections.put(VALUES, output -> {
+			if (valueCounts == null) valueCounts = readValueCounts();
+			output.writeInt(valueCounts.size());
+			for (Map.Entry<String, ValueCounts> entry : valueCounts.entrySet()) {
+				writeString(output, entry.getKey());
+				entry.getValue().write(output);
+			}
+		});
+		sections.put(NUMBERS, output -> {
+			if (distributions == null) distributions = readDistributions();
+			output.writeInt(distributions.size());
+			for (Map.Entry<String, Distribution> entry : distributions.entrySet()) {
+				writeString(output, entry.getKey());
+				entry.getValue().write(output);
+			}
+		});
+		sections.put(BITMAPS, output -> getValueBitmaps().write(output));
+		sections.put(TRIGRAMS, output -> {
+			final File trigrams = getTrigramIndex().getFile();
+			writeString(output, trigrams.getName());
+			output.writeLong(trigrams.length());
+		});
+		sections.put(OFFSETS, output -> getLineOffsets().write(output));
+		// The index being updated may still be mapped, so it is replaced rather than overwritten
+		final File indexFile = getIndexFile(base);
+		final File temp = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+		try (FileOutputStream stream = new FileOutputStream(temp);
+		     DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream))) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(size);
+			output.writeLong(modified);
+			output.write(headerDigest(header));
+			// Sections are written as they are built, and the table is filled in once their offsets are known
+			final long tableOffset = 2 * Integer.BYTES + 2 * Long.BYTES + DIGEST_SIZE;
+			long offset = tableOffset + Integer.BYTES;
+			for (String name : sections.keySet()) offset += Short.BYTES + name.getBytes(StandardCharsets.UTF_8).length + 2 * Long.BYTES;
+			output.write(new byte[(int) (offset - tableOffset)]);
+			final ByteArrayOutputStream table = new ByteArrayOutputStream();
+			final DataOutputStream tableOutput = new DataOutputStream(table);
+			tableOutput.writeInt(sections.size());
+			for (Map.Entry<String, SectionWriter> entry : sections.entrySet()) {
+				entry.getValue().write(output);
+				output.flush();
+				final long end = stream.getChannel().position();
+				writeString(tableOutput, entry.getKey());
+				tableOutput.writeLong(offset);
+				tableOutput.writeLong(end - offset);
+				offset = end;
+			}
+			stream.getChannel().write(ByteBuffer.wrap(table.toByteArray()), tableOffset);
+		}
+		Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		this.base = base;
+	}
+
+	private List<Field> readFields() {
+		final ByteBuffer section = section(FIELDS);
+		final List<Field> fields = new ArrayList<>();
+		final int count = section.getInt();
+		for (int i = 0; i < count; i++) {
+			final Field.Category category = Field.Category.values()[section.get()];
+			final Field.Type type = Field.Type.values()[section.get()];
+			final boolean list = section.get() != 0;
+			final String name = readString(section);
+			final int options = section.getInt();
+			fields.add(new Field(type, () -> readOptions(options), name, list, category));
+		}
+		return fields;
+	}
+
+	private Map<String, ValueCounts> readValueCounts() {
+		final ByteBuffer section = section(VALUES);
+		final Map<String, ValueCounts> valueCounts = new HashMap<>();
+		final int count = section.getInt();
+		for (int i = 0; i < count; i++) valueCounts.put(readString(section), ValueCounts.read(section));
+		return valueCounts;
+	}
+
+	private Map<String, Distribution> readDistributions() {
+		final ByteBuffer section = section(NUMBERS);
+		final Map<String, Distribution> distributions = new HashMap<>();
+		final int count = section.getInt();
+		for (int i = 0; i < count; i++) distributions.put(readString(section), Distribution.read(section));
+		return distributions;
+	}
+
+	private List<String> readOptions(int offset) {
+		final ByteBuffer section = section(OPTIONS);
+		section.position(offset);
+		final String[] options = new String[section.getInt()];
+		for (int i = 0; i < options.length; i++) options[i] = readString(section);
+		return List.of(options);
+	}
+
+	/**
+	 * @return a new view of a section, so sections can be read concurrently
+	 */
+	private ByteBuffer section(String name) {
+		return sections.get(name).buffer();
+	}
+
+	/**
+	 * @return SHA-256 of the last bytes of the first size bytes of vcf
+	 */
+	private static byte[] tailDigest(File vcf, long size) throws IOException {
+		try (FileChannel channel = FileChannel.open(vcf.toPath(), StandardOpenOption.READ)) {
+			final long start = Math.max(0, size - TAIL_SIZE);
+			final ByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, start, size - start);
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(tail);
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static byte[] headerDigest(File vcf) {
+		try (VCFFileReader reader = new VCFFileReader(vcf, false)) {
+			return headerDigest(reader.getHeader());
+		}
+	}
+
+	private static byte[] headerDigest(VCFHeader header) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (VCFHeaderLine line : header.getMetaDataInInputOrder()) {
+				digest.update(line.toString().getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) '\n');
+			}
+			for (String sample : header.getGenotypeSamples()) {
+				digest.update(sample.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) '\t');
+			}
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform must support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return key of a field in the sections of the index, as an INFO field may have the name of a standard one
+	 */
+	static String key(Field field) {
+		return key(field.getCategory(), field.getName());
+	}
+
+	static String key(Field.Category category, String name) {
+		return category + ":" + name;
+	}
+
+	static void writeString(DataOutputStream output, String value) throws IOException {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeShort(bytes.length);
+		output.write(bytes);
+	}
+
+	static String readString(ByteBuffer buffer) {
+		final byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * How the source of an index is checked to be the file indexed
+	 */
+	private enum Check {
+		/**
+		 * Same size and modification time
+		 */
+		CURRENT,
+		/**
+		 * Same size, header and last bytes, for a copy whose content was checked by the caller
+		 */
+		COPY,
+		/**
+		 * Larger, with the same header and the same bytes before the end of the indexed ones
+		 */
+		APPENDED
+	}
+
+	private interface SectionWriter {
+		void write(DataOutputStream output) throws IOException;
+	}
+
 }
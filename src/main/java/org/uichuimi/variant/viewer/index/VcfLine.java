@@ -0,0 +1,150 @@
+package org.uichuimi.variant.viewer.index;
+
+import htsjdk.tribble.Feature;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A raw line of a VCF file, read by {@link VcfLineReader}. The line keeps its bytes and the offsets of its columns, and
+ * the offsets of the values of the INFO keys declared to the reader. Columns are only turned into objects when they
+ * are requested, and alleles and genotypes are never parsed. Lines are immutable, so they can be read from several
+ * threads.
+ */
+public class VcfLine implements Feature {
+
+	private static final int CHROM = 0;
+	private static final int POS = 1;
+	private static final int ID = 2;
+	private static final int REF = 3;
+	private static final int QUAL = 5;
+	private static final int FILTER = 6;
+	private static final int INFO = 7;
+	private static final int FORMAT = 8;
+	private static final byte[] END = "END".getBytes(StandardCharsets.US_ASCII);
+
+	private final byte[] line;
+	private final int[] ends;
+	private final String contig;
+	private final int start;
+	private final long filePointer;
+	private final VcfLineReader.Projection projection;
+	private final int[] values;
+
+	VcfLine(byte[] line, long filePointer, String contig, int[] ends, VcfLineReader.Projection projection) {
+		this.line = line;
+		this.filePointer = filePointer;
+		this.contig = contig;
+		this.ends = ends;
+		this.projection = projection;
+		this.start = parseInt(begin(POS), ends[POS]);
+		this.values = projection.extract(line, begin(INFO), ends[INFO]);
+	}
+
+	/**
+	 * @return offset of the first byte of column, or the length of the line if the line has less columns
+	 */
+	private int begin(int column) {
+		return column == 0 ? 0 : Math.min(line.length, ends[column - 1] + 1);
+	}
+
+	private String column(int column) {
+		return new String(line, begin(column), ends[column] - begin(column), StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public String getContig() {
+		return contig;
+	}
+
+	@Override
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * @return the END INFO value if present, or the last position of the reference allele
+	 */
+	@Override
+	public int getEnd() {
+		final int[] end = VcfLineReader.Projection.find(line, begin(INFO), ends[INFO], END);
+		if (end != null && end[1] > end[0]) return parseInt(end[0], end[1]);
+		return start + ends[REF] - begin(REF) - 1;
+	}
+
+	/**
+	 * @return virtual offset of the line in a block compressed file, or its byte offset in a plain file
+	 */
+	public long getFilePointer() {
+		return filePointer;
+	}
+
+	public String getId() {
+		return column(ID);
+	}
+
+	/**
+	 * @return phred scaled quality, or -10, as htsjdk, if it is missing
+	 */
+	public double getQual() {
+		final String qual = column(QUAL);
+		return qual.equals(".") ? -10.0 : Double.parseDouble(qual);
+	}
+
+	/**
+	 * @return the filters of the line, empty for PASS and for missing filters, as htsjdk
+	 */
+	public Set<String> getFilters() {
+		final Set<String> filters = new LinkedHashSet<>();
+		final String filter = column(FILTER);
+		if (filter.equals(".") || filter.equals("PASS")) return filters;
+		for (String value : filter.split(";")) filters.add(value);
+		return filters;
+	}
+
+	/**
+	 * @param key INFO key, preferably declared to the reader, as declared keys are located once per line
+	 * @return the raw value of key, an empty string for flags, or null if key is not present
+	 */
+	public String getInfo(String key) {
+		final int index = projection.indexOf(key);
+		final int[] value = index >= 0
+			? values[2 * index] < 0 ? null : new int[]{values[2 * index], values[2 * index + 1]}
+			: VcfLineReader.Projection.find(line, begin(INFO), ends[INFO], key.getBytes(StandardCharsets.UTF_8));
+		return value == null ? null : new String(line, value[0], value[1] - value[0], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the FORMAT column followed by the sample columns, as htsjdk keeps them before decoding, or null if the
+	 * line has no genotypes
+	 */
+	public String getGenotypes() {
+		final int from = begin(FORMAT);
+		if (from >= line.length) return null;
+		// Genotype columns are ASCII, so they are copied as Latin-1, which is a plain copy of the bytes
+		return new String(line, from, line.length - from, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * @return the whole line, as expected by htsjdk codecs
+	 */
+	public String getText() {
+		return new String(line, StandardCharsets.UTF_8);
+	}
+
+	private int parseInt(int from, int to) {
+		int value = 0;
+		boolean negative = false;
+		for (int i = from; i < to; i++) {
+			if (i == from && line[i] == '-') negative = true;
+			else value = value * 10 + line[i] - '0';
+		}
+		return negative ? -value : value;
+	}
+
+	@Override
+	public String toString() {
+		return contig + ":" + start;
+	}
+}
@@ -0,0 +1,18 @@
+package org.uichuimi.variant.viewer.index;
+
+import htsjdk.variant.vcf.VCFHeader;
+import org.uichuimi.variant.viewer.utils.ResourceConsumer;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Consumer of the lines of a VCF file. Consumers declare the INFO keys they read, after {@link #start(Object)}, so
+ * they are located while lines are tokenized.
+ */
+interface VcfLineConsumer extends ResourceConsumer<VCFHeader, VcfLine> {
+
+	default Collection<String> getInfoKeys() {
+		return List.of();
+	}
+}
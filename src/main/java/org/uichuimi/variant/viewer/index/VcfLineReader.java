@@ -0,0 +1,323 @@
+package org.uichuimi.variant.viewer.index;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the records of a VCF file as {@link VcfLine}s, straight from the decompressed bytes. Lines are tokenized up to
+ * the FORMAT column, and only the INFO keys declared when the reader is created are located, so reading is much
+ * cheaper than decoding a VariantContext. Header lines are skipped; the header is read with htsjdk.
+ * <p>
+ * For block compressed (BGZF) files, every line carries its virtual offset, the one used by tabix, and the reader can
+ * {@link #seek(long)} to any virtual offset. Bytes are read one BGZF block at a time, so the virtual offset of any
+ * byte in the buffer is the virtual offset of the start of its block plus its distance to it. Plain files can be sought
+ * to any byte offset; gzipped files cannot.
+ */
+public class VcfLineReader implements AutoCloseable {
+
+	private static final int COLUMNS = 9;
+
+	private final InputStream input;
+	private final BlockCompressedInputStream blockInput;
+	private final FileChannel channel;
+	private final long length;
+	private final Projection projection;
+
+	private byte[] buffer = new byte[1 << 17];
+	private int start;
+	private int end;
+	private int[] blockStarts = new int[16];
+	private long[] blockPointers = new long[16];
+	private int blocks;
+	private long position;
+	private byte[] contigBytes = new byte[0];
+	private String contig;
+	private boolean terminated = true;
+
+	/**
+	 * @param file     VCF file, plain, gzipped or block compressed
+	 * @param infoKeys INFO keys that will be requested to the lines
+	 */
+	public VcfLineReader(File file, Collection<String> infoKeys) throws IOException {
+		this.projection = new Projection(infoKeys);
+		this.length = file.length();
+		if (isBlockCompressed(file)) {
+			blockInput = new BlockCompressedInputStream(file);
+			channel = null;
+			input = blockInput;
+		} else {
+			blockInput = null;
+			final FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			final ByteBuffer magic = ByteBuffer.allocate(2);
+			while (magic.hasRemaining() && fileChannel.read(magic) > 0) ;
+			fileChannel.position(0);
+			final boolean gzip = magic.get(0) == 0x1f && magic.get(1) == (byte) 0x8b;
+			// Lines are read in large chunks, so plain files need no buffered stream
+			channel = gzip ? null : fileChannel;
+			input = gzip
+				? new GZIPInputStream(new BufferedInputStream(Channels.newInputStream(fileChannel)), 1 << 16)
+				: Channels.newInputStream(fileChannel);
+		}
+	}
+
+	/**
+	 * @return true if file is block compressed (BGZF), so it can be indexed with tabix and read from any virtual offset
+	 */
+	public static boolean isBlockCompressed(File file) {
+		try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+			return BlockCompressedInputStream.isValidFile(stream);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the next record, or null at the end of the file
+	 */
+	public VcfLine next() throws IOException {
+		while (true) {
+			int newline = indexOf((byte) '\n');
+			if (newline < 0) {
+				if (fill()) continue;
+				// Last line without a line break
+				if (start == end) return null;
+				newline = end;
+				terminated = false;
+			} else terminated = true;
+			final int from = start;
+			int to = newline;
+			start = Math.min(newline + 1, end);
+			if (to > from && buffer[to - 1] == '\r') to--;
+			if (to == from || buffer[from] == '#') continue;
+			return createLine(from, to);
+		}
+	}
+
+	/**
+	 * @return false if the last line read had no line break, as the last line of a file that is still being written
+	 */
+	public boolean isTerminated() {
+		return terminated;
+	}
+
+	/**
+	 * @return virtual offset, or byte offset in plain files, of the next line
+	 */
+	public long getFilePointer() {
+		if (start < end) return pointer(start);
+		return blockInput != null ? blockInput.getFilePointer() : position;
+	}
+
+	/**
+	 * Moves the reader to a virtual offset of a block compressed file, or to a byte offset of a plain file.
+	 */
+	public void seek(long pointer) throws IOException {
+		if (blockInput != null) blockInput.seek(pointer);
+		else if (channel != null) channel.position(position = pointer);
+		else throw new IOException("Gzipped files cannot be sought");
+		start = end = blocks = 0;
+	}
+
+	/**
+	 * Moves the reader forward to a file pointer. Gzipped files cannot be sought, so they are read up to it.
+	 */
+	public void skip(long pointer) throws IOException {
+		if (blockInput != null || channel != null) seek(pointer);
+		else while (getFilePointer() < pointer && next() != null) ;
+	}
+
+	private VcfLine createLine(int from, int to) {
+		final int[] ends = new int[COLUMNS];
+		int column = 0;
+		for (int i = from; i < to && column < COLUMNS; i++) {
+			if (buffer[i] == '\t') ends[column++] = i - from;
+		}
+		Arrays.fill(ends, column, COLUMNS, to - from);
+		// Contigs come in runs, so the same String is reused while the contig does not change
+		if (!Arrays.equals(buffer, from, from + ends[0], contigBytes, 0, contigBytes.length)) {
+			contigBytes = Arrays.copyOfRange(buffer, from, from + ends[0]);
+			contig = new String(contigBytes, StandardCharsets.UTF_8);
+		}
+		return new VcfLine(Arrays.copyOfRange(buffer, from, to), pointer(from), contig, ends, projection);
+	}
+
+	private int indexOf(byte value) {
+		for (int i = start; i < end; i++) if (buffer[i] == value) return i;
+		return -1;
+	}
+
+	private long pointer(int offset) {
+		int block = 0;
+		while (block + 1 < blocks && blockStarts[block + 1] <= offset) block++;
+		return blockPointers[block] + offset - blockStarts[block];
+	}
+
+	/**
+	 * Appends bytes to the buffer, at most the rest of the current BGZF block.
+	 *
+	 * @return false at the end of the file
+	 */
+	private boolean fill() throws IOException {
+		compact();
+		if (end == buffer.length) buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+		final long pointer;
+		final int read;
+		if (blockInput != null) {
+			// Concatenated files have empty blocks, the end of file marker of each part, before the end of the file
+			int available;
+			do available = blockInput.available();
+			while (available == 0 && blockInput.getFilePointer() >>> 16 < length);
+			if (available <= 0) return false;
+			pointer = blockInput.getFilePointer();
+			read = blockInput.read(buffer, end, Math.min(available, buffer.length - end));
+		} else {
+			pointer = position;
+			read = input.read(buffer, end, buffer.length - end);
+		}
+		if (read <= 0) return false;
+		position += read;
+		if (blocks == blockStarts.length) {
+			blockStarts = Arrays.copyOf(blockStarts, 2 * blocks);
+			blockPointers = Arrays.copyOf(blockPointers, 2 * blocks);
+		}
+		blockStarts[blocks] = end;
+		blockPointers[blocks++] = pointer;
+		end += read;
+		return true;
+	}
+
+	/**
+	 * Moves the unread bytes to the start of the buffer, and drops the blocks already read.
+	 */
+	private void compact() {
+		if (start == 0) return;
+		int first = 0;
+		while (first + 1 < blocks && blockStarts[first + 1] <= start) first++;
+		for (int block = first; block < blocks; block++) {
+			final int shifted = blockStarts[block] - start;
+			// The block of the first unread byte now starts at that byte
+			blockPointers[block - first] = blockPointers[block] + Math.max(0, -shifted);
+			blockStarts[block - first] = Math.max(0, shifted);
+		}
+		blocks -= first;
+		System.arraycopy(buffer, start, buffer, 0, end - start);
+		end -= start;
+		start = 0;
+		if (end == 0) blocks = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+
+	/**
+	 * INFO keys declared to a reader. Their values are located once per line, while the line is read. Each entry of the
+	 * INFO column is looked up once, by the hash of its key, in an open addressing table of the declared keys.
+	 */
+	static class Projection {
+
+		private final Map<String, Integer> index = new HashMap<>();
+		private final byte[][] keys;
+		/**
+		 * For each slot, 1 + the index of the key in keys, or 0 if the slot is empty. At most half full.
+		 */
+		private final int[] slots;
+		private final int mask;
+
+		private Projection(Collection<String> keys) {
+			this.keys = new byte[keys.size()][];
+			this.slots = new int[Integer.highestOneBit(Math.max(1, keys.size())) << 2];
+			this.mask = slots.length - 1;
+			int i = 0;
+			for (String key : keys) {
+				index.putIfAbsent(key, i);
+				final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+				this.keys[i++] = bytes;
+				// The first of repeated keys is kept
+				int slot = mix(hash(bytes)) & mask;
+				while (slots[slot] != 0 && !Arrays.equals(key(slot), bytes)) slot = (slot + 1) & mask;
+				if (slots[slot] == 0) slots[slot] = i;
+			}
+		}
+
+		int indexOf(String key) {
+			return index.getOrDefault(key, -1);
+		}
+
+		/**
+		 * @return for each declared key, the start and end of its value in the INFO column, or -1 if it is missing
+		 */
+		int[] extract(byte[] line, int from, int to) {
+			final int[] values = new int[2 * keys.length];
+			Arrays.fill(values, -1);
+			if (keys.length == 0) return values;
+			int entry = from;
+			while (entry < to) {
+				int separator = entry;
+				int hash = 0;
+				while (separator < to && line[separator] != ';' && line[separator] != '=') hash = 31 * hash + line[separator++];
+				int next = separator;
+				while (next < to && line[next] != ';') next++;
+				final int k = slot(line, entry, separator, hash);
+				if (k >= 0) {
+					values[2 * k] = separator < next ? separator + 1 : separator;
+					values[2 * k + 1] = next;
+				}
+				entry = next + 1;
+			}
+			return values;
+		}
+
+		/**
+		 * @return index of the key in bytes from start to end, or -1 if it is not declared
+		 */
+		private int slot(byte[] bytes, int start, int end, int hash) {
+			for (int slot = mix(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+				final byte[] key = key(slot);
+				if (Arrays.equals(bytes, start, end, key, 0, key.length)) return slots[slot] - 1;
+			}
+			return -1;
+		}
+
+		private byte[] key(int slot) {
+			return keys[slots[slot] - 1];
+		}
+
+		private static int hash(byte[] bytes) {
+			int hash = 0;
+			for (byte b : bytes) hash = 31 * hash + b;
+			return hash;
+		}
+
+		private static int mix(int hash) {
+			return hash ^ hash >>> 16;
+		}
+
+		/**
+		 * @return the start and end of the value of key in the INFO column, or null if key is missing
+		 */
+		static int[] find(byte[] line, int from, int to, byte[] key) {
+			int entry = from;
+			while (entry < to) {
+				int separator = entry;
+				while (separator < to && line[separator] != ';' && line[separator] != '=') separator++;
+				int next = separator;
+				while (next < to && line[next] != ';') next++;
+				if (Arrays.equals(line, entry, separator, key, 0, key.length)) {
+					return new int[]{separator < next ? separator + 1 : separator, next};
+				}
+				entry = next + 1;
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,404 @@
+package org.uichuimi.variant.viewer.index;
+
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import htsjdk.variant.vcf.VCFUtils;
+import org.uichuimi.variant.viewer.components.Accessor;
+import org.uichuimi.variant.viewer.filter.AttributeFilter;
+import org.uichuimi.variant.viewer.filter.Field;
+import org.uichuimi.variant.viewer.filter.Operator;
+import org.uichuimi.variant.viewer.utils.Constants;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Minimum, maximum and number of missing values of POS, QUAL and every numeric INFO field, for each block of
+ * {@link #BLOCK_SIZE} consecutive lines of a VCF file. A block is the range of file pointers, virtual offsets in block
+ * compressed files, from its first line to the line after its last line. When the zone of a block proves that none of
+ * its lines can pass a numeric {@link AttributeFilter}, the block can be skipped without decoding its lines.
+ * <p>
+ * Values are the ones seen by {@link Field#extract}: a missing QUAL is -10, and a missing value of a single valued
+ * INFO field is 0.
+ * <p>
+ * ID and the text INFO fields with too many values for the {@link ValueBitmaps} have instead the {@link BloomFilters}
+ * of the values of each block, so a {@link Operator#TEXT_EQUAL} filter skips the blocks without the value.
+ */
+public class ZoneMap {
+
+	static final int BLOCK_SIZE = 1024;
+
+	private final long[] starts;
+	private final long[] ends;
+	private final int[] counts;
+	private final Map<String, Zone> zones;
+	/**
+	 * May be null while the filters are not built
+	 */
+	private final BloomFilters blooms;
+
+	private ZoneMap(long[] starts, long[] ends, int[] counts, Map<String, Zone> zones, BloomFilters blooms) {
+		this.starts = starts;
+		this.ends = ends;
+		this.counts = counts;
+		this.zones = zones;
+		this.blooms = blooms;
+	}
+
+	/**
+	 * @return this zone map, with the Bloom filters of its blocks
+	 */
+	ZoneMap withBlooms(BloomFilters blooms) {
+		return new ZoneMap(starts, ends, counts, zones, blooms);
+	}
+
+	/**
+	 * @return number of blocks
+	 */
+	public int size() {
+		return starts.length;
+	}
+
+	/**
+	 * @return file pointer of the first line of block
+	 */
+	public long getStart(int block) {
+		return starts[block];
+	}
+
+	/**
+	 * @return file pointer of the line after the last line of block
+	 */
+	public long getEnd(int block) {
+		return ends[block];
+	}
+
+	/**
+	 * @return number of lines of block
+	 */
+	public int getCount(int block) {
+		return counts[block];
+	}
+
+	/**
+	 * @return true if the zones of filter field can be used to tell whether a block has no lines passing filter
+	 */
+	public boolean supports(AttributeFilter filter) {
+		if (filter.getField().isList() && filter.getAccessor() == Accessor.NONE) return false;
+		final String key = VcfIndex.key(filter.getField());
+		if (zones.containsKey(key)) return filter.getValue() instanceof Number;
+		if (blooms == null || !blooms.contains(key) || filter.getOperator() != Operator.TEXT_EQUAL) return false;
+		final Collection<?> values = values(filter);
+		// htsjdk shows lists of a single valued field as "[a, b]", which is not a value of the raw text
+		for (Object value : values) if (!(value instanceof String) || ((String) value).indexOf('[') >= 0) return false;
+		return !values.isEmpty();
+	}
+
+	private static Collection<?> values(AttributeFilter filter) {
+		return filter.getValue() instanceof Collection
+			? (Collection<?>) filter.getValue()
+			: Collections.singletonList(filter.getValue());
+	}
+
+	/**
+	 * @param filter a filter {@link #supports(AttributeFilter) supported} by this zone map
+	 * @return false if no line of block can pass filter
+	 */
+	public boolean mayMatch(int block, AttributeFilter filter) {
+		final String key = VcfIndex.key(filter.getField());
+		if (!zones.containsKey(key)) return blooms.mayMatch(key, block, values(filter), filter.isStrict());
+		final Zone zone = zones.get(key);
+		final int nulls = zone.nulls[block];
+		double min = zone.min[block];
+		double max = zone.max[block];
+		if (nulls > 0) {
+			// Missing lists are empty, which pass non strict filters. Missing single values are 0
+			if (filter.getField().isList()) {
+				if (!filter.isStrict()) return true;
+			} else {
+				min = Math.min(min, 0);
+				max = Math.max(max, 0);
+			}
+		}
+		// No values in block
+		if (min > max) return false;
+		final double value = ((Number) filter.getValue()).doubleValue();
+		return switch (filter.getOperator()) {
+			case INT_LOWER, FLOAT_LOWER -> min < value;
+			case INT_LOWER_OR_EQUAL, FLOAT_LOWER_OR_EQUAL -> min <= value;
+			case INT_EQUAL, FLOAT_EQUAL -> min <= value && value <= max;
+			case INT_GREATER_OR_EQUAL, FLOAT_GREATER_OR_EQUAL -> max >= value;
+			case INT_GREATER, FLOAT_GREATER -> max > value;
+			default -> true;
+		};
+	}
+
+	void write(DataOutputStream output) throws IOException {
+		output.writeInt(starts.length);
+		for (int i = 0; i < starts.length; i++) {
+			output.writeLong(starts[i]);
+			output.writeLong(ends[i]);
+			output.writeInt(counts[i]);
+		}
+		output.writeInt(zones.size());
+		for (Map.Entry<String, Zone> entry : zones.entrySet()) {
+			final byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+			output.writeShort(key.length);
+			output.write(key);
+			final Zone zone = entry.getValue();
+			for (int i = 0; i < starts.length; i++) {
+				output.writeDouble(zone.min[i]);
+				output.writeDouble(zone.max[i]);
+				output.writeInt(zone.nulls[i]);
+			}
+		}
+	}
+
+	/**
+	 * @param blooms Bloom filters of the blocks, stored in their own file
+	 */
+	static ZoneMap read(ByteBuffer buffer, BloomFilters blooms) {
+		final int blocks = buffer.getInt();
+		final long[] starts = new long[blocks];
+		final long[] ends = new long[blocks];
+		final int[] counts = new int[blocks];
+		for (int i = 0; i < blocks; i++) {
+			starts[i] = buffer.getLong();
+			ends[i] = buffer.getLong();
+			counts[i] = buffer.getInt();
+		}
+		final int size = buffer.getInt();
+		final Map<String, Zone> zones = new HashMap<>();
+		for (int z = 0; z < size; z++) {
+			final byte[] key = new byte[Short.toUnsignedInt(buffer.getShort())];
+			buffer.get(key);
+			final Zone zone = new Zone(blocks);
+			for (int i = 0; i < blocks; i++) {
+				zone.min[i] = buffer.getDouble();
+				zone.max[i] = buffer.getDouble();
+				zone.nulls[i] = buffer.getInt();
+			}
+			zones.put(new String(key, StandardCharsets.UTF_8), zone);
+		}
+		return new ZoneMap(starts, ends, counts, zones, blooms);
+	}
+
+	private static class Zone {
+
+		private double[] min;
+		private double[] max;
+		private int[] nulls;
+
+		private Zone(int blocks) {
+			min = new double[blocks];
+			max = new double[blocks];
+			nulls = new int[blocks];
+		}
+
+		private void grow(int blocks) {
+			min = Arrays.copyOf(min, blocks);
+			max = Arrays.copyOf(max, blocks);
+			nulls = Arrays.copyOf(nulls, blocks);
+		}
+
+		private Zone copy(int blocks) {
+			final Zone zone = new Zone(0);
+			zone.min = Arrays.copyOf(min, blocks);
+			zone.max = Arrays.copyOf(max, blocks);
+			zone.nulls = Arrays.copyOf(nulls, blocks);
+			return zone;
+		}
+
+		private void open(int block) {
+			min[block] = Double.POSITIVE_INFINITY;
+			max[block] = Double.NEGATIVE_INFINITY;
+			nulls[block] = 0;
+		}
+
+		private void add(int block, double value) {
+			if (value < min[block]) min[block] = value;
+			if (value > max[block]) max[block] = value;
+		}
+	}
+
+	/**
+	 * Builds the zone map of a file from its lines, in file order. The Bloom filters of the blocks are spilled to a file
+	 * while building, and built into their own file once the fields with value bitmaps are known.
+	 */
+	static class Builder implements AutoCloseable {
+
+		private final List<String> keys = new ArrayList<>();
+		private final List<Zone> zones = new ArrayList<>();
+		private final List<String> infoKeys = new ArrayList<>();
+		private final List<String> projected = new ArrayList<>();
+		private final BloomFilters.Builder blooms;
+		/**
+		 * Whether the Bloom filters of the last block are still collecting values
+		 */
+		private boolean pending;
+		private long[] starts = new long[16];
+		private long[] ends = new long[16];
+		private int[] counts = new int[16];
+		private int blocks;
+
+		/**
+		 * @param spill file where the Bloom filters are spilled, which is created when needed
+		 */
+		Builder(VCFHeader header, File spill) {
+			blooms = new BloomFilters.Builder(header, spill);
+			add(VcfIndex.key(Field.Category.STANDARD, Constants.POS));
+			add(VcfIndex.key(Field.Category.STANDARD, Constants.QUAL));
+			for (VCFInfoHeaderLine line : header.getInfoHeaderLines()) {
+				if (line.getType() == VCFHeaderLineType.Integer || line.getType() == VCFHeaderLineType.Float) {
+					infoKeys.add(line.getID());
+					add(VcfIndex.key(Field.Category.INFO, line.getID()));
+				}
+			}
+			projected.addAll(infoKeys);
+			projected.addAll(blooms.getInfoKeys());
+		}
+
+		private void add(String key) {
+			keys.add(key);
+			zones.add(new Zone(starts.length));
+		}
+
+		/**
+		 * @return numeric and text INFO keys, whose values are read from lines
+		 */
+		List<String> getInfoKeys() {
+			return projected;
+		}
+
+		void add(VcfLine line) {
+			// Appended blocks have their Bloom filters closed, so lines that follow start a new block
+			if (blocks == 0 || counts[blocks - 1] == BLOCK_SIZE || !pending) {
+				// A full block ends where the next line starts
+				if (blocks > 0) ends[blocks - 1] = line.getFilePointer();
+				open(line.getFilePointer());
+				pending = true;
+			}
+			final int block = blocks - 1;
+			counts[block]++;
+			zones.get(0).add(block, line.getStart());
+			zones.get(1).add(block, line.getQual());
+			for (int i = 0; i < infoKeys.size(); i++) {
+				final Zone zone = zones.get(i + 2);
+				final String value = line.getInfo(infoKeys.get(i));
+				if (value == null || value.isEmpty()) {
+					zone.nulls[block]++;
+					continue;
+				}
+				// As htsjdk, list values that cannot be parsed take the default value, 0
+				for (String element : value.split(",")) zone.add(block, parse(element));
+			}
+			blooms.add(line);
+		}
+
+		private static double parse(String value) {
+			try {
+				return VCFUtils.parseVcfDouble(value);
+			} catch (NumberFormatException e) {
+				return 0;
+			}
+		}
+
+		private void open(long pointer) {
+			closeBlooms();
+			if (blocks == starts.length) {
+				starts = Arrays.copyOf(starts, 2 * blocks);
+				ends = Arrays.copyOf(ends, 2 * blocks);
+				counts = Arrays.copyOf(counts, 2 * blocks);
+				zones.forEach(zone -> zone.grow(2 * blocks));
+			}
+			starts[blocks] = pointer;
+			counts[blocks] = 0;
+			for (Zone zone : zones) zone.open(blocks);
+			blocks++;
+		}
+
+		private void closeBlooms() {
+			if (!pending) return;
+			blooms.closeBlock();
+			pending = false;
+		}
+
+		/**
+		 * @param end file pointer of the line after the last line
+		 */
+		void finish(long end) {
+			if (blocks > 0) ends[blocks - 1] = end;
+		}
+
+		/**
+		 * Precedes the lines added with the blocks of the zone map of a file that has grown. The zone map must have the
+		 * same fields, and its Bloom filters.
+		 */
+		void append(ZoneMap other) {
+			appendZones(other);
+			blooms.append(other.blooms);
+		}
+
+		/**
+		 * Appends the blocks of the builder of the partition that follows in the file, and takes its spill files.
+		 */
+		void append(Builder other) {
+			appendZones(other.build());
+			blooms.append(other.blooms);
+		}
+
+		private void appendZones(ZoneMap other) {
+			closeBlooms();
+			for (int block = 0; block < other.size(); block++) {
+				open(other.starts[block]);
+				ends[blocks - 1] = other.ends[block];
+				counts[blocks - 1] = other.counts[block];
+				for (int z = 0; z < zones.size(); z++) {
+					final Zone zone = zones.get(z);
+					final Zone source = other.zones.get(keys.get(z));
+					zone.min[blocks - 1] = source.min[block];
+					zone.max[blocks - 1] = source.max[block];
+					zone.nulls[blocks - 1] = source.nulls[block];
+				}
+			}
+		}
+
+		/**
+		 * @return the zone map, without Bloom filters
+		 */
+		ZoneMap build() {
+			closeBlooms();
+			final Map<String, Zone> map = new HashMap<>();
+			for (int i = 0; i < keys.size(); i++) map.put(keys.get(i), zones.get(i).copy(blocks));
+			return new ZoneMap(Arrays.copyOf(starts, blocks), Arrays.copyOf(ends, blocks), Arrays.copyOf(counts, blocks), map, null);
+		}
+
+		/**
+		 * Builds the Bloom filters into file, only for ID and the text fields without value bitmaps, as the bitmaps
+		 * already tell which lines have a value.
+		 */
+		BloomFilters buildBlooms(File file, ValueBitmaps bitmaps) throws IOException {
+			closeBlooms();
+			final Set<String> kept = new HashSet<>();
+			kept.add(VcfIndex.key(Field.Category.STANDARD, Constants.ID));
+			for (String key : blooms.getInfoKeys()) {
+				final String column = VcfIndex.key(Field.Category.INFO, key);
+				if (!bitmaps.contains(column)) kept.add(column);
+			}
+			return blooms.build(file, kept);
+		}
+
+		/**
+		 * Deletes the spill files of the Bloom filters.
+		 */
+		@Override
+		public void close() {
+			blooms.close();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package org.uichuimi.variant.viewer.io;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Conjunction of filters that reorders itself by the items it tests, so the filters that reject most items for the
+ * least time run first. Every {@link #PERIOD}th item is tested by every filter, timing each one, so pass rates are
+ * measured independently of the order. Every {@link #REORDER} samples, filters are sorted by their time per rejected
+ * item, which is the order with the lowest expected time for independent filters, and the statistics decay, so the
+ * order follows changes along a file. Not thread safe.
+ *
+ * @param <T> type of the items
+ */
+class AdaptiveConjunction<T> {
+
+	private static final int PERIOD = 64;
+	private static final int REORDER = 32;
+	private static final double DECAY = 0.5;
+
+	private final Stat<T>[] stats;
+	private long items;
+	private int samples;
+
+	/**
+	 * @param filters filters, in the order to use until the first samples are taken
+	 */
+	@SuppressWarnings("unchecked")
+	AdaptiveConjunction(List<? extends Predicate<? super T>> filters) {
+		this.stats = filters.stream().map(Stat::new).toArray(Stat[]::new);
+	}
+
+	/**
+	 * @return true if item passes every filter
+	 */
+	boolean test(T item) {
+		if (items++ % PERIOD == 0) return sample(item);
+		for (Stat<T> stat : stats) if (!stat.filter.test(item)) return false;
+		return true;
+	}
+
+	private boolean sample(T item) {
+		boolean passed = true;
+		for (Stat<T> stat : stats) {
+			final long start = System.nanoTime();
+			final boolean pass = stat.filter.test(item);
+			stat.nanos += System.nanoTime() - start;
+			if (!pass) stat.rejected++;
+			passed &= pass;
+		}
+		if (++samples % REORDER == 0) {
+			Arrays.sort(stats, Comparator.comparingDouble(Stat::rank));
+			for (Stat<T> stat : stats) stat.decay();
+		}
+		return passed;
+	}
+
+	private static class Stat<T> {
+
+		private final Predicate<? super T> filter;
+		private double nanos;
+		private double rejected;
+
+		private Stat(Predicate<? super T> filter) {
+			this.filter = filter;
+		}
+
+		/**
+		 * @return time per rejected item, adding one rejection to every filter, so filters that reject nothing are
+		 * ranked by their time instead of dividing by zero
+		 */
+		private double rank() {
+			return nanos / (rejected + 1);
+		}
+
+		private void decay() {
+			nanos *= DECAY;
+			rejected *= DECAY;
+		}
+	}
+}
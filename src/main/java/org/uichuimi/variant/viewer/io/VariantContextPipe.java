@@ -1,23 +1,37 @@
 package org.uichuimi.variant.viewer.io;
 
 import htsjdk.samtools.util.Interval;
+import htsjdk.tribble.Tribble;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFCodec;
 import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
 import javafx.beans.property.LongProperty;
 import javafx.beans.property.SimpleLongProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.concurrent.Task;
 import org.uichuimi.variant.viewer.components.MainView;
+import org.uichuimi.variant.viewer.filter.AttributeFilter;
 import org.uichuimi.variant.viewer.filter.BaseFilter;
+import org.uichuimi.variant.viewer.filter.SampleFilter;
+import org.uichuimi.variant.viewer.index.GtBitsetArchive;
+import org.uichuimi.variant.viewer.index.GtSite;
+import org.uichuimi.variant.viewer.index.TrigramIndex;
+import org.uichuimi.variant.viewer.index.ValueBitmaps;
+import org.uichuimi.variant.viewer.index.VcfIndex;
+import org.uichuimi.variant.viewer.index.VcfLine;
+import org.uichuimi.variant.viewer.index.VcfLineReader;
+import org.uichuimi.variant.viewer.index.ZoneMap;
+import org.uichuimi.variant.viewer.utils.BitUtils;
 
 import java.io.File;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.List;
-import java.util.TreeSet;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Predicate;
 
 /**
  * Reads and writes a stream of {@link VariantContext}s. Reading is done via input file. Task result is an observable
@@ -30,10 +44,19 @@ public class VariantContextPipe extends Task<ObservableList<VariantContext>> {
 	private final LongProperty lines = new SimpleLongProperty(0);
 	private final LongProperty filtered = new SimpleLongProperty(0);
 	private final List<BaseFilter> filters;
+	private final List<SampleFilter> genotypeFilters = new ArrayList<>();
+	private final List<BaseFilter> variantFilters = new ArrayList<>();
+	private final VcfIndex index;
+	private final GtBitsetArchive archive;
 	private final File input;
 	private final File output;
 	private final int maxResults;
 	private final Long total;
+	private AdaptiveConjunction<VariantContext> conjunction;
+	/**
+	 * Site in the archive of the variant being tested, looked up once for all the sample filters
+	 */
+	private GtSite site;
 
 	/**
 	 * Creates a variant context pipe, writing to output only filtered variants. A
@@ -41,33 +64,48 @@ public class VariantContextPipe extends Task<ObservableList<VariantContext>> {
 	 * @param output     output file. May be null
 	 * @param filters    applied to every variant
 	 * @param maxResults max number of variants in returned list
-	 * @param total      known size of input file. This can be set for progress purposes.
+	 * @param index      index of the input file, for progress purposes, to evaluate sample filters with the genotype
+	 *                   archive, to skip blocks with its zone map and to read only the lines of its value bitmaps and
+	 *                   trigrams. May be null
 	 */
-	public VariantContextPipe(final File input, final File output, final List<BaseFilter> filters, Integer maxResults, Long total) {
+	public VariantContextPipe(final File input, final File output, final List<BaseFilter> filters, Integer maxResults, VcfIndex index) {
 		this.input = input;
 		this.output = output;
 		this.filters = filters;
+		this.index = index;
+		this.archive = index == null ? null : index.getArchive();
 		this.maxResults = maxResults == null ? 50 : maxResults;
-		this.total = total;
+		this.total = index == null ? null : index.getLineCount();
 	}
 
 	@Override
 	protected ObservableList<VariantContext> call() {
-		final VCFFileReader reader = new VCFFileReader(input);
+		// Files without index are read from start to end, and interval filters are checked on every variant
+		final File tabix = tabixFile();
+		final boolean indexed = tabix != null;
+		final VCFFileReader reader = indexed ? new VCFFileReader(input, tabix, true) : new VCFFileReader(input, false);
 		final VariantContextWriter writer = output == null
 			? null
 			: new VariantContextWriterBuilder().setReferenceDictionary(reader.getHeader().getSequenceDictionary()).setOutputFile(output).build();
 
+		bindGenotypeFilters(reader.getHeader().getGenotypeSamples());
+
 		final Collection<Interval> intervals = new TreeSet<>();
 		for (BaseFilter filter : filters) {
-			if (filter.getInterval() != null) {
+			if (indexed && filter.getInterval() != null) {
 				intervals.addAll(filter.getInterval());
 			}
 		}
 
 		try (reader; writer) {
 			if (writer != null) writer.writeHeader(reader.getHeader());
-			if (intervals.isEmpty()) {
+			final List<AttributeFilter> bitmapFilters = bitmapFilters();
+			final List<AttributeFilter> zoneFilters = zoneFilters();
+			if (intervals.isEmpty() && !bitmapFilters.isEmpty()) {
+				scanBitmaps(reader.getHeader(), writer, bitmapFilters, zoneFilters);
+			} else if (intervals.isEmpty() && !zoneFilters.isEmpty()) {
+				scanZones(reader.getHeader(), writer, zoneFilters);
+			} else if (intervals.isEmpty()) {
 				for (final VariantContext variant : reader) {
 					if (isCancelled()) break;
 					process(writer, variant);
@@ -91,8 +129,165 @@ public class VariantContextPipe extends Task<ObservableList<VariantContext>> {
 		return variants;
 	}
 
+	/**
+	 * @return the tabix or tribble index next to the input, or else the tabix index stored with the index of the input,
+	 * or null if there is none
+	 */
+	private File tabixFile() {
+		if (Tribble.tabixIndexFile(input).exists()) return Tribble.tabixIndexFile(input);
+		if (Tribble.indexFile(input).exists()) return Tribble.indexFile(input);
+		if (index != null && index.getTabixFile() != null && index.getTabixFile().exists()) return index.getTabixFile();
+		return null;
+	}
+
+	/**
+	 * Splits filters into sample filters that can be resolved with the genotype archive and filters that need the
+	 * decoded variant, and joins them in a conjunction that reorders them as the input is read. Until then, sample
+	 * filters go first, and the other filters by the number of lines the index predicts to pass them.
+	 */
+	private void bindGenotypeFilters(List<String> samples) {
+		genotypeFilters.clear();
+		variantFilters.clear();
+		final boolean useArchive = archive != null && archive.getSamples() == samples.size();
+		for (BaseFilter filter : filters) {
+			if (useArchive && filter instanceof SampleFilter && ((SampleFilter) filter).bind(samples)) {
+				genotypeFilters.add((SampleFilter) filter);
+			} else {
+				variantFilters.add(filter);
+			}
+		}
+		sortBySelectivity(variantFilters);
+		final List<Predicate<VariantContext>> predicates = new ArrayList<>();
+		for (SampleFilter filter : genotypeFilters) {
+			// Genotypes are lazily decoded by htsjdk, so they are only parsed if the site is not in the archive
+			predicates.add(variant -> site == null ? filter.filter(variant) : filter.filter(site));
+		}
+		for (BaseFilter filter : variantFilters) predicates.add(filter::filter);
+		conjunction = new AdaptiveConjunction<>(predicates);
+	}
+
+	/**
+	 * Sorts filters by the number of lines the index predicts to pass them, so the filters that reject most lines are
+	 * checked first. Filters that cannot be predicted go last, in their order.
+	 */
+	private void sortBySelectivity(List<? extends BaseFilter> filters) {
+		if (index == null) return;
+		final Map<BaseFilter, Long> estimates = new IdentityHashMap<>();
+		for (BaseFilter filter : filters) {
+			final long estimate = filter instanceof AttributeFilter ? index.estimate((AttributeFilter) filter) : -1;
+			estimates.put(filter, estimate < 0 ? Long.MAX_VALUE : estimate);
+		}
+		filters.sort(Comparator.comparing(estimates::get));
+	}
+
+	/**
+	 * @return filters that can be checked against the zone map of the input
+	 */
+	private List<AttributeFilter> zoneFilters() {
+		final List<AttributeFilter> zoneFilters = new ArrayList<>();
+		if (index == null) return zoneFilters;
+		final ZoneMap zones = index.getZoneMap();
+		for (BaseFilter filter : filters) {
+			if (filter instanceof AttributeFilter && zones.supports((AttributeFilter) filter)) {
+				zoneFilters.add((AttributeFilter) filter);
+			}
+		}
+		sortBySelectivity(zoneFilters);
+		return zoneFilters;
+	}
+
+	/**
+	 * @return equality filters on categorical fields and contains filters on text fields, whose lines can be looked up
+	 * in the value bitmaps or the trigrams of the input
+	 */
+	private List<AttributeFilter> bitmapFilters() {
+		final List<AttributeFilter> bitmapFilters = new ArrayList<>();
+		if (index == null) return bitmapFilters;
+		final ValueBitmaps bitmaps = index.getValueBitmaps();
+		final TrigramIndex trigrams = index.getTrigramIndex();
+		for (BaseFilter filter : filters) {
+			if (filter instanceof AttributeFilter
+				&& (bitmaps.supports((AttributeFilter) filter) || trigrams.supports((AttributeFilter) filter))) {
+				bitmapFilters.add((AttributeFilter) filter);
+			}
+		}
+		return bitmapFilters;
+	}
+
+	/**
+	 * Reads only the lines that may pass every bitmap filter: the candidate lines of each filter, from the value
+	 * bitmaps or the trigrams, are merged with AND, and the blocks ruled out by the zone filters are removed. Candidate
+	 * lines are read with a {@link VariantSource}, then filtered as usual.
+	 */
+	private void scanBitmaps(VCFHeader header, VariantContextWriter writer, List<AttributeFilter> bitmapFilters, List<AttributeFilter> zoneFilters) throws IOException {
+		final ValueBitmaps bitmaps = index.getValueBitmaps();
+		final TrigramIndex trigrams = index.getTrigramIndex();
+		final int size = index.getLineOffsets().size();
+		long[] candidates = null;
+		for (AttributeFilter filter : bitmapFilters) {
+			final long[] words = new long[(size + 63) >>> 6];
+			if (bitmaps.supports(filter)) bitmaps.or(filter, words);
+			else trigrams.or(filter, words);
+			if (candidates == null) candidates = words;
+			else BitUtils.and(candidates, words, candidates);
+		}
+		final ZoneMap zones = index.getZoneMap();
+		int first = 0;
+		for (int block = 0; block < zones.size(); block++) {
+			if (!mayMatch(zones, block, zoneFilters)) BitUtils.clear(candidates, first, first + zones.getCount(block));
+			first += zones.getCount(block);
+		}
+		try (VariantSource source = new VariantSource(input, header, index)) {
+			for (int ordinal = BitUtils.nextSetBit(candidates, 0); ordinal >= 0 && !isCancelled(); ordinal = BitUtils.nextSetBit(candidates, ordinal + 1)) {
+				final VariantContext variant = source.get(ordinal);
+				if (variant == null) break;
+				// Lines before the candidate are counted as read
+				lines.set(ordinal);
+				process(writer, variant);
+			}
+		}
+		if (!isCancelled()) lines.set(size);
+		if (total != null) updateProgress(lines.get(), total);
+	}
+
+	/**
+	 * Reads the raw lines of the input, skipping the blocks whose zones prove that none of their lines pass the zone
+	 * filters. Lines of the other blocks are decoded and filtered as usual.
+	 */
+	private void scanZones(VCFHeader header, VariantContextWriter writer, List<AttributeFilter> zoneFilters) throws IOException {
+		final ZoneMap zones = index.getZoneMap();
+		final VCFCodec codec = new VCFCodec();
+		codec.setVCFHeader(header, header.getVCFHeaderVersion() == null ? VCFHeaderVersion.VCF4_2 : header.getVCFHeaderVersion());
+		try (VcfLineReader reader = new VcfLineReader(input, List.of())) {
+			int block = 0;
+			VcfLine line;
+			while (!isCancelled() && (line = reader.next()) != null) {
+				final long pointer = line.getFilePointer();
+				while (block < zones.size() && zones.getEnd(block) <= pointer) block++;
+				if (block < zones.size() && zones.getStart(block) <= pointer && !mayMatch(zones, block, zoneFilters)) {
+					reader.skip(zones.getEnd(block));
+					lines.set(lines.get() + zones.getCount(block));
+					if (total != null) updateProgress(lines.get(), total);
+					continue;
+				}
+				process(writer, codec.decode(line.getText()));
+			}
+		}
+	}
+
+	private static boolean mayMatch(ZoneMap zones, int block, List<AttributeFilter> zoneFilters) {
+		for (AttributeFilter filter : zoneFilters) if (!zones.mayMatch(block, filter)) return false;
+		return true;
+	}
+
+	private boolean accept(VariantContext variant) {
+		// Looked up before the conjunction, so its cost is not measured as the cost of the first sample filter
+		site = genotypeFilters.isEmpty() ? null : archive.getSite(variant.getContig(), variant.getStart());
+		return conjunction.test(variant);
+	}
+
 	private void process(VariantContextWriter writer, VariantContext variant) {
-		if (filters.stream().allMatch(filter -> filter.filter(variant))) {
+		if (accept(variant)) {
 			filtered.set(filtered.get() + 1);
 			if (filtered.get() <= maxResults) {
 				variants.add(variant);
@@ -0,0 +1,97 @@
+package org.uichuimi.variant.viewer.io;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import org.uichuimi.variant.viewer.index.LineOffsets;
+import org.uichuimi.variant.viewer.index.VcfIndex;
+import org.uichuimi.variant.viewer.index.VcfLine;
+import org.uichuimi.variant.viewer.index.VcfLineReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Variants of an indexed VCF file by ordinal, the position of their line in the file. Lines are located with the
+ * {@link LineOffsets} of the index, so any variant is read without reading the lines before it. Lines close after the
+ * last one read are reached by reading forward, as seeking a block compressed file inflates its block again. Gzipped
+ * files can only be read forward, by increasing ordinals. A source is not thread safe.
+ */
+public class VariantSource implements AutoCloseable {
+
+	/**
+	 * Maximum number of lines read, rather than sought, to reach the next line
+	 */
+	private static final int READ_AHEAD = 64;
+
+	private final VcfLineReader reader;
+	private final LineOffsets.Cursor cursor;
+	private final VCFCodec codec = new VCFCodec();
+	private final int size;
+	/**
+	 * Ordinal of the line at the reader, which starts at the first line
+	 */
+	private int next;
+
+	/**
+	 * @param file   the VCF file
+	 * @param header header of the file
+	 * @param index  index of the file
+	 */
+	public VariantSource(File file, VCFHeader header, VcfIndex index) throws IOException {
+		final LineOffsets offsets = index.getLineOffsets();
+		this.reader = new VcfLineReader(file, List.of());
+		this.cursor = offsets.cursor();
+		this.size = offsets.size();
+		codec.setVCFHeader(header, header.getVCFHeaderVersion() == null ? VCFHeaderVersion.VCF4_2 : header.getVCFHeaderVersion());
+	}
+
+	/**
+	 * @return number of variants
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the variant with ordinal
+	 */
+	public VariantContext get(int ordinal) throws IOException {
+		final VcfLine line = getLine(ordinal);
+		return line == null ? null : codec.decode(line.getText());
+	}
+
+	/**
+	 * @return the variants with ordinals from from, inclusive, to to, exclusive, as a page of a table
+	 */
+	public List<VariantContext> get(int from, int to) throws IOException {
+		final List<VariantContext> variants = new ArrayList<>(Math.max(0, to - from));
+		for (int ordinal = from; ordinal < Math.min(to, size); ordinal++) variants.add(get(ordinal));
+		return variants;
+	}
+
+	/**
+	 * @return the raw line with ordinal, or null if the file ends before it
+	 * @throws IOException if the file is gzipped and ordinal is before the last line read
+	 */
+	public VcfLine getLine(int ordinal) throws IOException {
+		final long pointer = cursor.get(ordinal);
+		if (ordinal >= next && ordinal - next <= READ_AHEAD) {
+			while (next < ordinal && reader.next() != null) next++;
+		} else if (ordinal < next) {
+			reader.seek(pointer);
+		} else {
+			reader.skip(pointer);
+		}
+		next = ordinal + 1;
+		return reader.next();
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
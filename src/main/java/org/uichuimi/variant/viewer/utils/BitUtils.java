@@ -1,9 +1,13 @@
 package org.uichuimi.variant.viewer.utils;
 
+import java.nio.ByteBuffer;
 import java.util.StringJoiner;
 
 /**
- * Methods extracted from BitSet, to allow working with plain long arrays.
+ * Methods extracted from BitSet, to allow working with plain long arrays. Bulk kernels are plain counted loops over
+ * the words, a shape that HotSpot unrolls and vectorizes, and use {@link Long#bitCount(long)}, which is intrinsified
+ * to the popcnt instruction. Kernels over a {@link ByteBuffer} read words stored in place, as the bitmap containers of
+ * the genotype archive.
  */
 public class BitUtils {
 	private static final int ADDRESS_BITS_PER_WORD = 6;
@@ -42,6 +46,46 @@ public class BitUtils {
 		words[word] &= ~(1L << bit);
 	}
 
+	/**
+	 * Sets the bits of a range to false
+	 *
+	 * @param words array of words representing a bit set
+	 * @param from  first bit of the range, inclusive
+	 * @param to    last bit of the range, exclusive
+	 */
+	public static void clear(long[] words, int from, int to) {
+		if (from >= to) return;
+		final int first = wordIndex(from);
+		final int last = wordIndex(to - 1);
+		final long firstMask = WORD_MASK << from;
+		final long lastMask = WORD_MASK >>> -to;
+		if (first == last) {
+			words[first] &= ~(firstMask & lastMask);
+			return;
+		}
+		words[first] &= ~firstMask;
+		for (int w = first + 1; w < last; w++) words[w] = 0;
+		words[last] &= ~lastMask;
+	}
+
+	/**
+	 * Finds the next bit set to true, as {@link java.util.BitSet#nextSetBit(int)}
+	 *
+	 * @param words array of words representing a bit set
+	 * @param from  bit to start checking from, inclusive
+	 * @return index of the next bit set to true, or -1 if there is no such bit
+	 */
+	public static int nextSetBit(long[] words, int from) {
+		int w = wordIndex(from);
+		if (w >= words.length) return -1;
+		long word = words[w] & (WORD_MASK << from);
+		while (word == 0) {
+			if (++w == words.length) return -1;
+			word = words[w];
+		}
+		return w * BITS_PER_WORD + Long.numberOfTrailingZeros(word);
+	}
+
 	/**
 	 * Computes the intersection of 2 bitsets
 	 *
@@ -55,6 +99,108 @@ public class BitUtils {
 		return false;
 	}
 
+	/**
+	 * Stores a &amp; b into target. target may be one of the operands.
+	 */
+	public static void and(long[] a, long[] b, long[] target) {
+		for (int w = 0; w < target.length; w++) {
+			target[w] = a[w] & b[w];
+		}
+	}
+
+	/**
+	 * Stores a | b into target. target may be one of the operands.
+	 */
+	public static void or(long[] a, long[] b, long[] target) {
+		for (int w = 0; w < target.length; w++) {
+			target[w] = a[w] | b[w];
+		}
+	}
+
+	/**
+	 * Counts the bits set in a bitset
+	 *
+	 * @param words a bitset
+	 * @return the number of bits set to true
+	 */
+	public static int cardinality(long[] words) {
+		int count = 0;
+		for (int w = 0; w < words.length; w++) count += Long.bitCount(words[w]);
+		return count;
+	}
+
+	/**
+	 * Counts the bits set in a range of a bitset
+	 *
+	 * @param words a bitset
+	 * @param from  first bit of the range, inclusive
+	 * @param to    last bit of the range, exclusive
+	 * @return the number of bits set to true in the range
+	 */
+	public static int cardinality(long[] words, int from, int to) {
+		if (from >= to) return 0;
+		final int first = wordIndex(from);
+		final int last = wordIndex(to - 1);
+		final long firstMask = WORD_MASK << from;
+		final long lastMask = WORD_MASK >>> -to;
+		if (first == last) return Long.bitCount(words[first] & firstMask & lastMask);
+		int count = Long.bitCount(words[first] & firstMask);
+		for (int w = first + 1; w < last; w++) {
+			count += Long.bitCount(words[w]);
+		}
+		return count + Long.bitCount(words[last] & lastMask);
+	}
+
+	/**
+	 * Counts the bits set in both bitsets, without materializing the intersection
+	 *
+	 * @param a    one of the bitsets
+	 * @param mask the other bitset
+	 * @return the cardinality of the intersection
+	 */
+	public static int andCardinality(long[] a, long[] mask) {
+		int count = 0;
+		for (int w = 0; w < mask.length; w++) count += Long.bitCount(a[w] & mask[w]);
+		return count;
+	}
+
+	/**
+	 * Counts the bits set in length words of buffer, from offset
+	 */
+	public static int cardinality(ByteBuffer buffer, int offset, int length) {
+		int count = 0;
+		for (int w = 0; w < length; w++) count += Long.bitCount(buffer.getLong(offset + 8 * w));
+		return count;
+	}
+
+	/**
+	 * Counts the bits set both in length words of buffer, from offset, and in mask
+	 */
+	public static int andCardinality(ByteBuffer buffer, int offset, long[] mask, int length) {
+		int count = 0;
+		for (int w = 0; w < length; w++) count += Long.bitCount(buffer.getLong(offset + 8 * w) & mask[w]);
+		return count;
+	}
+
+	/**
+	 * Counts the bits set both in length words of a, from aOffset, and in length words of b, from bOffset
+	 */
+	public static int andCardinality(ByteBuffer a, int aOffset, ByteBuffer b, int bOffset, int length) {
+		int count = 0;
+		for (int w = 0; w < length; w++) count += Long.bitCount(a.getLong(aOffset + 8 * w) & b.getLong(bOffset + 8 * w));
+		return count;
+	}
+
+	/**
+	 * Checks whether any bit is set both in length words of buffer, from offset, and in mask
+	 */
+	public static boolean intersects(ByteBuffer buffer, int offset, long[] mask, int length) {
+		for (int w = 0; w < length; w++) {
+			if ((buffer.getLong(offset + 8 * w) & mask[w]) != 0) return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Creates  the string representation of the bitset, by printing the indices of the true values.
 	 * <p>Example:</p>
@@ -0,0 +1,125 @@
+package org.uichuimi.variant.viewer.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs several consumers of the same resource at the same time. Contents are grouped in batches, and every batch is
+ * handed to each consumer through its own bounded queue, consumed by its own thread. When a queue is full, the producer
+ * waits, so the slowest consumer sets the pace without buffering the whole resource. {@link #finnish(long)} waits until
+ * every consumer has consumed every content, and then finishes them.
+ * <p>
+ * Consumers receive the same contents at the same time, so they must only read them.
+ */
+public class FanOutConsumer<Header, Content> implements ResourceConsumer<Header, Content> {
+
+	private static final int BATCH_SIZE = 256;
+	private static final int QUEUE_SIZE = 16;
+	private static final Batch<?> END = new Batch<>();
+
+	private final List<Worker> workers = new ArrayList<>();
+	private Batch<Content> batch = new Batch<>();
+
+	public FanOutConsumer(Collection<? extends ResourceConsumer<Header, Content>> consumers) {
+		consumers.forEach(consumer -> workers.add(new Worker(consumer)));
+	}
+
+	@Override
+	public void start(Header header) {
+		for (Worker worker : workers) {
+			worker.consumer.start(header);
+			worker.thread.start();
+		}
+	}
+
+	@Override
+	public void consume(Content content, long position) {
+		batch.add(content, position);
+		if (batch.size() == BATCH_SIZE) {
+			send(batch);
+			batch = new Batch<>();
+		}
+	}
+
+	@Override
+	public void finnish(long position) throws Exception {
+		if (batch.size() > 0) send(batch);
+		send(END);
+		for (Worker worker : workers) worker.thread.join();
+		for (Worker worker : workers) if (worker.error != null) throw worker.error;
+		for (Worker worker : workers) worker.consumer.finnish(position);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void send(Batch<?> batch) {
+		try {
+			for (Worker worker : workers) {
+				if (worker.error != null) {
+					stop();
+					throw worker.error instanceof RuntimeException
+						? (RuntimeException) worker.error
+						: new IllegalStateException(worker.error);
+				}
+				worker.queue.put((Batch<Content>) batch);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			stop();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void stop() {
+		workers.forEach(worker -> worker.thread.interrupt());
+	}
+
+	private static class Batch<Content> {
+
+		private final List<Content> contents = new ArrayList<>(BATCH_SIZE);
+		private final long[] positions = new long[BATCH_SIZE];
+
+		private void add(Content content, long position) {
+			positions[contents.size()] = position;
+			contents.add(content);
+		}
+
+		private int size() {
+			return contents.size();
+		}
+	}
+
+	private class Worker implements Runnable {
+
+		private final ResourceConsumer<Header, Content> consumer;
+		private final BlockingQueue<Batch<Content>> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+		private final Thread thread;
+		private volatile Exception error;
+
+		private Worker(ResourceConsumer<Header, Content> consumer) {
+			this.consumer = consumer;
+			this.thread = new Thread(this, consumer.getClass().getSimpleName());
+			this.thread.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				Batch<Content> batch;
+				while ((batch = queue.take()) != END) {
+					// After an error, batches are still taken, so the producer is never blocked
+					if (error != null) continue;
+					try {
+						for (int i = 0; i < batch.size(); i++) consumer.consume(batch.contents.get(i), batch.positions[i]);
+					} catch (Exception e) {
+						error = e;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
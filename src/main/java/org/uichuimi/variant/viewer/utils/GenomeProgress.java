@@ -31,9 +31,13 @@ public class GenomeProgress {
 	}
 
 	public static double getProgress(VariantContext variant, Chromosome.Namespace namespace) {
-		final Long base = abs.get(Chromosome.get(variant.getContig(), namespace));
+		return getProgress(variant.getContig(), variant.getStart(), namespace);
+	}
+
+	public static double getProgress(String contig, int position, Chromosome.Namespace namespace) {
+		final Long base = abs.get(Chromosome.get(contig, namespace));
 		if (base == null) return 0.99;
-		return (base + variant.getStart()) / ( double) total;
+		return (base + position) / ( double) total;
 	}
 
 }
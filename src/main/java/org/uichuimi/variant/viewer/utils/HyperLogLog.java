@@ -0,0 +1,93 @@
+package org.uichuimi.variant.viewer.utils;
+
+/**
+ * HyperLogLog sketch. Estimates the number of distinct values added to it in 2^precision bytes, with a standard error
+ * of about 1.04 / sqrt(2^precision). Small cardinalities are estimated by linear counting, which is almost exact.
+ */
+public class HyperLogLog {
+
+	private final int precision;
+	private final byte[] registers;
+
+	/**
+	 * @param precision number of bits of the hash used to choose a register, between 4 and 16
+	 */
+	public HyperLogLog(int precision) {
+		if (precision < 4 || precision > 16) throw new IllegalArgumentException("precision must be between 4 and 16");
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	/**
+	 * Restores a sketch from its registers
+	 */
+	public HyperLogLog(byte[] registers) {
+		this.precision = Integer.numberOfTrailingZeros(registers.length);
+		this.registers = registers;
+	}
+
+	/**
+	 * @return the registers of the sketch, one byte each, to store it
+	 */
+	public byte[] getRegisters() {
+		return registers;
+	}
+
+	public void add(String value) {
+		add(hash(value));
+	}
+
+	/**
+	 * @param hash a well mixed 64 bits hash of the value
+	 */
+	public void add(long hash) {
+		final int register = (int) (hash >>> (64 - precision));
+		// The guard bit bounds the rank when the rest of the hash is 0
+		final byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+		if (rank > registers[register]) registers[register] = rank;
+	}
+
+	/**
+	 * @return estimated number of distinct values added
+	 */
+	public long estimate() {
+		final int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for (byte register : registers) {
+			sum += 1.0 / (1L << register);
+			if (register == 0) zeros++;
+		}
+		final double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+		final double estimate = alpha * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0) return Math.round(m * Math.log((double) m / zeros));
+		return Math.round(estimate);
+	}
+
+	/**
+	 * Adds the values of a sketch with the same precision.
+	 */
+	public void merge(HyperLogLog other) {
+		if (other.precision != precision) throw new IllegalArgumentException("sketches have different precision");
+		for (int i = 0; i < registers.length; i++) {
+			if (other.registers[i] > registers[i]) registers[i] = other.registers[i];
+		}
+	}
+
+	/**
+	 * @return FNV-1a hash of value, finished with the MurmurHash3 mixer so every bit depends on every char
+	 */
+	public static long hash(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,266 @@
+package org.uichuimi.variant.viewer.utils;
+
+import java.util.Arrays;
+
+/**
+ * KLL quantile sketch. Values are kept in levels of compactors, where a value of level h stands for 2^h values. When a
+ * level is full, its values are sorted and every other one, starting at a random offset, is moved to the next level.
+ * Lower levels are smaller, so the sketch keeps about 3k values for any number of values, and estimates ranks with an
+ * error of about 1.7 / k of the number of values. Sketches of different parts of the data can be merged.
+ */
+public class QuantileSketch {
+
+	private static final int MIN_CAPACITY = 8;
+	private static final double DECAY = 2.0 / 3;
+
+	private final int k;
+	private double[][] levels;
+	private int[] sizes;
+	/**
+	 * Capacity of each level, which only changes when a level is added
+	 */
+	private int[] capacities;
+	/**
+	 * Number of values kept, and the sum of the capacities of the levels, so the sketch is only compressed when full
+	 */
+	private int size;
+	private int capacity;
+	private long count;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	/**
+	 * State of the generator of the offsets of compactions, so sketches are built the same way every time
+	 */
+	private long seed = 0x9e3779b97f4a7c15L;
+
+	/**
+	 * @param k capacity of the top level, which sets the accuracy of the sketch
+	 */
+	public QuantileSketch(int k) {
+		if (k < MIN_CAPACITY) throw new IllegalArgumentException("k must be at least " + MIN_CAPACITY);
+		this.k = k;
+		this.levels = new double[][]{new double[k]};
+		this.sizes = new int[1];
+		updateCapacities();
+	}
+
+	/**
+	 * Restores a sketch from its levels
+	 */
+	public QuantileSketch(int k, long count, double min, double max, double[][] levels) {
+		this.k = k;
+		this.count = count;
+		this.min = min;
+		this.max = max;
+		this.levels = new double[levels.length][];
+		this.sizes = new int[levels.length];
+		updateCapacities();
+		for (int h = 0; h < levels.length; h++) {
+			this.levels[h] = Arrays.copyOf(levels[h], Math.max(levels[h].length, capacities[h]));
+			this.sizes[h] = levels[h].length;
+			this.size += levels[h].length;
+		}
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * @return the values kept in each level, to store the sketch
+	 */
+	public double[][] getLevels() {
+		final double[][] rtn = new double[levels.length][];
+		for (int h = 0; h < levels.length; h++) rtn[h] = Arrays.copyOf(levels[h], sizes[h]);
+		return rtn;
+	}
+
+	/**
+	 * @return number of values added
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return smallest value added, or +Infinity if there are none
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return largest value added, or -Infinity if there are none
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	public void add(double value) {
+		if (Double.isNaN(value)) return;
+		if (value < min) min = value;
+		if (value > max) max = value;
+		count++;
+		if (sizes[0] == levels[0].length) levels[0] = Arrays.copyOf(levels[0], Math.max(MIN_CAPACITY, 2 * sizes[0]));
+		levels[0][sizes[0]++] = value;
+		if (++size >= capacity) compress();
+	}
+
+	/**
+	 * Adds the values of another sketch with the same k.
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.k != k) throw new IllegalArgumentException("sketches have different k");
+		if (other.count == 0) return;
+		while (levels.length < other.levels.length) grow();
+		for (int h = 0; h < other.levels.length; h++) {
+			if (sizes[h] + other.sizes[h] > levels[h].length) levels[h] = Arrays.copyOf(levels[h], sizes[h] + other.sizes[h]);
+			System.arraycopy(other.levels[h], 0, levels[h], sizes[h], other.sizes[h]);
+			sizes[h] += other.sizes[h];
+			size += other.sizes[h];
+		}
+		count += other.count;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		compress();
+	}
+
+	/**
+	 * @param inclusive whether to count the values equal to value
+	 * @return estimated fraction of the values lower than value, or lower or equal if inclusive, 0 if there are none
+	 */
+	public double rank(double value, boolean inclusive) {
+		if (count == 0) return 0;
+		if (value < min || value == min && !inclusive) return 0;
+		if (value > max || value == max && inclusive) return 1;
+		long weight = 0;
+		for (int h = 0; h < levels.length; h++) {
+			final double[] level = levels[h];
+			int n = 0;
+			for (int i = 0; i < sizes[h]; i++) if (level[i] < value || inclusive && level[i] == value) n++;
+			weight += (long) n << h;
+		}
+		return (double) weight / count;
+	}
+
+	/**
+	 * @param fraction between 0 and 1
+	 * @return estimated value with fraction of the values below it, NaN if there are none
+	 */
+	public double quantile(double fraction) {
+		return quantiles(new double[]{fraction})[0];
+	}
+
+	/**
+	 * @param bins number of bins
+	 * @return the bounds of an equi-depth histogram with bins bins, each with about the same number of values: bins + 1
+	 * values from the minimum to the maximum. NaN if there are no values
+	 */
+	public double[] histogram(int bins) {
+		final double[] fractions = new double[bins + 1];
+		for (int i = 0; i <= bins; i++) fractions[i] = (double) i / bins;
+		return quantiles(fractions);
+	}
+
+	private double[] quantiles(double[] fractions) {
+		final double[] rtn = new double[fractions.length];
+		if (count == 0) {
+			Arrays.fill(rtn, Double.NaN);
+			return rtn;
+		}
+		int total = 0;
+		for (int size : sizes) total += size;
+		// Values of every level are sorted together, through their positions, and keep their weights
+		final double[] values = new double[total];
+		final long[] weights = new long[total];
+		final Integer[] order = new Integer[total];
+		int n = 0;
+		for (int h = 0; h < levels.length; h++) {
+			for (int i = 0; i < sizes[h]; i++, n++) {
+				values[n] = levels[h][i];
+				weights[n] = 1L << h;
+				order[n] = n;
+			}
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+		for (int f = 0; f < fractions.length; f++) {
+			if (fractions[f] <= 0) rtn[f] = min;
+			else if (fractions[f] >= 1) rtn[f] = max;
+			else {
+				final double target = fractions[f] * count;
+				long cumulative = 0;
+				rtn[f] = max;
+				for (Integer i : order) {
+					cumulative += weights[i];
+					if (cumulative >= target) {
+						rtn[f] = values[i];
+						break;
+					}
+				}
+			}
+		}
+		return rtn;
+	}
+
+	/**
+	 * Sets the capacities of the levels, which depend on their depth below the top level.
+	 */
+	private void updateCapacities() {
+		capacities = new int[levels.length];
+		capacity = 0;
+		for (int h = 0; h < levels.length; h++) {
+			final int depth = levels.length - h - 1;
+			capacities[h] = Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(DECAY, depth)));
+			capacity += capacities[h];
+		}
+	}
+
+	/**
+	 * Compacts levels until the sketch fits the sum of the capacities of its levels.
+	 */
+	private void compress() {
+		while (size >= capacity) {
+			for (int h = 0; h < levels.length; h++) {
+				if (sizes[h] >= capacities[h]) {
+					compact(h);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves every other value of level, sorted, to the next level. With an odd number of values, the largest one stays.
+	 */
+	private void compact(int level) {
+		if (level == levels.length - 1) grow();
+		final double[] values = levels[level];
+		final int size = sizes[level];
+		Arrays.sort(values, 0, size);
+		final int pairs = size / 2;
+		final int next = level + 1;
+		if (sizes[next] + pairs > levels[next].length) levels[next] = Arrays.copyOf(levels[next], sizes[next] + pairs);
+		final int offset = nextBit();
+		for (int i = 0; i < pairs; i++) levels[next][sizes[next]++] = values[2 * i + offset];
+		if (size % 2 == 1) values[0] = values[size - 1];
+		sizes[level] = size % 2;
+		this.size -= pairs;
+	}
+
+	private void grow() {
+		levels = Arrays.copyOf(levels, levels.length + 1);
+		sizes = Arrays.copyOf(sizes, sizes.length + 1);
+		levels[levels.length - 1] = new double[MIN_CAPACITY];
+		updateCapacities();
+	}
+
+	/**
+	 * @return next bit of a xorshift generator
+	 */
+	private int nextBit() {
+		seed ^= seed << 13;
+		seed ^= seed >>> 7;
+		seed ^= seed << 17;
+		return (int) (seed >>> 63);
+	}
+}